@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.googlecode.jsendnsca.builders.NagiosSettingsBuilder;
+
+/**
+ * Building a passive check packet, lives in the library package to reach the
+ * package private {@link PassiveCheckBytesBuilder} constructor
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PassiveCheckBytesBuilderBenchmark {
+
+    @Param({ "512", "4096" })
+    public int messageSize;
+
+    @Param({ "short", "full" })
+    public String messageLength;
+
+    private NagiosSettings settings;
+    private String message;
+
+    @Setup
+    public void setUp() {
+        NagiosSettingsBuilder builder = new NagiosSettingsBuilder();
+        if (messageSize > 512) {
+            builder.withLargeMessageSupportEnabled();
+        }
+        settings = builder.create();
+        message = "short".equals(messageLength)
+                ? "OK - load average: 0.12, 0.10, 0.08"
+                : StringUtils.repeat("x", messageSize - 1);
+    }
+
+    @Benchmark
+    public int buildPacket() {
+        PassiveCheckBytesBuilder builder = new PassiveCheckBytesBuilder(settings)
+            .withLevel(Level.WARNING)
+            .withTimeStamp(1234567890)
+            .withHostname("webserver01.example.com")
+            .withServiceName("Load Average")
+            .withMessage(message)
+            .writeCRC();
+        int crc = builder.toByteArray()[4];
+        builder.release();
+        return crc;
+    }
+}
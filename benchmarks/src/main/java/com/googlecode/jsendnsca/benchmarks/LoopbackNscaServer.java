@@ -0,0 +1,89 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A minimal in-process NSCA server for benchmarking sends, it sends the
+ * initialisation vector and timestamp then reads and discards the packet
+ * without decrypting it so the server costs as little as possible
+ */
+class LoopbackNscaServer implements Runnable {
+
+    private static final int HANDSHAKE_SIZE = 128 + 4;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final byte[] handshake = new byte[HANDSHAKE_SIZE];
+    private volatile boolean running = true;
+
+    LoopbackNscaServer() throws IOException {
+        serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        new Random(42).nextBytes(handshake);
+        Thread acceptor = new Thread(this, "loopback-nsca");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public void run() {
+        while (running) {
+            try {
+                final Socket socket = serverSocket.accept();
+                connections.execute(() -> handle(socket));
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket connection = socket) {
+            OutputStream out = connection.getOutputStream();
+            out.write(handshake);
+            out.flush();
+
+            InputStream in = connection.getInputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytesReceived.addAndGet(read);
+            }
+        } catch (IOException ignore) {
+        }
+    }
+
+    void stop() throws IOException {
+        running = false;
+        serverSocket.close();
+        connections.shutdownNow();
+    }
+}
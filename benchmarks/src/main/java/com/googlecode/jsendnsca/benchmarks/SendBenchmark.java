@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.googlecode.jsendnsca.Level;
+import com.googlecode.jsendnsca.MessagePayload;
+import com.googlecode.jsendnsca.NagiosException;
+import com.googlecode.jsendnsca.NagiosPassiveCheckSender;
+import com.googlecode.jsendnsca.builders.NagiosSettingsBuilder;
+import com.googlecode.jsendnsca.encryption.Encryption;
+
+/**
+ * Full sends with {@link NagiosPassiveCheckSender}, connection and handshake
+ * included, against an in-process loopback NSCA server
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SendBenchmark {
+
+    @Param({ "NONE", "XOR", "TRIPLE_DES", "RIJNDAEL128" })
+    public Encryption encryption;
+
+    @Param({ "false", "true" })
+    public boolean largeMessages;
+
+    private LoopbackNscaServer server;
+    private NagiosPassiveCheckSender sender;
+    private MessagePayload payload;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new LoopbackNscaServer();
+
+        NagiosSettingsBuilder builder = new NagiosSettingsBuilder()
+            .withNagiosHost("127.0.0.1")
+            .withPort(server.getPort())
+            .withPassword("password")
+            .withEncryption(encryption);
+        if (largeMessages) {
+            builder.withLargeMessageSupportEnabled();
+        }
+        sender = new NagiosPassiveCheckSender(builder.create());
+        payload = new MessagePayload("webserver01.example.com", Level.WARNING, "Load Average", "WARNING - load average: 5.12");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.stop();
+    }
+
+    @Benchmark
+    public void send() throws NagiosException, IOException {
+        sender.send(payload);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Derives the connect and handshake timeouts from the latencies seen, as TCP
+ * derives its retransmission timeout (RFC 6298): a smoothed mean plus four
+ * times the smoothed mean deviation, never below a minimum. Each timeout
+ * doubles the next one until a connect or handshake succeeds again.
+ * <p>
+ * The timeouts of the {@link NagiosSettings} are the ceilings, and are used
+ * as they are until the first latency is seen. Share one instance between
+ * the {@link NagiosSettings} of an NSCA endpoint so every sender learns from
+ * the others.
+ *
+ * @since 2.1
+ */
+public class AdaptiveTimeout {
+
+    private final Estimator connect = new Estimator();
+    private final Estimator handshake = new Estimator();
+    private long minimumNanos = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Set the shortest timeout, 100 milliseconds by default
+     *
+     * @param minimum
+     *            the minimum timeout
+     * @param unit
+     *            the {@link TimeUnit} of the minimum
+     * @return this {@link AdaptiveTimeout}
+     */
+    public AdaptiveTimeout withMinimum(long minimum, TimeUnit unit) {
+        Validate.isTrue(minimum > 0, "minimum must be greater than 0");
+        this.minimumNanos = unit.toNanos(minimum);
+        return this;
+    }
+
+    /**
+     * The timeout to connect within
+     *
+     * @param ceilingMillis
+     *            the configured connect timeout, 0 for none
+     * @return the timeout in milliseconds
+     */
+    int getConnectTimeout(int ceilingMillis) {
+        return connect.timeoutMillis(ceilingMillis, minimumNanos);
+    }
+
+    /**
+     * The timeout to read the initialisation vector and timestamp within
+     *
+     * @param ceilingMillis
+     *            the configured timeout, 0 for none
+     * @return the timeout in milliseconds
+     */
+    int getHandshakeTimeout(int ceilingMillis) {
+        return handshake.timeoutMillis(ceilingMillis, minimumNanos);
+    }
+
+    void connected(long nanos) {
+        connect.sample(nanos);
+    }
+
+    void connectTimedOut() {
+        connect.timedOut();
+    }
+
+    void handshaken(long nanos) {
+        handshake.sample(nanos);
+    }
+
+    void handshakeTimedOut() {
+        handshake.timedOut();
+    }
+
+    /**
+     * The smoothed latency and deviation of one step
+     */
+    private static class Estimator {
+
+        private static final int MAX_BACKOFF = 10;
+
+        private boolean sampled;
+        private long smoothedNanos;
+        private long deviationNanos;
+        private int backoff;
+
+        synchronized void sample(long nanos) {
+            if (sampled) {
+                deviationNanos += (Math.abs(smoothedNanos - nanos) - deviationNanos) / 4;
+                smoothedNanos += (nanos - smoothedNanos) / 8;
+            } else {
+                sampled = true;
+                smoothedNanos = nanos;
+                deviationNanos = nanos / 2;
+            }
+            backoff = 0;
+        }
+
+        synchronized void timedOut() {
+            if (backoff < MAX_BACKOFF) {
+                backoff++;
+            }
+        }
+
+        synchronized int timeoutMillis(int ceilingMillis, long minimumNanos) {
+            if (!sampled) {
+                return ceilingMillis;
+            }
+            final long timeoutNanos = Math.max(minimumNanos, smoothedNanos + 4 * deviationNanos) << backoff;
+            final long timeoutMillis = TimeUnit.NANOSECONDS.toMillis(timeoutNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+            return ceilingMillis <= 0 ? (int) Math.min(Integer.MAX_VALUE, timeoutMillis) : (int) Math.min(ceilingMillis, timeoutMillis);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+/**
+ * Moving averages of the cost of a handshake, of a packet and of what
+ * lingering gathers, from which the size a batch should reach and how long
+ * to linger for it are derived
+ */
+class BatchCosts {
+
+    /**
+     * Batches aim for the handshake to be at most a quarter of their cost,
+     * h &lt;= (h + n * p) / 4, so n &gt;= 3 * h / p
+     */
+    private static final int HANDSHAKE_MULTIPLE = 3;
+
+    /**
+     * Lingering is retried every this many batches after it stopped paying
+     * off, in case traffic picked up
+     */
+    private static final int PROBE_INTERVAL = 16;
+
+    private static final double SMOOTHING = 0.125;
+
+    private double handshakeNanos;
+    private double packetNanos;
+    private double lingerYield = 1;
+    private int batches;
+
+    synchronized void recordHandshake(long nanos) {
+        handshakeNanos = average(handshakeNanos, nanos);
+    }
+
+    synchronized void recordPackets(int count, long nanos) {
+        packetNanos = average(packetNanos, (double) nanos / count);
+    }
+
+    /**
+     * Record the passive checks gathered while lingering for a batch
+     */
+    synchronized void recordLinger(int gathered) {
+        lingerYield += (gathered - lingerYield) * SMOOTHING;
+    }
+
+    /**
+     * The batch size worth lingering for, 1 until costs have been measured
+     */
+    synchronized int targetSize(int maxChecks) {
+        if (handshakeNanos == 0 || packetNanos == 0) {
+            return 1;
+        }
+        return (int) Math.max(1, Math.min(maxChecks, Math.ceil(HANDSHAKE_MULTIPLE * handshakeNanos / packetNanos)));
+    }
+
+    /**
+     * How long to linger for the next batch, no longer than a handshake takes
+     * and 0 while lingering has been gathering less than a passive check
+     */
+    synchronized long lingerNanos(long maxLingerNanos) {
+        batches++;
+        if (lingerYield < 1 && batches % PROBE_INTERVAL != 0) {
+            return 0;
+        }
+        return Math.min(maxLingerNanos, (long) handshakeNanos);
+    }
+
+    private static double average(double average, double sample) {
+        return average == 0 ? sample : average + (sample - average) * SMOOTHING;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The queue of a sender which does not block. Passive checks are offered by
+ * the threads sending and polled by the worker threads.
+ */
+interface CheckQueue {
+
+    /**
+     * Queue a check, which may push other checks out of the queue
+     *
+     * @return false if the check was refused
+     */
+    boolean offer(QueuedCheck check);
+
+    /**
+     * @return the next check to send, null if the queue is empty
+     */
+    QueuedCheck poll();
+
+    /**
+     * @return true if the check was still queued
+     */
+    boolean remove(QueuedCheck check);
+
+    boolean isEmpty();
+
+    int size();
+
+    /**
+     * Told of the checks pushed out of a queue by newer checks
+     */
+    interface DropHandler {
+
+        /**
+         * Called while the queue is locked so must be quick
+         */
+        void dropped(QueuedCheck check);
+    }
+
+    /**
+     * A first in first out queue with no bound
+     */
+    class Fifo implements CheckQueue {
+
+        private final ConcurrentLinkedQueue<QueuedCheck> queue = new ConcurrentLinkedQueue<QueuedCheck>();
+
+        public boolean offer(QueuedCheck check) {
+            return queue.offer(check);
+        }
+
+        public QueuedCheck poll() {
+            return queue.poll();
+        }
+
+        public boolean remove(QueuedCheck check) {
+            return queue.remove(check);
+        }
+
+        public boolean isEmpty() {
+            return queue.isEmpty();
+        }
+
+        public int size() {
+            return queue.size();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link PassiveCheckSender} with a lifecycle, so passive checks still
+ * queued are not lost when an application shuts down.
+ * <p>
+ * Senders which queue passive checks send what they can before the deadline
+ * and then hand the rest to their {@link SpoolStore}, if they have one, to be
+ * sent later. Each call reports what became of the passive checks in a
+ * {@link DeliveryReport}.
+ *
+ * @since 2.1
+ */
+public interface CloseablePassiveCheckSender extends PassiveCheckSender, Closeable {
+
+    /**
+     * Send the passive checks queued so far, waiting at most until the
+     * timeout. Passive checks still queued at the timeout stay queued.
+     *
+     * @param timeout
+     *            the maximum time to wait
+     * @param unit
+     *            the unit of the timeout
+     * @return what became of the queued passive checks
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    DeliveryReport flush(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Stop accepting passive checks and send the ones queued, waiting at most
+     * until the timeout. Passive checks still queued at the timeout are
+     * spooled or abandoned.
+     *
+     * @param timeout
+     *            the maximum time to wait
+     * @param unit
+     *            the unit of the timeout
+     * @return what became of the queued passive checks
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    DeliveryReport close(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Close with the default timeout of the sender, for use in a finally block
+     * or try-with-resources statement
+     */
+    void close();
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the connections in flight at once. The bound is either fixed or
+ * adapted in the manner of TCP Vegas: it grows while handshake and write
+ * latencies stay near the lowest seen, shrinks by one when they rise and by
+ * a quarter on a failure such as a timeout.
+ * <p>
+ * Handshakes and writes are compared with their own lowest latency, and
+ * latencies under a millisecond count as a millisecond so the jitter of a
+ * fast network does not read as queueing.
+ */
+class ConcurrencyLimiter {
+
+    /**
+     * The kinds of latency sampled
+     */
+    static final int HANDSHAKE = 0;
+    static final int WRITE = 1;
+
+    /**
+     * The estimated number of requests queued at NSCA, limit * (1 - lowest
+     * latency / latency), below which the limit grows and above which it
+     * shrinks
+     */
+    private static final double GROW_BELOW_QUEUED = 2;
+    private static final double SHRINK_ABOVE_QUEUED = 4;
+    private static final double FAILURE_BACKOFF = 0.75;
+    private static final long LATENCY_FLOOR_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * The lowest latencies are forgotten every this many samples so a
+     * lasting change of route or load is learnt
+     */
+    private static final int BASELINE_RESET_SAMPLES = 500;
+
+    private final int maxLimit;
+    private final long[] lowestNanos = new long[2];
+    private boolean adaptive;
+    private int limit;
+    private int inFlight;
+    private int samples;
+
+    ConcurrencyLimiter(int maxLimit) {
+        this.maxLimit = maxLimit;
+        this.limit = maxLimit;
+    }
+
+    /**
+     * Adapt the limit starting from 1, or fix it at the maximum
+     */
+    synchronized void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        this.limit = adaptive ? 1 : maxLimit;
+        lowestNanos[HANDSHAKE] = 0;
+        lowestNanos[WRITE] = 0;
+        notifyAll();
+    }
+
+    synchronized void acquire() throws InterruptedException {
+        while (inFlight >= limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Record the latency of a handshake or write
+     */
+    synchronized void sample(int kind, long nanos) {
+        if (!adaptive) {
+            return;
+        }
+        final long latency = Math.max(nanos, LATENCY_FLOOR_NANOS);
+        if (++samples % BASELINE_RESET_SAMPLES == 0 || lowestNanos[kind] == 0 || latency < lowestNanos[kind]) {
+            lowestNanos[kind] = latency;
+        }
+
+        final double queued = limit * (1 - (double) lowestNanos[kind] / latency);
+        if (queued < GROW_BELOW_QUEUED) {
+            // only grow a limit which is being used
+            if (inFlight * 2 >= limit && limit < maxLimit) {
+                limit++;
+                notifyAll();
+            }
+        } else if (queued > SHRINK_ABOVE_QUEUED && limit > 1) {
+            limit--;
+        }
+    }
+
+    /**
+     * Record a failed handshake or write
+     */
+    synchronized void failed() {
+        if (adaptive) {
+            limit = Math.max(1, (int) (limit * FAILURE_BACKOFF));
+        }
+    }
+
+    synchronized int getLimit() {
+        return limit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Wait for nothing to be in flight
+     *
+     * @return the number still in flight at the timeout
+     */
+    synchronized int awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (inFlight > 0) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return inFlight;
+    }
+}
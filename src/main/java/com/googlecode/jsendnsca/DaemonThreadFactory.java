@@ -0,0 +1,42 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the daemon threads of background workers, so a sender which is
+ * never closed does not keep the JVM from exiting
+ */
+class DaemonThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    /**
+     * @param name
+     *            the name of the worker, its threads are named
+     *            <code>jsendnsca-&lt;name&gt;-&lt;number&gt;</code>
+     */
+    DaemonThreadFactory(String name) {
+        this.prefix = "jsendnsca-" + name + "-";
+    }
+
+    public Thread newThread(Runnable runnable) {
+        final Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
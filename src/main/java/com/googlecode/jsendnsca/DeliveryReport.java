@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+/**
+ * What became of the passive checks a {@link CloseablePassiveCheckSender} had
+ * queued when it was flushed or closed. Passive checks sent while flushing
+ * are counted as well.
+ *
+ * @since 2.1
+ */
+public class DeliveryReport {
+
+    private final long delivered;
+    private final long spooled;
+    private final long abandoned;
+    private final long pending;
+
+    /**
+     * Construct a new {@link DeliveryReport}
+     *
+     * @param delivered
+     *            the number of passive checks sent
+     * @param spooled
+     *            the number of passive checks handed to the {@link SpoolStore}
+     * @param abandoned
+     *            the number of passive checks which failed to send or could
+     *            not be spooled
+     * @param pending
+     *            the number of passive checks still queued or being sent
+     */
+    public DeliveryReport(long delivered, long spooled, long abandoned, long pending) {
+        this.delivered = delivered;
+        this.spooled = spooled;
+        this.abandoned = abandoned;
+        this.pending = pending;
+    }
+
+    /**
+     * The number of passive checks sent
+     *
+     * @return the delivered count
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * The number of passive checks handed to the {@link SpoolStore}
+     *
+     * @return the spooled count
+     */
+    public long getSpooled() {
+        return spooled;
+    }
+
+    /**
+     * The number of passive checks which failed to send or were still queued
+     * at the deadline with no {@link SpoolStore} to take them
+     *
+     * @return the abandoned count
+     */
+    public long getAbandoned() {
+        return abandoned;
+    }
+
+    /**
+     * The number of passive checks still queued or being sent at the deadline,
+     * after closing only those being sent
+     *
+     * @return the pending count
+     */
+    public long getPending() {
+        return pending;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("delivered %d, spooled %d, abandoned %d, pending %d", delivered, spooled, abandoned, pending);
+    }
+}
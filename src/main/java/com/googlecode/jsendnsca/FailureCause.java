@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+/**
+ * The cause of a failure to send a passive check
+ *
+ * @since 2.1
+ */
+public enum FailureCause {
+
+    /**
+     * the host could not be resolved or the connection was refused
+     */
+    CONNECT,
+    /**
+     * connecting to or reading from NSCA timed out
+     */
+    TIMEOUT,
+    /**
+     * the initialisation vector and timestamp could not be read from NSCA
+     */
+    HANDSHAKE,
+    /**
+     * the passive check could not be encrypted
+     */
+    ENCRYPTION,
+    /**
+     * the passive check could not be written to NSCA
+     */
+    WRITE,
+    /**
+     * the passive check was dropped by its {@link RateLimit}
+     */
+    RATE_LIMIT,
+    /**
+     * any other failure
+     */
+    UNKNOWN;
+
+    /**
+     * Classify an exception thrown while sending a passive check
+     *
+     * @param exception
+     *            the exception
+     * @return the {@link FailureCause}
+     */
+    public static FailureCause classify(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException) {
+                return TIMEOUT;
+            }
+            if (cause instanceof ConnectException || cause instanceof NoRouteToHostException || cause instanceof UnknownHostException) {
+                return CONNECT;
+            }
+        }
+        if (exception instanceof RateLimitExceededException) {
+            return RATE_LIMIT;
+        }
+        if (exception instanceof NagiosSendException) {
+            return ((NagiosSendException) exception).getFailureCause();
+        }
+        return UNKNOWN;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+
+/**
+ * A {@link SpoolStore} appending passive checks to a file, one per line in
+ * the tab delimited format of <code>send_nsca</code> with tabs, new lines and
+ * backslashes in the fields escaped.
+ * <p>
+ * On start up {@link #recover()} the spooled passive checks and send them:
+ *
+ * <pre>
+ * FileSpoolStore spool = new FileSpoolStore(new File(&quot;nsca.spool&quot;));
+ * for (MessagePayload payload : spool.recover()) {
+ *     sender.send(payload);
+ * }
+ * sender.setSpoolStore(spool);
+ * </pre>
+ *
+ * @since 2.1
+ */
+public class FileSpoolStore implements SpoolStore {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private Writer writer;
+
+    /**
+     * Construct a new {@link FileSpoolStore}
+     *
+     * @param file
+     *            the spool file, created when the first passive check is
+     *            spooled
+     */
+    public FileSpoolStore(File file) {
+        Validate.notNull(file, "file cannot be null");
+        this.file = file;
+    }
+
+    public synchronized void spool(MessagePayload payload) throws IOException {
+        if (writer == null) {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), UTF_8));
+        }
+        writer.write(escape(payload.getHostname()));
+        writer.write('\t');
+        if (!payload.isHostCheck()) {
+            writer.write(escape(payload.getServiceName()));
+            writer.write('\t');
+        }
+        writer.write(String.valueOf(payload.getLevel().ordinal()));
+        writer.write('\t');
+        writer.write(escape(payload.getMessage()));
+        writer.write('\n');
+    }
+
+    /**
+     * Flush and close the spool file, the next passive check spooled opens it
+     * again
+     */
+    public synchronized void flush() throws IOException {
+        if (writer != null) {
+            try {
+                writer.close();
+            } finally {
+                writer = null;
+            }
+        }
+    }
+
+    /**
+     * Read the spooled passive checks and delete the spool file
+     *
+     * @return the passive checks in the order they were spooled, empty if
+     *         there is no spool file
+     * @throws IOException
+     *             thrown if the spool file cannot be read or is corrupt
+     */
+    public synchronized List<MessagePayload> recover() throws IOException {
+        flush();
+        final List<MessagePayload> payloads = new ArrayList<MessagePayload>();
+        if (!file.exists()) {
+            return payloads;
+        }
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0) {
+                    payloads.add(toPayload(line));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        if (!file.delete()) {
+            throw new IOException("Can't delete spool file " + file);
+        }
+        return payloads;
+    }
+
+    private MessagePayload toPayload(String line) throws IOException {
+        final String[] fields = StringUtils.splitPreserveAllTokens(line, '\t');
+        try {
+            if (fields.length == 3) {
+                return MessagePayload.forHostCheck(unescape(fields[0]), Level.toLevel(Integer.parseInt(fields[1])), unescape(fields[2]));
+            }
+            if (fields.length == 4) {
+                return new MessagePayload(unescape(fields[0]), Level.toLevel(Integer.parseInt(fields[2])), unescape(fields[1]), unescape(fields[3]));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException(String.format("Corrupt spool file %s, line [%s]", file, line));
+        }
+        throw new IOException(String.format("Corrupt spool file %s, line [%s]", file, line));
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return StringUtils.EMPTY;
+        }
+        final StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+            case '\\':
+                escaped.append("\\\\");
+                break;
+            case '\t':
+                escaped.append("\\t");
+                break;
+            case '\n':
+                escaped.append("\\n");
+                break;
+            case '\r':
+                escaped.append("\\r");
+                break;
+            default:
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        final StringBuilder unescaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                c = value.charAt(++i);
+                if (c == 't') {
+                    c = '\t';
+                } else if (c == 'n') {
+                    c = '\n';
+                } else if (c == 'r') {
+                    c = '\r';
+                }
+            }
+            unescaped.append(c);
+        }
+        return unescaped.toString();
+    }
+}
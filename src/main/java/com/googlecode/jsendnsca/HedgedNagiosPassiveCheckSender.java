@@ -0,0 +1,367 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.lang.Validate;
+
+import com.googlecode.jsendnsca.metrics.LatencyHistogram;
+import com.googlecode.jsendnsca.metrics.SenderMetrics;
+
+/**
+ * This sender sends each passive check to a primary NSCA server and, if the
+ * primary has not sent its initialisation vector within the usual handshake
+ * latency, sends it to a secondary NSCA server as well, returning as soon as
+ * either has the passive check. A passive check only updates the state of a
+ * service, so receiving it twice is harmless.
+ * <p>
+ * The hedge is started once the primary is slower than the 95th percentile
+ * of its recent handshakes, or its connect timeout until 20 handshakes have
+ * been seen. Each send earns a tenth of a hedge and each hedge spends one,
+ * so when every handshake is slow at most one send in ten is hedged rather
+ * than the secondary getting all the load twice over. A passive check the
+ * primary fails to send is always sent to the secondary.
+ *
+ * @since 2.1
+ */
+public class HedgedNagiosPassiveCheckSender implements CloseablePassiveCheckSender {
+
+    private static final int MIN_HANDSHAKES = 20;
+    private static final int HANDSHAKES_PER_WINDOW = 1000;
+    private static final long HEDGE_COST = 1000;
+    private static final long MAX_HEDGES_SAVED = 10;
+    private static final long DEFAULT_CLOSE_TIMEOUT_SECONDS = 10;
+
+    private final NagiosPassiveCheckSender primary;
+    private final NagiosPassiveCheckSender secondary;
+    private final ExecutorService executor = Executors.newCachedThreadPool(new DaemonThreadFactory("hedge"));
+    private final SenderMetrics metrics = new SenderMetrics();
+    private final AtomicLong hedgeCredit = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicReference<LatencyHistogram> handshakes = new AtomicReference<LatencyHistogram>(new LatencyHistogram());
+    private volatile LatencyHistogram previousHandshakes;
+    private volatile double percentile = 95;
+    private volatile long creditPerSend = HEDGE_COST / 10;
+    private volatile boolean closed;
+
+    /**
+     * Construct a new {@link HedgedNagiosPassiveCheckSender}
+     *
+     * @param primary
+     *            the {@link NagiosSettings} of the NSCA server to send to
+     * @param secondary
+     *            the {@link NagiosSettings} of the NSCA server to hedge with
+     */
+    public HedgedNagiosPassiveCheckSender(NagiosSettings primary, NagiosSettings secondary) {
+        Validate.notNull(primary, "primary cannot be null");
+        Validate.notNull(secondary, "secondary cannot be null");
+        this.primary = new NagiosPassiveCheckSender(primary);
+        this.secondary = new NagiosPassiveCheckSender(secondary);
+    }
+
+    /**
+     * Set the percentile of the handshake latency of the primary after which
+     * to hedge, 95 by default
+     *
+     * @param percentile
+     *            the percentile between 0 and 100 e.g. 99
+     */
+    public void setHedgePercentile(double percentile) {
+        Validate.isTrue(percentile >= 0 && percentile <= 100, "percentile must be between 0 and 100 inclusive");
+        this.percentile = percentile;
+    }
+
+    /**
+     * Set the share of passive checks which may be hedged when every
+     * handshake is slow, 0.1 by default
+     *
+     * @param budget
+     *            the share between 0 for never hedging and 1
+     */
+    public void setHedgeBudget(double budget) {
+        Validate.isTrue(budget >= 0 && budget <= 1, "budget must be between 0 and 1 inclusive");
+        this.creditPerSend = Math.round(budget * HEDGE_COST);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.googlecode.jsendnsca.sender.INagiosPassiveCheckSender#send(com.googlecode
+     * .jsendnsca.sender.MessagePayload)
+     */
+    public void send(MessagePayload payload) throws NagiosException, IOException {
+        Validate.notNull(payload, "payload cannot be null");
+        if (closed) {
+            metrics.recordDropped();
+            throw new RejectedExecutionException("sender has been closed");
+        }
+        earnCredit();
+
+        final Race race = new Race();
+        try {
+            final Attempt first = race.start(primary, payload);
+            if (!first.awaitHandshake(hedgeDelayNanos()) && spendCredit()) {
+                hedges.incrementAndGet();
+                race.start(secondary, payload);
+            }
+            if (!race.await() && race.attempts == 1) {
+                metrics.recordRetried();
+                race.start(secondary, payload);
+                race.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            metrics.recordFailed();
+            throw new InterruptedIOException("interrupted while sending passive check");
+        } catch (RejectedExecutionException e) {
+            metrics.recordDropped();
+            throw new RejectedExecutionException("sender has been closed");
+        }
+        race.rethrow();
+    }
+
+    /**
+     * The number of passive checks also sent to the secondary because the
+     * primary was slow
+     *
+     * @return the number of hedges
+     */
+    public long getHedges() {
+        return hedges.get();
+    }
+
+    /**
+     * The metrics of the passive checks sent, each counted once however many
+     * NSCA servers it was sent to
+     *
+     * @return the {@link SenderMetrics}
+     */
+    public SenderMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * The metrics of sending to the primary
+     *
+     * @return the {@link SenderMetrics}
+     */
+    public SenderMetrics getPrimaryMetrics() {
+        return primary.getMetrics();
+    }
+
+    /**
+     * The metrics of sending to the secondary
+     *
+     * @return the {@link SenderMetrics}
+     */
+    public SenderMetrics getSecondaryMetrics() {
+        return secondary.getMetrics();
+    }
+
+    /**
+     * Passive checks are sent on the calling thread so there is nothing to
+     * flush
+     */
+    public DeliveryReport flush(long timeout, TimeUnit unit) {
+        return new DeliveryReport(0, 0, 0, 0);
+    }
+
+    /**
+     * Reject passive checks sent after closing and wait for the sends which
+     * lost their race to finish
+     */
+    public DeliveryReport close(long timeout, TimeUnit unit) throws InterruptedException {
+        closed = true;
+        primary.close();
+        secondary.close();
+        executor.shutdown();
+        executor.awaitTermination(timeout, unit);
+        return new DeliveryReport(0, 0, 0, 0);
+    }
+
+    /**
+     * Close waiting at most 10 seconds for the sends which lost their race
+     */
+    public void close() {
+        try {
+            close(DEFAULT_CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    long hedgeDelayNanos() {
+        LatencyHistogram histogram = handshakes.get();
+        if (histogram.getCount() < MIN_HANDSHAKES) {
+            histogram = previousHandshakes;
+        }
+        if (histogram == null) {
+            return TimeUnit.MILLISECONDS.toNanos(primary.getNagiosSettings().getConnectTimeout());
+        }
+        return histogram.getPercentile(percentile);
+    }
+
+    /**
+     * Record a handshake, starting a new window once the current one is full.
+     * Concurrent handshakes can push the count past the size of the window,
+     * only the thread swapping the window in publishes the full one.
+     */
+    void recordHandshake(long nanos) {
+        final LatencyHistogram histogram = handshakes.get();
+        histogram.record(nanos);
+        if (histogram.getCount() >= HANDSHAKES_PER_WINDOW && handshakes.compareAndSet(histogram, new LatencyHistogram())) {
+            previousHandshakes = histogram;
+        }
+    }
+
+    private void earnCredit() {
+        final long credit = creditPerSend;
+        long current = hedgeCredit.get();
+        while (current < MAX_HEDGES_SAVED * HEDGE_COST
+            && !hedgeCredit.compareAndSet(current, Math.min(current + credit, MAX_HEDGES_SAVED * HEDGE_COST))) {
+            current = hedgeCredit.get();
+        }
+    }
+
+    private boolean spendCredit() {
+        long current = hedgeCredit.get();
+        while (current >= HEDGE_COST) {
+            if (hedgeCredit.compareAndSet(current, current - HEDGE_COST)) {
+                return true;
+            }
+            current = hedgeCredit.get();
+        }
+        return false;
+    }
+
+    /**
+     * The sends of one passive check, won by the first to succeed
+     */
+    private final class Race {
+
+        private int attempts;
+        private int failures;
+        private boolean won;
+        private Throwable failure;
+
+        Attempt start(NagiosPassiveCheckSender sender, MessagePayload payload) {
+            final Attempt attempt = new Attempt(this, sender, payload);
+            synchronized (this) {
+                attempts++;
+            }
+            executor.execute(attempt);
+            return attempt;
+        }
+
+        synchronized void succeeded() {
+            if (!won) {
+                won = true;
+                metrics.recordSent();
+            }
+            notifyAll();
+        }
+
+        synchronized void failed(Throwable e) {
+            failures++;
+            if (failure == null) {
+                failure = e;
+            }
+            notifyAll();
+        }
+
+        /**
+         * Wait until a send succeeds or every send has failed
+         *
+         * @return true if a send succeeded
+         */
+        synchronized boolean await() throws InterruptedException {
+            while (!won && failures < attempts) {
+                wait();
+            }
+            return won;
+        }
+
+        synchronized void rethrow() throws NagiosException, IOException {
+            if (won) {
+                return;
+            }
+            metrics.recordFailed();
+            if (failure instanceof NagiosException) {
+                throw (NagiosException) failure;
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            throw (RuntimeException) failure;
+        }
+    }
+
+    /**
+     * The send of a passive check to one NSCA server
+     */
+    private final class Attempt implements Runnable {
+
+        private final Race race;
+        private final NagiosPassiveCheckSender sender;
+        private final MessagePayload payload;
+        private final CountDownLatch handshaken = new CountDownLatch(1);
+
+        Attempt(Race race, NagiosPassiveCheckSender sender, MessagePayload payload) {
+            this.race = race;
+            this.sender = sender;
+            this.payload = payload;
+        }
+
+        public void run() {
+            final long start = System.nanoTime();
+            try {
+                sender.sendEncoded(sender.encode(payload), new Runnable() {
+                    public void run() {
+                        if (sender == primary) {
+                            recordHandshake(System.nanoTime() - start);
+                        }
+                        handshaken.countDown();
+                    }
+                });
+                race.succeeded();
+            } catch (Throwable e) {
+                race.failed(e);
+            } finally {
+                handshaken.countDown();
+            }
+        }
+
+        /**
+         * Wait for the handshake, or for the send to fail
+         *
+         * @return false if still waiting for the handshake at the timeout
+         */
+        boolean awaitHandshake(long timeoutNanos) throws InterruptedException {
+            return handshaken.await(timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+
+import com.googlecode.jsendnsca.metrics.SenderMetrics;
+
+/**
+ * This sender sends passive checks in parallel without letting an older
+ * result for a service overtake a newer one.
+ * <p>
+ * Plugging a multi-threaded executor into a
+ * {@link NonBlockingNagiosPassiveCheckSender} lets passive checks for the same
+ * service race each other. Instead this sender hashes each passive check by
+ * its host name and service name to one of a number of lanes, each a
+ * {@link NonBlockingNagiosPassiveCheckSender} with a single worker thread and
+ * connection of its own. Passive checks for a service are therefore sent in
+ * the order they were sent to this sender, while throughput grows with the
+ * number of lanes.
+ * <p>
+ * Each lane records into {@link SenderMetrics} of its own, read together
+ * through {@link #getMetrics()}, and the lanes are configured together.
+ *
+ * @since 2.1
+ */
+public class KeyedNagiosPassiveCheckSender implements CloseablePassiveCheckSender {
+
+    private static final int DEFAULT_LANES = 4;
+    private static final long DEFAULT_CLOSE_TIMEOUT_SECONDS = 10;
+
+    private final SenderShards lanes;
+
+    /**
+     * Construct a new {@link KeyedNagiosPassiveCheckSender} with the provided
+     * {@link NagiosSettings} and 4 lanes
+     *
+     * @param settings
+     *            the {@link NagiosSettings} to use to send the Passive Check
+     */
+    public KeyedNagiosPassiveCheckSender(NagiosSettings settings) {
+        this(settings, DEFAULT_LANES);
+    }
+
+    /**
+     * Construct a new {@link KeyedNagiosPassiveCheckSender} with the provided
+     * {@link NagiosSettings}
+     *
+     * @param settings
+     *            the {@link NagiosSettings} to use to send the Passive Check
+     * @param laneCount
+     *            the number of lanes, and so of connections open at once
+     */
+    public KeyedNagiosPassiveCheckSender(NagiosSettings settings, int laneCount) {
+        this.lanes = new SenderShards(settings, laneCount);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.googlecode.jsendnsca.sender.INagiosPassiveCheckSender#send(com.googlecode
+     * .jsendnsca.sender.MessagePayload)
+     */
+    public void send(MessagePayload payload) throws NagiosException, IOException {
+        Validate.notNull(payload, "payload cannot be null");
+        lanes.get(laneOf(payload.getHostname(), payload.getServiceName(), lanes.count())).send(payload);
+    }
+
+    /**
+     * The lane of a host and service
+     */
+    static int laneOf(String hostname, String serviceName, int laneCount) {
+        int hash = 31 * (hostname == null ? 0 : hostname.hashCode()) + (serviceName == null ? 0 : serviceName.hashCode());
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % laneCount;
+    }
+
+    /**
+     * The metrics of all the lanes, a read only view summing the metrics of
+     * each lane when read
+     *
+     * @return the {@link SenderMetrics}
+     */
+    public SenderMetrics getMetrics() {
+        return lanes.getMetrics();
+    }
+
+    /**
+     * @see NonBlockingNagiosPassiveCheckSender#setPreEncoding(boolean)
+     */
+    public void setPreEncoding(boolean preEncoding) {
+        lanes.setPreEncoding(preEncoding);
+    }
+
+    /**
+     * @see NonBlockingNagiosPassiveCheckSender#setTimeToLive(long, TimeUnit)
+     */
+    public void setTimeToLive(long timeToLive, TimeUnit unit) {
+        lanes.setTimeToLive(timeToLive, unit);
+    }
+
+    /**
+     * @see NonBlockingNagiosPassiveCheckSender#setPriorityLanes(PriorityLanes)
+     */
+    public void setPriorityLanes(PriorityLanes priorityLanes) {
+        lanes.setPriorityLanes(priorityLanes);
+    }
+
+    /**
+     * @see NonBlockingNagiosPassiveCheckSender#setMicroBatching(MicroBatching)
+     */
+    public void setMicroBatching(MicroBatching microBatching) {
+        lanes.setMicroBatching(microBatching);
+    }
+
+    /**
+     * Queue the passive checks of each lane in direct memory of the given size
+     *
+     * @see NonBlockingNagiosPassiveCheckSender#setOffHeapQueue(int)
+     */
+    public void setOffHeapQueue(int capacityInBytes) {
+        lanes.setOffHeapQueue(capacityInBytes);
+    }
+
+    /**
+     * @see NonBlockingNagiosPassiveCheckSender#setStormProtection(StormProtection)
+     */
+    public void setStormProtection(StormProtection stormProtection) {
+        lanes.setStormProtection(stormProtection);
+    }
+
+    /**
+     * @see NonBlockingNagiosPassiveCheckSender#setSendFailureListener(SendFailureListener)
+     */
+    public void setSendFailureListener(SendFailureListener listener) {
+        lanes.setSendFailureListener(listener);
+    }
+
+    /**
+     * @see NonBlockingNagiosPassiveCheckSender#setSpoolStore(SpoolStore)
+     */
+    public void setSpoolStore(SpoolStore spoolStore) {
+        lanes.setSpoolStore(spoolStore);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.googlecode.jsendnsca.CloseablePassiveCheckSender#flush(long,
+     * java.util.concurrent.TimeUnit)
+     */
+    public DeliveryReport flush(long timeout, TimeUnit unit) throws InterruptedException {
+        return lanes.flush(timeout, unit);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.googlecode.jsendnsca.CloseablePassiveCheckSender#close(long,
+     * java.util.concurrent.TimeUnit)
+     */
+    public DeliveryReport close(long timeout, TimeUnit unit) throws InterruptedException {
+        return lanes.close(timeout, unit);
+    }
+
+    /**
+     * Close waiting at most 10 seconds for the queued passive checks to be
+     * sent
+     */
+    public void close() {
+        try {
+            close(DEFAULT_CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Shutdown the worker threads of the lanes at once, use
+     * {@link #close(long, TimeUnit)} to wait for the queued passive checks to
+     * be sent
+     */
+    public void shutdown() {
+        lanes.shutdown();
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The {@link CheckQueue} configured by {@link PriorityLanes}. Checks leaving
+ * the queue other than by {@link #poll()} are marked and skipped when they
+ * reach the head of their lane.
+ * <p>
+ * The checks queued for a host and service are linked from oldest to newest.
+ * A check whose older check is in another lane, or itself waiting, waits
+ * outside the lanes and enters its lane once the older check leaves the
+ * queue, so the results of a service are sent in order.
+ */
+class LaneQueue implements CheckQueue {
+
+    private static final int OK_LANE = PriorityLanes.laneOf(Level.OK);
+
+    private final ArrayDeque<QueuedCheck>[] lanes;
+    private final int[] laneSizes;
+    private final int[] weights;
+    private final int capacity;
+    private final boolean okCoalescing;
+    private final DropHandler dropHandler;
+    private final Map<Object, QueuedCheck> newestForService = new HashMap<Object, QueuedCheck>();
+    private int size;
+    private int current;
+    private int credit;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    LaneQueue(PriorityLanes priorityLanes, DropHandler dropHandler) {
+        this.weights = priorityLanes.getWeights();
+        this.capacity = priorityLanes.getCapacity();
+        this.okCoalescing = priorityLanes.isOkCoalescing();
+        this.dropHandler = dropHandler;
+        this.lanes = new ArrayDeque[weights.length];
+        for (int lane = 0; lane < lanes.length; lane++) {
+            lanes[lane] = new ArrayDeque<QueuedCheck>();
+        }
+        this.laneSizes = new int[weights.length];
+        this.credit = weights[0];
+    }
+
+    public synchronized boolean offer(QueuedCheck check) {
+        final Level level = check.payload.getLevel();
+        check.lane = PriorityLanes.laneOf(level == null ? Level.UNKNOWN : level);
+        check.serviceKey = new ServiceKey(check.payload.getHostname(), check.payload.getServiceName());
+
+        final QueuedCheck older = newestForService.get(check.serviceKey);
+        final int coalesced = check.lane == OK_LANE && okCoalescing ? countOk(older) : 0;
+        // only under overload does a newer result replace older ones in other lanes
+        final boolean supersede = older != null && older.lane != check.lane && size >= capacity;
+        final int replaced = supersede ? countQueued(older) : coalesced;
+        if (size - replaced >= capacity && lowestLaneAtOrBelow(check.lane) < 0) {
+            return false;
+        }
+
+        for (int i = 0; i < replaced; i++) {
+            drop(newestForService.get(check.serviceKey));
+        }
+        if (size >= capacity) {
+            drop(lanes[lowestLaneAtOrBelow(check.lane)].peekFirst());
+        }
+
+        final QueuedCheck newest = newestForService.get(check.serviceKey);
+        check.olderForService = newest;
+        if (newest != null) {
+            newest.newerForService = check;
+        }
+        newestForService.put(check.serviceKey, check);
+        size++;
+        check.waiting = true;
+        release(check);
+        return true;
+    }
+
+    /**
+     * Weighted round robin, each lane in turn sends up to its weight in
+     * checks
+     */
+    public synchronized QueuedCheck poll() {
+        if (size == 0) {
+            return null;
+        }
+        while (credit == 0 || laneSizes[current] == 0) {
+            current = (current + 1) % lanes.length;
+            credit = weights[current];
+        }
+        credit--;
+        final QueuedCheck check = lanes[current].peekFirst();
+        dequeue(check);
+        return check;
+    }
+
+    public synchronized boolean remove(QueuedCheck check) {
+        if (check.dequeued) {
+            return false;
+        }
+        dequeue(check);
+        return true;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * The number of checks queued in the lane of a level
+     */
+    synchronized int size(Level level) {
+        return laneSizes[PriorityLanes.laneOf(level)];
+    }
+
+    private void drop(QueuedCheck check) {
+        dequeue(check);
+        dropHandler.dropped(check);
+    }
+
+    /**
+     * Mark the check as no longer queued, removing it from its lane only if
+     * it is at the head. Marked checks behind the head are skipped later. The
+     * newer check for the service may then enter its lane.
+     */
+    private void dequeue(QueuedCheck check) {
+        check.dequeued = true;
+        size--;
+        final QueuedCheck older = check.olderForService;
+        final QueuedCheck newer = check.newerForService;
+        if (older != null) {
+            older.newerForService = newer;
+        }
+        if (newer != null) {
+            newer.olderForService = older;
+        } else if (older != null) {
+            newestForService.put(check.serviceKey, older);
+        } else {
+            newestForService.remove(check.serviceKey);
+        }
+        check.olderForService = null;
+        check.newerForService = null;
+
+        if (check.waiting) {
+            check.waiting = false;
+        } else {
+            laneSizes[check.lane]--;
+            final ArrayDeque<QueuedCheck> lane = lanes[check.lane];
+            while (!lane.isEmpty() && lane.peekFirst().dequeued) {
+                lane.pollFirst();
+            }
+        }
+        release(newer);
+    }
+
+    /**
+     * Move waiting checks for a service into their lanes, from the given
+     * check on, while the older check of each is ahead of it in the same lane
+     * or gone
+     */
+    private void release(QueuedCheck check) {
+        while (check != null && check.waiting) {
+            final QueuedCheck older = check.olderForService;
+            if (older != null && (older.waiting || older.lane != check.lane)) {
+                return;
+            }
+            check.waiting = false;
+            lanes[check.lane].addLast(check);
+            laneSizes[check.lane]++;
+            check = check.newerForService;
+        }
+    }
+
+    private int lowestLaneAtOrBelow(int lane) {
+        for (int lower = lanes.length - 1; lower >= lane; lower--) {
+            if (laneSizes[lower] > 0) {
+                return lower;
+            }
+        }
+        return -1;
+    }
+
+    private static int countQueued(QueuedCheck newest) {
+        int count = 0;
+        for (QueuedCheck check = newest; check != null; check = check.olderForService) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * The number of OK checks at the newest end of the checks for a service,
+     * which a newer OK check coalesces
+     */
+    private static int countOk(QueuedCheck newest) {
+        int count = 0;
+        for (QueuedCheck check = newest; check != null && check.lane == OK_LANE; check = check.olderForService) {
+            count++;
+        }
+        return count;
+    }
+
+    private static class ServiceKey {
+
+        private final String hostname;
+        private final String serviceName;
+        private final int hash;
+
+        private ServiceKey(String hostname, String serviceName) {
+            this.hostname = hostname;
+            this.serviceName = serviceName;
+            this.hash = 31 * (hostname == null ? 0 : hostname.hashCode()) + (serviceName == null ? 0 : serviceName.hashCode());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ServiceKey)) {
+                return false;
+            }
+            final ServiceKey other = (ServiceKey) obj;
+            return equal(hostname, other.hostname) && equal(serviceName, other.serviceName);
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
@@ -74,6 +74,36 @@ public class MessagePayload implements Serializable {
         this.message = message;
     }
 
+    /**
+     * Construct a new {@link MessagePayload} for a passive host check, which
+     * NSCA tells apart from a service check by an empty service name
+     *
+     * @param hostname
+     *            the hostname to be sent in this passive check
+     * @param level
+     *            the level, {@link Level#OK} for up, {@link Level#WARNING} for
+     *            down and {@link Level#CRITICAL} for unreachable
+     * @param message
+     *            the message
+     * @return the {@link MessagePayload}
+     * @since 2.1
+     */
+    public static MessagePayload forHostCheck(String hostname, Level level, String message) {
+        final MessagePayload payload = new MessagePayload(hostname, level, DEFAULT_SERVICENAME, message);
+        payload.serviceName = StringUtils.EMPTY;
+        return payload;
+    }
+
+    /**
+     * Whether this is a passive host check
+     *
+     * @return true if the service name is empty
+     * @since 2.1
+     */
+    public boolean isHostCheck() {
+        return serviceName.length() == 0;
+    }
+
     /**
      * The hostname to be sent in this passive check
      *
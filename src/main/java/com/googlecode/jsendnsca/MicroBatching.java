@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * How the {@link NonBlockingNagiosPassiveCheckSender} gathers queued passive
+ * checks into batches sent over a single connection to NSCA.
+ * <p>
+ * A batch takes whatever is queued up to the maximum count and bytes. When
+ * the queue runs dry first, the worker lingers for more passive checks only
+ * while that is worth it: until the batch is big enough that the handshake
+ * is a small part of the cost of sending it, never for longer than a
+ * handshake takes, and not at all while lingering has not been gathering
+ * passive checks. Under light traffic passive checks are therefore sent at
+ * once and under heavy traffic each connection carries many.
+ *
+ * @since 2.1
+ */
+public class MicroBatching {
+
+    private int maxChecks = 100;
+    private int maxBytes = 256 * 1024;
+    private long lingerNanos = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /**
+     * Set the maximum number of passive checks in a batch, 100 by default
+     *
+     * @param maxChecks
+     *            the maximum count, at least 1
+     * @return this {@link MicroBatching}
+     */
+    public MicroBatching withMaxChecks(int maxChecks) {
+        Validate.isTrue(maxChecks > 0, "maxChecks must be greater than 0");
+        this.maxChecks = maxChecks;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of bytes written in a batch, 256KB by default.
+     * Every packet of a batch is the largest packet size, see
+     * {@link PooledNagiosPassiveCheckSender}, and a batch always holds at
+     * least one.
+     *
+     * @param maxBytes
+     *            the maximum bytes
+     * @return this {@link MicroBatching}
+     */
+    public MicroBatching withMaxBytes(int maxBytes) {
+        Validate.isTrue(maxBytes > 0, "maxBytes must be greater than 0");
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Set the longest time to wait for more passive checks to fill a batch,
+     * 5 milliseconds by default
+     *
+     * @param linger
+     *            the linger time, 0 to never wait
+     * @param unit
+     *            the {@link TimeUnit} of the linger time
+     * @return this {@link MicroBatching}
+     */
+    public MicroBatching withLinger(long linger, TimeUnit unit) {
+        Validate.isTrue(linger >= 0, "linger cannot be negative");
+        this.lingerNanos = unit.toNanos(linger);
+        return this;
+    }
+
+    int getMaxChecks() {
+        return maxChecks;
+    }
+
+    int getMaxBytes() {
+        return maxBytes;
+    }
+
+    long getLingerNanos() {
+        return lingerNanos;
+    }
+}
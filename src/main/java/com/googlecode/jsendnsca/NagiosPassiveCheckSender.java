@@ -15,15 +15,13 @@ package com.googlecode.jsendnsca;
 
 import org.apache.commons.lang.Validate;
 
-import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
-import static com.googlecode.jsendnsca.utils.IOUtils.closeQuietly;
+import com.googlecode.jsendnsca.metrics.SenderMetrics;
+import com.googlecode.jsendnsca.metrics.SenderMetrics.Phase;
 
 /**
  * This class is used to send a Passive Check to the Nagios NSCA add-on
@@ -31,11 +29,11 @@ import static com.googlecode.jsendnsca.utils.IOUtils.closeQuietly;
  * @author Raj.Patel
  * @version 1.0
  */
-public class NagiosPassiveCheckSender implements PassiveCheckSender {
-
-    private static final int INITIALISATION_VECTOR_SIZE = 128;
+public class NagiosPassiveCheckSender implements CloseablePassiveCheckSender {
 
     private final NagiosSettings nagiosSettings;
+    private SenderMetrics metrics = new SenderMetrics();
+    private volatile boolean closed;
 
     /**
      * Construct a new {@link NagiosPassiveCheckSender} with the provided
@@ -58,60 +56,131 @@ public class NagiosPassiveCheckSender implements PassiveCheckSender {
      */
     public void send(MessagePayload payload) throws NagiosException, IOException {
         Validate.notNull(payload, "payload cannot be null");
+        if (closed) {
+            metrics.recordDropped();
+            throw new RejectedExecutionException("sender has been closed");
+        }
 
-        Socket socket = connectedToNagios();
-        OutputStream outputStream = socket.getOutputStream();
-        InputStream inputStream = socket.getInputStream();
+        sendEncoded(encode(payload));
+    }
 
-        try {
-            outputStream.write(passiveCheck(payload, new DataInputStream(inputStream)));
-            outputStream.flush();
-        } catch (SocketTimeoutException ste) {
-            throw ste;
-        } catch (IOException e) {
-            throw new NagiosException("Error occurred while sending passive alert", e);
-        } finally {
-            close(socket, outputStream, inputStream);
-        }
+    /**
+     * Passive checks are sent on the calling thread so there is nothing to
+     * flush
+     */
+    public DeliveryReport flush(long timeout, TimeUnit unit) {
+        return new DeliveryReport(0, 0, 0, 0);
     }
 
-    private Socket connectedToNagios() throws IOException {
-        Socket socket = new Socket();
-        socket.connect(new InetSocketAddress(nagiosSettings.getNagiosHost(), nagiosSettings.getPort()), nagiosSettings.getConnectTimeout());
-        socket.setSoTimeout(nagiosSettings.getTimeout());
-        return socket;
+    /**
+     * Reject passive checks sent after closing, there is nothing queued and no
+     * connection is kept open
+     */
+    public DeliveryReport close(long timeout, TimeUnit unit) {
+        close();
+        return new DeliveryReport(0, 0, 0, 0);
     }
 
-    private byte[] passiveCheck(MessagePayload payload, DataInputStream inputStream) throws IOException, NagiosException {
-        final byte[] initVector = readFrom(inputStream);
-        int receivedTimeStamp = inputStream.readInt();
-        
-        return new PassiveCheckBytesBuilder(nagiosSettings)
-            .withTimeStamp(receivedTimeStamp)
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Write the fields of the payload into its packet, leaving the timestamp,
+     * CRC and encryption to {@link #sendEncoded(PassiveCheckBytesBuilder)}
+     */
+    PassiveCheckBytesBuilder encode(MessagePayload payload) {
+        return encode(payload, nagiosSettings.getMinMessageSizeInChars());
+    }
+
+    /**
+     * As {@link #encode(MessagePayload)} starting at the given message size
+     */
+    PassiveCheckBytesBuilder encode(MessagePayload payload, int messageSizeInChars) {
+        final SendEvent event = SendEvent.begin(SendEventType.ENCODE);
+        final long start = System.nanoTime();
+        final PassiveCheckBytesBuilder passiveCheck = new PassiveCheckBytesBuilder(nagiosSettings, messageSizeInChars)
             .withLevel(payload.getLevel())
             .withHostname(payload.getHostname())
             .withServiceName(payload.getServiceName())
-            .withMessage(payload.getMessage())
-            .writeCRC()
-            .encrypt(initVector)
-            .toByteArray();
+            .withMessage(payload.getMessage());
+        metrics.record(Phase.ENCODE, System.nanoTime() - start);
+        event.commit(nagiosSettings, passiveCheck.packetSize());
+        return passiveCheck;
     }
 
-    private static void close(final Socket socket, OutputStream outputStream, InputStream inputStream) {
-        closeQuietly(inputStream);
-        closeQuietly(outputStream);
-        closeQuietly(socket);
+    /**
+     * Send a packet encoded by {@link #encode(MessagePayload)}, the packet
+     * buffer is released whether or not the send succeeds
+     */
+    void sendEncoded(PassiveCheckBytesBuilder passiveCheck) throws NagiosException, IOException {
+        sendEncoded(passiveCheck, null);
     }
 
-    private static byte[] readFrom(DataInputStream inputStream) throws NagiosException, SocketTimeoutException {
+    /**
+     * As {@link #sendEncoded(PassiveCheckBytesBuilder)}, running the callback
+     * once NSCA has sent its initialisation vector
+     */
+    void sendEncoded(PassiveCheckBytesBuilder passiveCheck, Runnable handshaken) throws NagiosException, IOException {
+        if (!RateLimit.admit(nagiosSettings, 1, passiveCheck.packetSize())) {
+            passiveCheck.release();
+            metrics.recordDropped();
+            throw new RateLimitExceededException(RateLimit.EXCEEDED);
+        }
+        boolean sent = false;
         try {
-            final byte[] initVector = new byte[INITIALISATION_VECTOR_SIZE];
-            inputStream.readFully(initVector, 0, INITIALISATION_VECTOR_SIZE);
-            return initVector;
-        } catch (SocketTimeoutException ste) {
-            throw ste;
-        } catch (IOException e) {
-            throw new NagiosException("Can't read initialisation vector", e);
+            NscaConnection connection = NscaConnection.connect(nagiosSettings, metrics, passiveCheck.packetSize());
+
+            FailureCause step = FailureCause.HANDSHAKE;
+            try {
+                connection.handshake();
+                if (handshaken != null) {
+                    handshaken.run();
+                }
+                final byte[] packet = connection.seal(passiveCheck);
+                step = FailureCause.WRITE;
+                connection.write(packet);
+                sent = true;
+            } catch (SocketTimeoutException ste) {
+                throw ste;
+            } catch (IOException e) {
+                throw new NagiosSendException("Error occurred while sending passive alert", step, e);
+            } finally {
+                connection.close();
+            }
+        } finally {
+            passiveCheck.release();
+            if (sent) {
+                metrics.recordSent();
+            } else {
+                metrics.recordFailed();
+            }
         }
     }
+
+    /**
+     * The metrics of this sender
+     *
+     * @return the {@link SenderMetrics}
+     */
+    public SenderMetrics getMetrics() {
+        return metrics;
+    }
+
+    NagiosSettings getNagiosSettings() {
+        return nagiosSettings;
+    }
+
+    /**
+     * Use the provided {@link SenderMetrics} instead of the metrics this
+     * sender was constructed with, e.g. to aggregate the metrics of many
+     * senders
+     *
+     * @param metrics
+     *            the {@link SenderMetrics} to record into
+     */
+    public void setMetrics(SenderMetrics metrics) {
+        Validate.notNull(metrics, "metrics cannot be null");
+        this.metrics = metrics;
+    }
 }
\ No newline at end of file
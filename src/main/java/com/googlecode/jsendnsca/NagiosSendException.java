@@ -0,0 +1,51 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+/**
+ * Thrown if sending a Passive Check fails once connected to NSCA, carrying
+ * the step of the send which failed
+ *
+ * @since 2.1
+ */
+public class NagiosSendException extends NagiosException {
+
+    private static final long serialVersionUID = -2904870357152437816L;
+
+    private final FailureCause failureCause;
+
+    /**
+     * Constructs an instance of <code>NagiosSendException</code> with the cause
+     *
+     * @param msg
+     *            the detail message.
+     * @param failureCause
+     *            the step of the send which failed
+     * @param cause
+     *            the cause
+     */
+    public NagiosSendException(String msg, FailureCause failureCause, Throwable cause) {
+        super(msg, cause);
+        this.failureCause = failureCause;
+    }
+
+    /**
+     * The step of the send which failed
+     *
+     * @return the {@link FailureCause}
+     */
+    public FailureCause getFailureCause() {
+        return failureCause;
+    }
+}
@@ -17,6 +17,8 @@ import static com.googlecode.jsendnsca.encryption.Encryption.NONE;
 import static org.apache.commons.lang.StringUtils.defaultIfEmpty;
 import static org.apache.commons.lang.builder.ToStringStyle.SHORT_PREFIX_STYLE;
 
+import java.nio.charset.Charset;
+
 import org.apache.commons.lang.Validate;
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
@@ -47,7 +49,11 @@ public class NagiosSettings {
     private int timeout = 10000;
     private int connectTimeout = 5000;
     private Encryptor encryptor = NONE.getEncryptor();
+    private int minMessageSizeInChars = SMALL_MAX_MESSAGE_SIZE_IN_CHARS;
     private int maxMessageSizeInChars = SMALL_MAX_MESSAGE_SIZE_IN_CHARS;
+    private Charset charset = Charset.defaultCharset();
+    private RateLimit rateLimit;
+    private AdaptiveTimeout adaptiveTimeout;
 
     /**
      * The connection timeout
@@ -67,6 +73,29 @@ public class NagiosSettings {
         return encryptor;
     }
 
+    /**
+     * Limit the rate passive checks are sent at by every sender using these
+     * settings, see {@link RateLimit}
+     *
+     * @param rateLimit
+     *            the {@link RateLimit}, null for no limit which is the default
+     */
+    public void setRateLimit(RateLimit rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    /**
+     * Adapt the connect and handshake timeouts to the latency of NSCA, with
+     * the configured timeouts as ceilings, see {@link AdaptiveTimeout}
+     *
+     * @param adaptiveTimeout
+     *            the {@link AdaptiveTimeout}, null for fixed timeouts which is
+     *            the default
+     */
+    public void setAdaptiveTimeout(AdaptiveTimeout adaptiveTimeout) {
+        this.adaptiveTimeout = adaptiveTimeout;
+    }
+
     /**
      * The host or IP of the Nagios host running the NSCA add-on
      *
@@ -103,6 +132,35 @@ public class NagiosSettings {
         return timeout;
     }
 
+    /**
+     * The {@link Charset} used to encode the hostname, service name and
+     * message of the passive check
+     *
+     * @return the charset, defaults to the platform default charset
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * The limit on the rate passive checks are sent at
+     *
+     * @return the {@link RateLimit}, null if there is no limit
+     */
+    public RateLimit getRateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * The estimator adapting the connect and socket timeouts to the latency
+     * of NSCA
+     *
+     * @return the {@link AdaptiveTimeout}, null if the timeouts are fixed
+     */
+    public AdaptiveTimeout getAdaptiveTimeout() {
+        return adaptiveTimeout;
+    }
+
     /**
      * Set the connection timeout, default is 5000 ms
      *
@@ -134,6 +192,19 @@ public class NagiosSettings {
         this.encryptor = encryptor;
     }
 
+    /**
+     * The {@link Charset} used to encode the hostname, service name and
+     * message of the passive check. Fields are truncated to their size in
+     * bytes without splitting a character.
+     *
+     * @param charset
+     *            the charset, defaults to the platform default charset
+     */
+    public void setCharset(Charset charset) {
+        Validate.notNull(charset, "charset cannot be null");
+        this.charset = charset;
+    }
+
     /**
      * The host or IP of the Nagios host running the NSCA add-on
      *
@@ -181,9 +252,32 @@ public class NagiosSettings {
      * instead of previous limit of 512 chars.
      */
     public void enableLargeMessageSupport() {
+        minMessageSizeInChars = LARGE_MAX_MESSAGE_SIZE_IN_CHARS;
         maxMessageSizeInChars = LARGE_MAX_MESSAGE_SIZE_IN_CHARS;
     }
 
+    /**
+     * Leverage support in NSCA 2.9.1 for both packet sizes on the same port.
+     * Messages which fit in 512 chars are sent in the smaller packet and only
+     * longer messages are sent in the packet for 4096 chars.
+     */
+    public void enableAdaptiveMessageSupport() {
+        minMessageSizeInChars = SMALL_MAX_MESSAGE_SIZE_IN_CHARS;
+        maxMessageSizeInChars = LARGE_MAX_MESSAGE_SIZE_IN_CHARS;
+    }
+
+    /**
+     * The number of chars in the message of the smallest packet sent to NSCA,
+     * this is less than the maximum only when adaptive message support is
+     * enabled
+     *
+     * see enableAdaptiveMessageSupport
+     * @return number of chars
+     */
+    public int getMinMessageSizeInChars() {
+        return minMessageSizeInChars;
+    }
+
     /**
      * The maximum number of chars in message sent to NSCA before
      * the message is truncated
@@ -204,6 +298,7 @@ public class NagiosSettings {
             .append(timeout)
             .append(connectTimeout)
             .append(encryptor)
+            .append(charset)
             .toHashCode();
     }
 
@@ -223,6 +318,7 @@ public class NagiosSettings {
             .append(timeout, rhs.timeout)
             .append(connectTimeout, rhs.connectTimeout)
             .append(encryptor, rhs.encryptor)
+            .append(charset, rhs.charset)
             .isEquals();
     }
 
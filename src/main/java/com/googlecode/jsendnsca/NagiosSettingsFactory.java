@@ -17,6 +17,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.Properties;
 
 import org.apache.commons.lang.StringUtils;
@@ -41,6 +42,7 @@ import com.googlecode.jsendnsca.utils.IOUtils;
  * nagios.nsca.timeout=20000
  * nagios.nsca.connect.timeout=10000
  * nagios.nsca.encryption=xor
+ * nagios.nsca.charset=UTF-8
  * }
  * </pre>
  *
@@ -79,7 +81,12 @@ public class NagiosSettingsFactory {
         /**
          * key nagios.nsca.encryption, must be either none, xor or triple_des
          */
-        ENCRYPTION("nagios.nsca.encryption");
+        ENCRYPTION("nagios.nsca.encryption"),
+        /**
+         * key nagios.nsca.charset, must be the name of a charset supported
+         * by the JVM
+         */
+        CHARSET("nagios.nsca.charset");
 
         private final String name;
 
@@ -170,6 +177,9 @@ public class NagiosSettingsFactory {
                 case ENCRYPTION:
                     settings.setEncryption(toEncryption(value));
                     break;
+                case CHARSET:
+                    settings.setCharset(toCharset(name, value));
+                    break;
                 }
             }
         }
@@ -200,6 +210,14 @@ public class NagiosSettingsFactory {
         }
     }
 
+    private static Charset toCharset(String name, String value) throws NagiosConfigurationException {
+        try {
+            return Charset.forName(value);
+        } catch (IllegalArgumentException e) {
+            throw new NagiosConfigurationException("Key [%s] must be a supported charset, was [%s]", name, value);
+        }
+    }
+
     private static int toInteger(String name, String value) throws NagiosConfigurationException {
         try {
             return Integer.parseInt(value);
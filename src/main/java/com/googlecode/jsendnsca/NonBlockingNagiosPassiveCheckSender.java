@@ -13,9 +13,22 @@
  */
 package com.googlecode.jsendnsca;
 
+import com.googlecode.jsendnsca.encryption.SessionEncryptor;
+import com.googlecode.jsendnsca.metrics.SenderMetrics;
+import org.apache.commons.lang.Validate;
+
 import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * This sender does not block unlike the {@link NagiosPassiveCheckSender}.
@@ -23,21 +36,112 @@ import java.util.concurrent.Executors;
  * a single worker thread sending from the queue.
  * <p>
  *
- * Any exceptions resulting from sending the passive check are output to
- * standard error with a stack trace.
+ * Any exceptions resulting from sending the passive check are passed to the
+ * {@link SendFailureListener}, which by default prints the first failure of
+ * each {@link FailureCause} with its stack trace to standard error and
+ * summarises repeats so an outage does not flood it.
  * <p>
  *
  * This sender is useful where you don't want to wait for the passive check to
  * be sent and don't care if the sending fails
  * <p>
  *
+ * With pre-encoding enabled the fields of the passive check are encoded into
+ * its packet on the calling thread, so the worker thread is left to patch in
+ * the timestamp received from NSCA, write the CRC and encrypt.
+ * <p>
+ *
+ * {@link #flush(long, TimeUnit)} and {@link #close(long, TimeUnit)} help the
+ * worker thread empty the queue, sending over a single connection carrying
+ * many passive checks as the {@link PooledNagiosPassiveCheckSender} does, so
+ * passive checks queued at the same time may arrive out of order. Passive
+ * checks still queued when closing times out are handed to the
+ * {@link SpoolStore} if one is set.
+ * <p>
+ *
+ * With {@link PriorityLanes} set, passive checks are queued in a lane per
+ * {@link Level} and sent CRITICAL first, each lane taking its weight in turn
+ * so no lane is starved. A newer result for a host and service waits for one
+ * still queued in another lane, or replaces it when the queue is full, so
+ * the results of a service are never sent out of order.
+ * <p>
+ *
+ * A passive check sent late can overwrite newer state in Nagios and is
+ * rejected by NSCA once older than its <code>max_packet_age</code>, so queued
+ * passive checks can be given a time to live. Those still queued when it
+ * passes are discarded as they are dequeued, before any connection is made,
+ * and counted by {@link SenderMetrics#getExpired()}.
+ * <p>
+ *
+ * With {@link MicroBatching} set, the worker thread sends the passive checks
+ * it finds queued in batches over a single connection, lingering briefly for
+ * more when it measures that a batch would pay for its handshake.
+ * <p>
+ *
+ * With {@link StormProtection} set, a service sending passive checks faster
+ * than its rate has the excess suppressed before it reaches the queue.
+ * <p>
+ *
  * @author Raj Patel
  * @since 1.2
  */
-public class NonBlockingNagiosPassiveCheckSender implements PassiveCheckSender {
+public class NonBlockingNagiosPassiveCheckSender implements CloseablePassiveCheckSender {
+
+    private static final long DEFAULT_CLOSE_TIMEOUT_SECONDS = 10;
+    private static final long LINGER_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
 
     private final PassiveCheckSender sender;
+    private final SenderMetrics metrics = new SenderMetrics();
+    private SenderMetrics queueMetrics;
+    private final SendFailures failures = new SendFailures();
+    private final CheckQueue.DropHandler dropHandler = new CheckQueue.DropHandler() {
+        public void dropped(QueuedCheck check) {
+            check.discard();
+            finished();
+            queueMetrics().recordDropped();
+        }
+    };
+    private volatile CheckQueue queue = new CheckQueue.Fifo();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final BatchCosts batchCosts = new BatchCosts();
+    private final Runnable sendNext = new Runnable() {
+        public void run() {
+            sendNext();
+        }
+    };
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final Runnable drainQueue = new Runnable() {
+        public void run() {
+            sendNext();
+            while (true) {
+                if (queue.isEmpty()) {
+                    draining.set(false);
+                    if (queue.isEmpty() || !draining.compareAndSet(false, true)) {
+                        return;
+                    }
+                }
+                try {
+                    executor.execute(this);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // the executor is shutting down, finish the queue on this thread
+                    sendNext();
+                }
+            }
+        }
+    };
     private ExecutorService executor;
+    private boolean customExecutor;
+    private boolean preEncoding;
+    private long timeToLiveNanos;
+    private volatile MicroBatching microBatching;
+    private volatile StormProtection stormProtection;
+    private boolean drainOnCallingThread = true;
+    private volatile SpoolStore spoolStore;
+    private volatile boolean closed;
 
     /**
      * Construct a new {@link NonBlockingNagiosPassiveCheckSender} with the
@@ -64,7 +168,283 @@ public class NonBlockingNagiosPassiveCheckSender implements PassiveCheckSender {
      */
     @Override
     public void send(MessagePayload payload) throws NagiosException, IOException {
-        executor.execute(new NonBlockingSender(payload));
+        send(payload, timeToLiveNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Send a passive check which is discarded instead of sent if it is still
+     * queued once its time to live has passed
+     *
+     * @param payload
+     *            the Passive Check message payload
+     * @param timeToLive
+     *            the time to live, 0 to never expire
+     * @param unit
+     *            the {@link TimeUnit} of the time to live
+     * @throws NagiosException
+     *             thrown if pre-encoding fails
+     * @throws IOException
+     *             thrown if pre-encoding fails
+     */
+    public void send(MessagePayload payload, long timeToLive, TimeUnit unit) throws NagiosException, IOException {
+        Validate.isTrue(timeToLive >= 0, "timeToLive cannot be negative");
+        if (closed) {
+            queueMetrics().recordDropped();
+            throw new RejectedExecutionException("sender has been closed");
+        }
+        final StormProtection protection = stormProtection;
+        if (protection != null) {
+            Validate.notNull(payload, "payload cannot be null");
+            payload = protection.admit(payload);
+            if (payload == null) {
+                queueMetrics().recordSuppressed();
+                return;
+            }
+        }
+        final long expiresAt = timeToLive == 0 ? QueuedCheck.NEVER : System.nanoTime() + unit.toNanos(timeToLive);
+        if (preEncoding) {
+            Validate.notNull(payload, "payload cannot be null");
+            queue(new QueuedCheck(payload, ((NagiosPassiveCheckSender) sender).encode(payload), expiresAt));
+        } else {
+            queue(new QueuedCheck(payload, null, expiresAt));
+        }
+    }
+
+    /**
+     * Encode a passive check into its packet for the settings of this sender
+     */
+    PassiveCheckBytesBuilder encode(MessagePayload payload) {
+        return ((NagiosPassiveCheckSender) sender).encode(payload);
+    }
+
+    /**
+     * Queue a passive check already encoded by {@link #encode(MessagePayload)}
+     * or a sender with the same encoding settings, the packet buffer is
+     * released once it is sent or discarded
+     */
+    void sendEncoded(MessagePayload payload, PassiveCheckBytesBuilder passiveCheck) {
+        if (closed) {
+            passiveCheck.release();
+            queueMetrics().recordDropped();
+            throw new RejectedExecutionException("sender has been closed");
+        }
+        final long timeToLive = timeToLiveNanos;
+        queue(new QueuedCheck(payload, passiveCheck, timeToLive == 0 ? QueuedCheck.NEVER : System.nanoTime() + timeToLive));
+    }
+
+    /**
+     * The metrics of this sender. These are the metrics of the backing
+     * {@link NagiosPassiveCheckSender} or {@link PooledNagiosPassiveCheckSender}
+     * which record sends and their latencies, this sender adds the queue depth
+     * and passive checks dropped because the executor rejected them.
+     *
+     * @return the {@link SenderMetrics}
+     */
+    public SenderMetrics getMetrics() {
+        if (sender instanceof NagiosPassiveCheckSender) {
+            return ((NagiosPassiveCheckSender) sender).getMetrics();
+        }
+        if (sender instanceof PooledNagiosPassiveCheckSender) {
+            return ((PooledNagiosPassiveCheckSender) sender).getMetrics();
+        }
+        return metrics;
+    }
+
+    /**
+     * Encode passive checks into their packet on the thread calling
+     * {@link #send(MessagePayload)} instead of on the worker thread.
+     * <p>
+     * This trades memory for worker thread time. Each queued passive check then
+     * holds a whole packet, 720 bytes or more depending on the maximum message
+     * size, and its builder, as well as the {@link MessagePayload} kept for the
+     * {@link SendFailureListener} and {@link SpoolStore}. A queue expected to
+     * build up a large backlog is better left without pre-encoding, or held
+     * off the heap with {@link #setOffHeapQueue(int)}, which releases the
+     * packet when the check is queued.
+     *
+     * @param preEncoding
+     *            true to encode passive checks when they are queued
+     */
+    public void setPreEncoding(boolean preEncoding) {
+        Validate.isTrue(!preEncoding || sender instanceof NagiosPassiveCheckSender, "pre-encoding requires a NagiosPassiveCheckSender");
+        this.preEncoding = preEncoding;
+    }
+
+    /**
+     * Set the time to live of the passive checks sent by
+     * {@link #send(MessagePayload)}, by default they never expire. Keep it
+     * below the <code>max_packet_age</code> of NSCA.
+     *
+     * @param timeToLive
+     *            the time to live, 0 to never expire
+     * @param unit
+     *            the {@link TimeUnit} of the time to live
+     */
+    public void setTimeToLive(long timeToLive, TimeUnit unit) {
+        Validate.isTrue(timeToLive >= 0, "timeToLive cannot be negative");
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+    }
+
+    /**
+     * Send queued passive checks in batches over a single connection instead
+     * of a connection each. This needs an encryptor which can encrypt many
+     * packets per connection, passive checks are sent one per connection
+     * otherwise.
+     *
+     * @param microBatching
+     *            the {@link MicroBatching}, null to send one passive check per
+     *            connection
+     */
+    public void setMicroBatching(MicroBatching microBatching) {
+        Validate.isTrue(microBatching == null || sender instanceof NagiosPassiveCheckSender, "micro-batching requires a NagiosPassiveCheckSender");
+        this.microBatching = microBatching;
+    }
+
+    /**
+     * Suppress passive checks over a rate per host and service before they
+     * are queued, see {@link StormProtection}
+     *
+     * @param stormProtection
+     *            the {@link StormProtection}, null for none which is the
+     *            default
+     */
+    public void setStormProtection(StormProtection stormProtection) {
+        this.stormProtection = stormProtection;
+    }
+
+    /**
+     * Whether {@link #flush(long, TimeUnit)} and {@link #close(long, TimeUnit)}
+     * help the worker thread empty the queue, on by default. Senders which
+     * promise to keep passive checks in order turn it off so only the worker
+     * thread sends.
+     */
+    void setDrainOnCallingThread(boolean drainOnCallingThread) {
+        this.drainOnCallingThread = drainOnCallingThread;
+    }
+
+    /**
+     * Record the queue depth and the passive checks dropped, suppressed and
+     * expired by this sender into the given metrics instead of those of the
+     * backing sender, which then only records sends. Senders sharing a backing
+     * sender are each given metrics of their own so threads queueing to
+     * different senders do not contend for one queue depth gauge. This must be
+     * set before the first passive check is sent.
+     */
+    void setQueueMetrics(SenderMetrics queueMetrics) {
+        this.queueMetrics = queueMetrics;
+    }
+
+    /**
+     * Set the listener to notify when a passive check cannot be sent, replacing
+     * the default {@link SummarisingFailureListener}. A listener which is
+     * also {@link java.io.Flushable} is flushed when this sender is flushed or
+     * closed.
+     *
+     * @param listener
+     *            the {@link SendFailureListener}
+     */
+    public void setSendFailureListener(SendFailureListener listener) {
+        failures.setListener(listener);
+    }
+
+    /**
+     * The last failure to send a passive check with the given cause
+     *
+     * @param cause
+     *            the {@link FailureCause}
+     * @return the exception, null if there has been no such failure
+     */
+    public Exception getLastFailure(FailureCause cause) {
+        return failures.getLastFailure(cause);
+    }
+
+    /**
+     * Set the store for the passive checks still queued when closing times
+     * out, by default they are abandoned
+     *
+     * @param spoolStore
+     *            the {@link SpoolStore}, null for none
+     */
+    public void setSpoolStore(SpoolStore spoolStore) {
+        this.spoolStore = spoolStore;
+    }
+
+    /**
+     * Queue passive checks in a lane per {@link Level} instead of in the order
+     * they are sent. This must be set before the first passive check is sent.
+     *
+     * @param priorityLanes
+     *            the {@link PriorityLanes}
+     */
+    public void setPriorityLanes(PriorityLanes priorityLanes) {
+        Validate.notNull(priorityLanes, "priorityLanes cannot be null");
+        Validate.isTrue(queue.isEmpty(), "priority lanes must be set before sending");
+        this.queue = new LaneQueue(priorityLanes, dropHandler);
+    }
+
+    /**
+     * Queue passive checks as compact records in a fixed amount of direct
+     * memory instead of as objects on the heap, so a backlog built up while
+     * NSCA is unavailable does not fill the old generation. A passive check
+     * which does not fit is refused. This must be set before the first
+     * passive check is sent, and replaces any {@link PriorityLanes}.
+     *
+     * @param capacityInBytes
+     *            the size of the queue, a passive check takes 33 bytes plus
+     *            two bytes per character of its hostname, service name and
+     *            message
+     */
+    public void setOffHeapQueue(int capacityInBytes) {
+        Validate.isTrue(capacityInBytes > 0, "capacityInBytes must be greater than 0");
+        Validate.isTrue(queue.isEmpty(), "the off heap queue must be set before sending");
+        this.queue = new OffHeapQueue(capacityInBytes);
+    }
+
+    /**
+     * Send the check at the head of the queue, or a batch starting with it
+     */
+    private void sendNext() {
+        final QueuedCheck check = queue.poll();
+        if (check == null) {
+            return;
+        }
+        final MicroBatching batching = microBatching;
+        if (batching != null) {
+            sendBatch(check, batching);
+        } else {
+            send(check);
+        }
+    }
+
+    private void queue(QueuedCheck check) {
+        final SenderMetrics queueMetrics = queueMetrics();
+        queueMetrics.queued();
+        pending.incrementAndGet();
+        if (!queue.offer(check)) {
+            check.discard();
+            pending.decrementAndGet();
+            queueMetrics.dequeued();
+            queueMetrics.recordDropped();
+            throw new RejectedExecutionException("queue is full");
+        }
+        final boolean taskPerCheck = customExecutor && !(queue instanceof OffHeapQueue);
+        if (!taskPerCheck && !draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(taskPerCheck ? sendNext : drainQueue);
+        } catch (RejectedExecutionException e) {
+            if (!taskPerCheck) {
+                draining.set(false);
+            }
+            if (queue.remove(check)) {
+                check.discard();
+                pending.decrementAndGet();
+                queueMetrics.dequeued();
+                queueMetrics.recordDropped();
+                throw e;
+            }
+        }
     }
 
     /**
@@ -72,13 +452,19 @@ public class NonBlockingNagiosPassiveCheckSender implements PassiveCheckSender {
      * executor which is a single thread executor.
      * <p>
      * You may want to use a custom executor in environments where you want to
-     * be in control of the used thread pools.
+     * be in control of the used thread pools. Each passive check is sent by
+     * a task of its own, so an executor with several threads sends them in
+     * parallel and not necessarily in order. With an off heap queue the queue
+     * is instead drained by a single task at a time, which submits itself
+     * again after each passive check or batch, so a backlog held off the heap
+     * is not also a backlog of tasks on the executor.
      *
      * @param executor
      *            the custom executor to use
      */
     public void setExecutor(ExecutorService executor) {
         this.executor = executor;
+        this.customExecutor = true;
     }
 
     /**
@@ -86,26 +472,338 @@ public class NonBlockingNagiosPassiveCheckSender implements PassiveCheckSender {
      * <p>
      * To be used when your application has been shutdown and you want to
      * cleanup all resources such as if you run in a hot deployment environment.
+     * This returns at once, use {@link #close(long, TimeUnit)} to wait for the
+     * queued passive checks to be sent.
      */
     public void shutdown() {
         executor.shutdown();
     }
 
-    private class NonBlockingSender implements Runnable {
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.googlecode.jsendnsca.CloseablePassiveCheckSender#flush(long,
+     * java.util.concurrent.TimeUnit)
+     */
+    public DeliveryReport flush(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        final long deliveredBefore = delivered.get();
+        final long abandonedBefore = abandoned();
+
+        if (drainOnCallingThread) {
+            drain(deadline);
+        }
+        awaitSent(deadline);
+        failures.flush();
+        return new DeliveryReport(delivered.get() - deliveredBefore, 0, abandoned() - abandonedBefore, pending.get());
+    }
 
-        private MessagePayload payload;
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.googlecode.jsendnsca.CloseablePassiveCheckSender#close(long,
+     * java.util.concurrent.TimeUnit)
+     */
+    public DeliveryReport close(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        final long deliveredBefore = delivered.get();
+        final long abandonedBefore = abandoned();
+        closed = true;
 
-        public NonBlockingSender(MessagePayload payload) {
-            this.payload = payload;
+        if (drainOnCallingThread) {
+            drain(deadline);
+        } else {
+            awaitSent(deadline);
         }
+        executor.shutdown();
 
-        @Override
-        public void run() {
+        long spooled = 0;
+        long abandoned = 0;
+        final SpoolStore store = spoolStore;
+        QueuedCheck check;
+        while ((check = queue.poll()) != null) {
+            if (check.hasExpired()) {
+                expire(check);
+                continue;
+            }
+            check.discard();
+            if (spool(store, check.payload)) {
+                spooled++;
+            } else {
+                abandoned++;
+            }
+            finished();
+        }
+        if (spooled > 0 && !flush(store)) {
+            abandoned += spooled;
+            spooled = 0;
+        }
+
+        awaitSent(deadline);
+        executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        failures.flush();
+        return new DeliveryReport(delivered.get() - deliveredBefore, spooled,
+                abandoned() - abandonedBefore + abandoned, pending.get());
+    }
+
+    /**
+     * Close waiting at most 10 seconds for the queued passive checks to be
+     * sent
+     */
+    public void close() {
+        try {
+            close(DEFAULT_CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Send queued passive checks on the calling thread until the queue is
+     * empty or the deadline passes
+     */
+    private void drain(long deadline) {
+        if (queue.isEmpty()) {
+            return;
+        }
+        final NagiosSettings settings = getNagiosSettings();
+        if (settings == null) {
+            QueuedCheck check;
+            while (System.nanoTime() < deadline && (check = queue.poll()) != null) {
+                send(check);
+            }
+            return;
+        }
+
+        final PooledNagiosPassiveCheckSender session = new PooledNagiosPassiveCheckSender(settings, 1, 1000, 5000);
+        session.setMetrics(getMetrics());
+        try {
+            QueuedCheck check;
+            while (System.nanoTime() < deadline && (check = queue.poll()) != null) {
+                if (check.hasExpired()) {
+                    expire(check);
+                    continue;
+                }
+                check.commitQueueWait(settings, 0);
+                check.discard();
+                try {
+                    session.send(check.payload);
+                    delivered.incrementAndGet();
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    failures.failed(check.payload, e);
+                } finally {
+                    finished();
+                }
+            }
+        } finally {
+            session.close();
+        }
+    }
+
+    private void awaitSent(long deadline) throws InterruptedException {
+        while (pending.get() > 0) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(10)));
+        }
+    }
+
+    private boolean spool(SpoolStore store, MessagePayload payload) {
+        if (store == null) {
+            return false;
+        }
+        try {
+            store.spool(payload);
+            return true;
+        } catch (IOException e) {
+            failures.failed(payload, e);
+            return false;
+        }
+    }
+
+    private static boolean flush(SpoolStore store) {
+        try {
+            store.flush();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void send(QueuedCheck check) {
+        if (check.hasExpired()) {
+            expire(check);
+            return;
+        }
+        check.commitQueueWait(getNagiosSettings(), check.packetSize());
+        try {
+            if (check.passiveCheck != null) {
+                ((NagiosPassiveCheckSender) sender).sendEncoded(check.passiveCheck);
+            } else {
+                sender.send(check.payload);
+            }
+            delivered.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            failures.failed(check.payload, e);
+        } finally {
+            finished();
+        }
+    }
+
+    /**
+     * Gather a batch starting with the given check and send it over one
+     * connection
+     */
+    private void sendBatch(QueuedCheck first, MicroBatching batching) {
+        final NagiosSettings settings = getNagiosSettings();
+        if (!(settings.getEncryptor() instanceof SessionEncryptor)) {
+            send(first);
+            return;
+        }
+
+        final List<QueuedCheck> batch = new ArrayList<QueuedCheck>();
+        final List<PassiveCheckBytesBuilder> packets = new ArrayList<PassiveCheckBytesBuilder>();
+        QueuedCheck check = first;
+        int limit = batching.getMaxChecks();
+        int targetSize = 1;
+        long lingerUntil = 0;
+        int gathered = 0;
+        boolean lingered = false;
+        while (true) {
+            if (check != null) {
+                if (check.hasExpired()) {
+                    expire(check);
+                } else {
+                    check.commitQueueWait(settings, check.packetSize());
+                    batch.add(check);
+                    packets.add(encodeForBatch(check, settings));
+                    if (batch.size() == 1) {
+                        limit = Math.max(1, Math.min(limit, batching.getMaxBytes() / packets.get(0).packetSize()));
+                        targetSize = batchCosts.targetSize(limit);
+                        lingerUntil = System.nanoTime() + batchCosts.lingerNanos(batching.getLingerNanos());
+                    } else if (lingered) {
+                        gathered++;
+                    }
+                }
+            }
+            if (batch.size() >= limit) {
+                break;
+            }
+            check = queue.poll();
+            if (check == null) {
+                final long remaining = lingerUntil - System.nanoTime();
+                if (batch.isEmpty() || batch.size() >= targetSize || remaining <= 0) {
+                    break;
+                }
+                lingered = true;
+                LockSupport.parkNanos(Math.min(remaining, LINGER_POLL_NANOS));
+            }
+        }
+        if (lingered) {
+            batchCosts.recordLinger(gathered);
+        }
+        if (!batch.isEmpty()) {
+            sendBatch(batch, packets, settings);
+        }
+    }
+
+    /**
+     * The packets of a connection must all be the largest size, pre-encoded
+     * checks of a smaller size are encoded again
+     */
+    private PassiveCheckBytesBuilder encodeForBatch(QueuedCheck check, NagiosSettings settings) {
+        final int maxMessageSize = settings.getMaxMessageSizeInChars();
+        if (check.passiveCheck != null && check.passiveCheck.packetSize() == PassiveCheckBytesBuilder.packetSize(maxMessageSize)) {
+            return check.passiveCheck;
+        }
+        check.discard();
+        return ((NagiosPassiveCheckSender) sender).encode(check.payload, maxMessageSize);
+    }
+
+    private void sendBatch(List<QueuedCheck> batch, List<PassiveCheckBytesBuilder> packets, NagiosSettings settings) {
+        final SenderMetrics sendMetrics = getMetrics();
+        int sent = 0;
+        try {
+            if (!RateLimit.admit(settings, packets.size(), packets.size() * packets.get(0).packetSize())) {
+                final RateLimitExceededException e = new RateLimitExceededException(RateLimit.EXCEEDED);
+                for (QueuedCheck check : batch) {
+                    sendMetrics.recordDropped();
+                    failed.incrementAndGet();
+                    failures.failed(check.payload, e);
+                    finished();
+                }
+                return;
+            }
+            final long start = System.nanoTime();
+            final NscaConnection connection = NscaConnection.connect(settings, sendMetrics, packets.get(0).packetSize());
+            FailureCause step = FailureCause.HANDSHAKE;
             try {
-                sender.send(payload);
-            } catch (Exception e) {
-                e.printStackTrace();
+                connection.handshake();
+                final long handshaken = System.nanoTime();
+                batchCosts.recordHandshake(handshaken - start);
+                for (PassiveCheckBytesBuilder packet : packets) {
+                    final byte[] sealed = connection.seal(packet);
+                    step = FailureCause.WRITE;
+                    connection.write(sealed);
+                    sendMetrics.recordSent();
+                    delivered.incrementAndGet();
+                    finished();
+                    sent++;
+                }
+                batchCosts.recordPackets(sent, System.nanoTime() - handshaken);
+            } catch (SocketTimeoutException ste) {
+                throw ste;
+            } catch (IOException e) {
+                throw new NagiosSendException("Error occurred while sending passive alert", step, e);
+            } finally {
+                connection.close();
             }
+        } catch (Exception e) {
+            for (int i = sent; i < batch.size(); i++) {
+                sendMetrics.recordFailed();
+                failed.incrementAndGet();
+                failures.failed(batch.get(i).payload, e);
+                finished();
+            }
+        } finally {
+            for (PassiveCheckBytesBuilder packet : packets) {
+                packet.release();
+            }
+        }
+    }
+
+    private void expire(QueuedCheck check) {
+        check.discard();
+        expired.incrementAndGet();
+        queueMetrics().recordExpired();
+        finished();
+    }
+
+    /**
+     * The passive checks which failed or expired, reported as abandoned
+     */
+    private long abandoned() {
+        return failed.get() + expired.get();
+    }
+
+    private void finished() {
+        pending.decrementAndGet();
+        queueMetrics().dequeued();
+    }
+
+    SenderMetrics queueMetrics() {
+        final SenderMetrics own = queueMetrics;
+        return own != null ? own : getMetrics();
+    }
+
+    private NagiosSettings getNagiosSettings() {
+        if (sender instanceof NagiosPassiveCheckSender) {
+            return ((NagiosPassiveCheckSender) sender).getNagiosSettings();
         }
+        return null;
     }
 }
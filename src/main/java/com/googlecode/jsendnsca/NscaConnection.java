@@ -0,0 +1,224 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import static com.googlecode.jsendnsca.utils.IOUtils.closeQuietly;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import com.googlecode.jsendnsca.encryption.Encryptor;
+import com.googlecode.jsendnsca.encryption.SessionEncryptor;
+import com.googlecode.jsendnsca.encryption.SessionEncryptor.EncryptionSession;
+import com.googlecode.jsendnsca.metrics.SenderMetrics;
+import com.googlecode.jsendnsca.metrics.SenderMetrics.Phase;
+
+/**
+ * A connection to the NSCA add-on, split into the steps of sending a passive
+ * check so they can be run on different threads: connect, read the
+ * initialisation vector and timestamp, seal the packet and write it.
+ * <p>
+ * Each step records its latency in the {@link SenderMetrics} and as a
+ * {@link SendEvent}.
+ * <p>
+ * When the encryptor is a {@link SessionEncryptor} many packets can be sealed
+ * and written after a single handshake, see {@link #supportsMultiplePackets()}.
+ */
+class NscaConnection {
+
+    private static final int INITIALISATION_VECTOR_SIZE = 128;
+
+    private final NagiosSettings nagiosSettings;
+    private final Socket socket;
+    private final OutputStream outputStream;
+    private final InputStream inputStream;
+    private final SenderMetrics metrics;
+    private final int packetSize;
+    private byte[] initVector;
+    private int timeStamp;
+    private long handshakeNanos;
+    private EncryptionSession encryptionSession;
+    private int packetCount;
+    private boolean closed;
+
+    private NscaConnection(NagiosSettings nagiosSettings, Socket socket, SenderMetrics metrics, int packetSize) throws IOException {
+        this.nagiosSettings = nagiosSettings;
+        this.socket = socket;
+        this.outputStream = socket.getOutputStream();
+        this.inputStream = socket.getInputStream();
+        this.metrics = metrics;
+        this.packetSize = packetSize;
+    }
+
+    static NscaConnection connect(NagiosSettings nagiosSettings, SenderMetrics metrics, int packetSize) throws IOException {
+        final SendEvent event = SendEvent.begin(SendEventType.CONNECT);
+        final long start = System.nanoTime();
+        final AdaptiveTimeout adaptiveTimeout = nagiosSettings.getAdaptiveTimeout();
+        Socket socket = new Socket();
+        try {
+            final InetSocketAddress address = new InetSocketAddress(nagiosSettings.getNagiosHost(), nagiosSettings.getPort());
+            if (adaptiveTimeout == null) {
+                socket.connect(address, nagiosSettings.getConnectTimeout());
+                socket.setSoTimeout(nagiosSettings.getTimeout());
+            } else {
+                socket.connect(address, adaptiveTimeout.getConnectTimeout(nagiosSettings.getConnectTimeout()));
+                adaptiveTimeout.connected(System.nanoTime() - start);
+                socket.setSoTimeout(adaptiveTimeout.getHandshakeTimeout(nagiosSettings.getTimeout()));
+            }
+            NscaConnection connection = new NscaConnection(nagiosSettings, socket, metrics, packetSize);
+            metrics.connectionOpened();
+            return connection;
+        } catch (IOException e) {
+            if (adaptiveTimeout != null && e instanceof SocketTimeoutException) {
+                adaptiveTimeout.connectTimedOut();
+            }
+            closeQuietly(socket);
+            throw e;
+        } finally {
+            metrics.record(Phase.CONNECT, System.nanoTime() - start);
+            event.commit(nagiosSettings, packetSize);
+        }
+    }
+
+    /**
+     * Read the initialisation vector and timestamp NSCA sends on connection
+     */
+    void handshake() throws NagiosException, IOException {
+        final SendEvent event = SendEvent.begin(SendEventType.HANDSHAKE);
+        final long start = System.nanoTime();
+        final AdaptiveTimeout adaptiveTimeout = nagiosSettings.getAdaptiveTimeout();
+        try {
+            DataInputStream dataInputStream = new DataInputStream(inputStream);
+            initVector = readFrom(dataInputStream);
+            timeStamp = dataInputStream.readInt();
+            handshakeNanos = System.nanoTime();
+            if (adaptiveTimeout != null) {
+                adaptiveTimeout.handshaken(handshakeNanos - start);
+            }
+        } catch (SocketTimeoutException ste) {
+            if (adaptiveTimeout != null) {
+                adaptiveTimeout.handshakeTimedOut();
+            }
+            throw ste;
+        } finally {
+            metrics.record(Phase.IV_READ, System.nanoTime() - start);
+            event.commit(nagiosSettings, packetSize);
+        }
+    }
+
+    /**
+     * Whether more than one packet can be sent over this connection, all of
+     * them must then be the same size as NSCA reads fixed size packets
+     */
+    boolean supportsMultiplePackets() {
+        return nagiosSettings.getEncryptor() instanceof SessionEncryptor;
+    }
+
+    /**
+     * Patch in the received timestamp, write the CRC and encrypt. The packets
+     * of a connection must be written in the order they are sealed.
+     * <p>
+     * Later packets of a connection get the received timestamp advanced by
+     * the time since the handshake, so they are not dropped by NSCA as too old
+     * on a connection that is kept open.
+     *
+     * @return the packet ready to write
+     */
+    byte[] seal(PassiveCheckBytesBuilder passiveCheck) throws NagiosException {
+        final SendEvent event = SendEvent.begin(SendEventType.ENCRYPT);
+        final long start = System.nanoTime();
+        try {
+            final int secondsSinceHandshake = (int) ((start - handshakeNanos) / 1000000000L);
+            passiveCheck
+                .withTimeStamp(timeStamp + secondsSinceHandshake)
+                .writeCRC();
+
+            final Encryptor encryptor = nagiosSettings.getEncryptor();
+            if (encryptor instanceof SessionEncryptor) {
+                if (encryptionSession == null) {
+                    encryptionSession = ((SessionEncryptor) encryptor).startSession(initVector, nagiosSettings.getPassword());
+                }
+                encryptionSession.encrypt(passiveCheck.toByteArray());
+            } else if (packetCount == 0) {
+                encryptor.encrypt(passiveCheck.toByteArray(), initVector, nagiosSettings.getPassword());
+            } else {
+                throw new IllegalStateException("encryptor can only encrypt one packet per connection");
+            }
+            packetCount++;
+            return passiveCheck.toByteArray();
+        } catch (RuntimeException e) {
+            throw new NagiosSendException("Can't encrypt passive check", FailureCause.ENCRYPTION, e);
+        } finally {
+            metrics.record(Phase.ENCRYPT, System.nanoTime() - start);
+            event.commit(nagiosSettings, packetSize);
+        }
+    }
+
+    void write(byte[] packet) throws IOException {
+        final SendEvent event = SendEvent.begin(SendEventType.WRITE);
+        final long start = System.nanoTime();
+        try {
+            outputStream.write(packet);
+            outputStream.flush();
+        } finally {
+            metrics.record(Phase.WRITE, System.nanoTime() - start);
+            event.commit(nagiosSettings, packet.length);
+        }
+    }
+
+    /**
+     * The number of packets sealed on this connection
+     */
+    int getPacketCount() {
+        return packetCount;
+    }
+
+    /**
+     * The time since the handshake
+     */
+    long getAgeNanos() {
+        return System.nanoTime() - handshakeNanos;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void close() {
+        if (!closed) {
+            closed = true;
+            closeQuietly(inputStream);
+            closeQuietly(outputStream);
+            closeQuietly(socket);
+            metrics.connectionClosed();
+        }
+    }
+
+    private static byte[] readFrom(DataInputStream inputStream) throws NagiosException, SocketTimeoutException {
+        try {
+            final byte[] initVector = new byte[INITIALISATION_VECTOR_SIZE];
+            inputStream.readFully(initVector, 0, INITIALISATION_VECTOR_SIZE);
+            return initVector;
+        } catch (SocketTimeoutException ste) {
+            throw ste;
+        } catch (IOException e) {
+            throw new NagiosSendException("Can't read initialisation vector", FailureCause.HANDSHAKE, e);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link CheckQueue} holding its checks as records in a ring buffer of
+ * direct memory, so a large backlog costs the garbage collector nothing. A
+ * check is only turned back into a {@link MessagePayload} when it is polled.
+ * <p>
+ * A record holds the time to live, the time it was queued, the level and the
+ * characters of the hostname, service name and message. A record which does not fit before the
+ * end of the buffer starts again at the beginning, leaving a gap. Pre-encoded
+ * packets are released when queued and encoded again when sent. Only the
+ * check offered last can be removed, as the sender only removes a check it
+ * has just offered.
+ */
+class OffHeapQueue implements CheckQueue {
+
+    private static final int WRAP = -1;
+    private static final int NULL_STRING = -1;
+    private static final int HEADER_SIZE = 4 + 8 + 8 + 1;
+    private static final int MIN_CAPACITY = 4096;
+    private static final Level[] LEVELS = Level.values();
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private int head;
+    private int tail;
+    private int used;
+    private int size;
+    private QueuedCheck lastOffered;
+    private int tailBeforeLastOffered;
+    private int lastOfferedBytes;
+
+    OffHeapQueue(int capacity) {
+        this.capacity = Math.max(capacity, MIN_CAPACITY);
+        this.buffer = ByteBuffer.allocateDirect(this.capacity);
+    }
+
+    public boolean offer(QueuedCheck check) {
+        final MessagePayload payload = check.payload;
+        final int recordSize = HEADER_SIZE
+            + sizeOf(payload.getHostname())
+            + sizeOf(payload.getServiceName())
+            + sizeOf(payload.getMessage());
+        if (recordSize > capacity) {
+            return false;
+        }
+
+        synchronized (this) {
+            final int gap = capacity - tail < recordSize ? capacity - tail : 0;
+            if (used + gap + recordSize > capacity) {
+                return false;
+            }
+            tailBeforeLastOffered = tail;
+            lastOfferedBytes = gap + recordSize;
+            if (gap > 0) {
+                if (gap >= 4) {
+                    buffer.putInt(tail, WRAP);
+                }
+                used += gap;
+                tail = 0;
+            }
+
+            int position = tail;
+            buffer.putInt(position, recordSize);
+            buffer.putLong(position + 4, check.expiresAt);
+            buffer.putLong(position + 12, check.queuedAt);
+            final Level level = payload.getLevel();
+            buffer.put(position + 20, (byte) (level == null ? -1 : level.ordinal()));
+            position += HEADER_SIZE;
+            position = write(payload.getHostname(), position);
+            position = write(payload.getServiceName(), position);
+            write(payload.getMessage(), position);
+
+            tail = (tail + recordSize) % capacity;
+            used += recordSize;
+            size++;
+            lastOffered = check;
+        }
+        check.discard();
+        return true;
+    }
+
+    public synchronized QueuedCheck poll() {
+        if (size == 0) {
+            return null;
+        }
+        if (capacity - head < 4 || buffer.getInt(head) == WRAP) {
+            used -= capacity - head;
+            head = 0;
+        }
+
+        final int recordSize = buffer.getInt(head);
+        final long expiresAt = buffer.getLong(head + 4);
+        final long queuedAt = buffer.getLong(head + 12);
+        final byte level = buffer.get(head + 20);
+        int position = head + HEADER_SIZE;
+        final String hostname = read(position);
+        position += sizeOf(hostname);
+        final String serviceName = read(position);
+        position += sizeOf(serviceName);
+        final String message = read(position);
+
+        head = (head + recordSize) % capacity;
+        used -= recordSize;
+        size--;
+        if (size == 0) {
+            clear();
+        }
+        return new QueuedCheck(payloadOf(hostname, level < 0 ? null : LEVELS[level], serviceName, message), null, expiresAt, queuedAt);
+    }
+
+    public synchronized boolean remove(QueuedCheck check) {
+        if (check != lastOffered) {
+            return false;
+        }
+        tail = tailBeforeLastOffered;
+        used -= lastOfferedBytes;
+        size--;
+        lastOffered = null;
+        if (size == 0) {
+            clear();
+        }
+        return true;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Start again at the beginning of the buffer once it is empty
+     */
+    private void clear() {
+        head = 0;
+        tail = 0;
+        used = 0;
+        lastOffered = null;
+    }
+
+    private static MessagePayload payloadOf(String hostname, Level level, String serviceName, String message) {
+        if (serviceName.length() == 0) {
+            return MessagePayload.forHostCheck(hostname, level, message);
+        }
+        return new MessagePayload(hostname, level, serviceName, message);
+    }
+
+    private static int sizeOf(String value) {
+        return 4 + (value == null ? 0 : value.length() * 2);
+    }
+
+    private int write(String value, int position) {
+        if (value == null) {
+            buffer.putInt(position, NULL_STRING);
+            return position + 4;
+        }
+        final int length = value.length();
+        buffer.putInt(position, length);
+        position += 4;
+        for (int i = 0; i < length; i++) {
+            buffer.putChar(position, value.charAt(i));
+            position += 2;
+        }
+        return position;
+    }
+
+    private String read(int position) {
+        final int length = buffer.getInt(position);
+        if (length == NULL_STRING) {
+            return null;
+        }
+        position += 4;
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = buffer.getChar(position);
+            position += 2;
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A bounded pool of zero filled packet buffers keyed by size. Buffers are
+ * zero filled when released to the pool, buffers released to a full pool are
+ * left to the garbage collector without being filled.
+ */
+class PacketBufferPool {
+
+    static final PacketBufferPool SHARED = new PacketBufferPool(64);
+
+    private final int maxPooledPerSize;
+    private final ConcurrentMap<Integer, BlockingQueue<byte[]>> pools = new ConcurrentHashMap<Integer, BlockingQueue<byte[]>>();
+
+    PacketBufferPool(int maxPooledPerSize) {
+        this.maxPooledPerSize = maxPooledPerSize;
+    }
+
+    byte[] acquire(int size) {
+        final byte[] buffer = poolFor(size).poll();
+        return buffer == null ? new byte[size] : buffer;
+    }
+
+    void release(byte[] buffer) {
+        final BlockingQueue<byte[]> pool = poolFor(buffer.length);
+        if (pool.remainingCapacity() > 0) {
+            Arrays.fill(buffer, (byte) 0);
+            pool.offer(buffer);
+        }
+    }
+
+    private BlockingQueue<byte[]> poolFor(int size) {
+        BlockingQueue<byte[]> pool = pools.get(size);
+        if (pool == null) {
+            pools.putIfAbsent(size, new ArrayBlockingQueue<byte[]>(maxPooledPerSize));
+            pool = pools.get(size);
+        }
+        return pool;
+    }
+}
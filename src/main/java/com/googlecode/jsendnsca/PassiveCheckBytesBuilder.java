@@ -14,36 +14,81 @@
 package com.googlecode.jsendnsca;
 
 import com.googlecode.jsendnsca.utils.ByteArrayUtils;
+import com.googlecode.jsendnsca.utils.CRC32Utils;
+import com.googlecode.jsendnsca.utils.FixedStringEncoder;
 
 import java.util.zip.CRC32;
 
+/**
+ * Builds the NSCA packet for a passive check in a buffer taken from the
+ * {@link PacketBufferPool}. The fields of the payload can be written ahead of
+ * connecting, the timestamp received from NSCA is patched in at its fixed
+ * offset before the CRC is written and the packet encrypted.
+ */
 @SuppressWarnings({"NumericCastThatLosesPrecision"})
 class PassiveCheckBytesBuilder {
 
     private static final short NSCA_VERSION = (short) 3;
     private static final int HOST_NAME_SIZE = 64;
     private static final int SERVICE_NAME_SIZE = 128;
+    private static final int CRC_OFFSET = 4;
+    private static final int TIMESTAMP_OFFSET = 8;
+    private static final int LEVEL_OFFSET = 12;
 
-    private final byte[] bytes;
+    private byte[] bytes;
+    private int messageSizeInChars;
     private int currentOffset;
+    private int dataLength;
     private final NagiosSettings nagiosSettings;
+    private final FixedStringEncoder encoder;
 
     PassiveCheckBytesBuilder(NagiosSettings nagiosSettings) {
+        this(nagiosSettings, nagiosSettings.getMinMessageSizeInChars());
+    }
+
+    /**
+     * @param messageSizeInChars
+     *            the message size to start at, the maximum for a packet of the
+     *            size NSCA expects on a connection carrying many packets
+     */
+    PassiveCheckBytesBuilder(NagiosSettings nagiosSettings, int messageSizeInChars) {
         this.nagiosSettings = nagiosSettings;
-        bytes = new byte[16 + HOST_NAME_SIZE + SERVICE_NAME_SIZE + nagiosSettings.getMaxMessageSizeInChars()];
+        this.encoder = FixedStringEncoder.forCharset(nagiosSettings.getCharset());
+        this.messageSizeInChars = messageSizeInChars;
+        bytes = PacketBufferPool.SHARED.acquire(packetSize(messageSizeInChars));
         ByteArrayUtils.writeShort(bytes, NSCA_VERSION, currentOffset);
-        this.currentOffset += 8;
+        this.currentOffset = LEVEL_OFFSET;
+        this.dataLength = currentOffset;
+    }
+
+    private PassiveCheckBytesBuilder(PassiveCheckBytesBuilder original) {
+        this.nagiosSettings = original.nagiosSettings;
+        this.encoder = original.encoder;
+        this.messageSizeInChars = original.messageSizeInChars;
+        this.currentOffset = original.currentOffset;
+        this.dataLength = original.dataLength;
+        bytes = PacketBufferPool.SHARED.acquire(original.bytes.length);
+        System.arraycopy(original.bytes, 0, bytes, 0, original.bytes.length);
+    }
+
+    /**
+     * A copy of the packet in a buffer of its own, to be sealed for another
+     * connection without encoding the fields again. Only copy a packet before
+     * its CRC is written.
+     */
+    PassiveCheckBytesBuilder copy() {
+        return new PassiveCheckBytesBuilder(this);
     }
 
     public PassiveCheckBytesBuilder withLevel(Level level) {
         ByteArrayUtils.writeShort(bytes, (short) level.ordinal(), currentOffset);
         currentOffset += 2;
+        dataLength = currentOffset;
         return this;
     }
 
     public PassiveCheckBytesBuilder withTimeStamp(int value) {
-        ByteArrayUtils.writeInteger(bytes, value, currentOffset);
-        currentOffset += 4;
+        ByteArrayUtils.writeInteger(bytes, value, TIMESTAMP_OFFSET);
         return this;
     }
 
@@ -59,8 +104,22 @@ class PassiveCheckBytesBuilder {
         return this;
     }
 
+    /**
+     * With adaptive message support the packet starts out at the smallest
+     * size and is only grown to the largest when the message does not fit
+     */
     public PassiveCheckBytesBuilder withMessage(String message) {
-        writeFixedString(message, nagiosSettings.getMaxMessageSizeInChars() - 1);
+        final int messageOffset = currentOffset;
+        writeFixedString(message, messageSizeInChars - 1);
+        if (encoder.wasTruncated() && messageSizeInChars < nagiosSettings.getMaxMessageSizeInChars()) {
+            messageSizeInChars = nagiosSettings.getMaxMessageSizeInChars();
+            final byte[] smallBytes = bytes;
+            bytes = PacketBufferPool.SHARED.acquire(packetSize(messageSizeInChars));
+            System.arraycopy(smallBytes, 0, bytes, 0, messageOffset);
+            PacketBufferPool.SHARED.release(smallBytes);
+            currentOffset = messageOffset;
+            writeFixedString(message, messageSizeInChars - 1);
+        }
         skipOneByte();
         return this;
     }
@@ -69,11 +128,16 @@ class PassiveCheckBytesBuilder {
         currentOffset += 1;
     }
 
-
+    /**
+     * Only the bytes up to the end of the last written field are run through
+     * {@link CRC32}, the checksum is then extended over the zero filled
+     * remainder of the packet so the cost does not depend on the maximum
+     * message size
+     */
     public PassiveCheckBytesBuilder writeCRC() {
         final CRC32 crc = new CRC32();
-        crc.update(bytes);
-        ByteArrayUtils.writeInteger(bytes, (int) crc.getValue(), 4);
+        crc.update(bytes, 0, dataLength);
+        ByteArrayUtils.writeInteger(bytes, CRC32Utils.extendWithZeros((int) crc.getValue(), bytes.length - dataLength), CRC_OFFSET);
         return this;
     }
 
@@ -81,13 +145,34 @@ class PassiveCheckBytesBuilder {
         return bytes;
     }
 
+    int packetSize() {
+        return bytes.length;
+    }
+
     public PassiveCheckBytesBuilder encrypt(byte[] initVector) {
         nagiosSettings.getEncryptor().encrypt(bytes, initVector, nagiosSettings.getPassword());
         return this;
     }
 
+    /**
+     * Return the packet buffer to the pool, the builder cannot be used after
+     */
+    public void release() {
+        if (bytes != null) {
+            PacketBufferPool.SHARED.release(bytes);
+            bytes = null;
+        }
+    }
+
+    static int packetSize(int messageSizeInChars) {
+        return 16 + HOST_NAME_SIZE + SERVICE_NAME_SIZE + messageSizeInChars;
+    }
+
     private void writeFixedString(String value, int fixedSize) {
-        ByteArrayUtils.writeFixedString(bytes, value, currentOffset, fixedSize);
+        final int written = encoder.encode(bytes, value, currentOffset, fixedSize);
+        if (written > 0) {
+            dataLength = currentOffset + written;
+        }
         currentOffset += fixedSize;
     }
 
@@ -0,0 +1,657 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.Validate;
+
+import com.googlecode.jsendnsca.metrics.SenderMetrics;
+
+/**
+ * This sender does not block while passive checks are sent, instead it runs
+ * every passive check through a pipeline of stages, each with a bounded queue
+ * and its own worker threads:
+ * <ol>
+ * <li>encode - CPU threads write the payload fields into the packet</li>
+ * <li>handshake - I/O threads connect and read the initialisation vector and
+ * timestamp</li>
+ * <li>seal - CPU threads patch in the timestamp, write the CRC and encrypt</li>
+ * <li>write - I/O threads write the sealed packet and close the connection</li>
+ * </ol>
+ * <p>
+ *
+ * CRC and encryption of many passive checks therefore run in parallel instead
+ * of capping throughput at a single core, which matters with large messages
+ * and the Rijndael encryptions. A full queue blocks the stage feeding it, so
+ * {@link #send(MessagePayload)} blocks once the pipeline is full.
+ * <p>
+ *
+ * The worker threads of a stage are daemon threads, started by the first
+ * passive check to reach it and blocking on its queue while idle.
+ * <p>
+ *
+ * A connection stays open from the handshake until its packet is written, so
+ * at most as many connections as there are I/O threads per stage are open at
+ * once, a handshake waiting for one to close. The queues of the seal and
+ * write stages hold no more than that either, so passive checks back up
+ * before they are connected rather than as idle connections to NSCA.
+ * <p>
+ *
+ * As with {@link NonBlockingNagiosPassiveCheckSender} any exceptions resulting
+ * from sending the passive check are passed to the {@link SendFailureListener},
+ * which by default prints a rate limited summary to standard error.
+ * <p>
+ *
+ * {@link #close(long, TimeUnit)} lets the pipeline empty until the deadline,
+ * then stops every stage and hands the passive checks left in the queues to
+ * the {@link SpoolStore} if one is set.
+ * <p>
+ *
+ * @since 2.1
+ */
+public class PipelinedNagiosPassiveCheckSender implements CloseablePassiveCheckSender {
+
+    private static final int DEFAULT_IO_THREADS = 4;
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    private static final long DEFAULT_CLOSE_TIMEOUT_SECONDS = 10;
+
+    private final NagiosSettings nagiosSettings;
+    private final NagiosPassiveCheckSender encoder;
+    private final Semaphore connections;
+    private final Stage<MessagePayload> encodeStage;
+    private final Stage<PendingCheck> handshakeStage;
+    private final Stage<PendingCheck> sealStage;
+    private final Stage<PendingCheck> writeStage;
+    private final SendFailures failures = new SendFailures();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong spooled = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+    private volatile SpoolStore spoolStore;
+    private volatile boolean spoolFlushed;
+    private volatile boolean shutdown;
+
+    /**
+     * Construct a new {@link PipelinedNagiosPassiveCheckSender} with the
+     * provided {@link NagiosSettings}, one CPU thread per available processor
+     * for each CPU stage and 4 threads for each I/O stage
+     *
+     * @param settings
+     *            the {@link NagiosSettings} to use to send the Passive Check
+     */
+    public PipelinedNagiosPassiveCheckSender(NagiosSettings settings) {
+        this(settings, Runtime.getRuntime().availableProcessors(), DEFAULT_IO_THREADS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Construct a new {@link PipelinedNagiosPassiveCheckSender} with the
+     * provided {@link NagiosSettings}
+     *
+     * @param settings
+     *            the {@link NagiosSettings} to use to send the Passive Check
+     * @param cpuThreads
+     *            the number of threads for each of the encode and seal stages
+     * @param ioThreads
+     *            the number of threads for each of the handshake and write
+     *            stages, which is also the number of connections open at once
+     * @param queueCapacity
+     *            the capacity of the queue in front of the encode and
+     *            handshake stages
+     */
+    public PipelinedNagiosPassiveCheckSender(NagiosSettings settings, int cpuThreads, int ioThreads, int queueCapacity) {
+        Validate.isTrue(cpuThreads > 0, "cpuThreads must be greater than 0");
+        Validate.isTrue(ioThreads > 0, "ioThreads must be greater than 0");
+        Validate.isTrue(queueCapacity > 0, "queueCapacity must be greater than 0");
+
+        this.nagiosSettings = settings;
+        this.encoder = new NagiosPassiveCheckSender(settings);
+        this.connections = new Semaphore(ioThreads);
+        final int connectedCapacity = Math.min(queueCapacity, ioThreads);
+
+        this.writeStage = new Stage<PendingCheck>("write", ioThreads, connectedCapacity, null) {
+            @Override
+            void process(PendingCheck check) throws Exception {
+                try {
+                    check.connection.write(check.packet);
+                } finally {
+                    check.discard();
+                }
+                getMetrics().recordSent();
+                delivered.incrementAndGet();
+                finished();
+            }
+
+            @Override
+            void discard(PendingCheck check, Exception e) {
+                failed(check, e, FailureCause.WRITE);
+            }
+
+            @Override
+            void spill(PendingCheck check) {
+                spillCheck(check);
+            }
+        };
+        this.sealStage = new Stage<PendingCheck>("seal", cpuThreads, connectedCapacity, writeStage) {
+            @Override
+            void process(PendingCheck check) throws Exception {
+                check.packet = check.connection.seal(check.passiveCheck);
+                writeStage.put(check);
+            }
+
+            @Override
+            void discard(PendingCheck check, Exception e) {
+                failed(check, e, FailureCause.ENCRYPTION);
+            }
+
+            @Override
+            void spill(PendingCheck check) {
+                spillCheck(check);
+            }
+        };
+        this.handshakeStage = new Stage<PendingCheck>("handshake", ioThreads, queueCapacity, sealStage) {
+            @Override
+            void process(PendingCheck check) throws Exception {
+                if (!RateLimit.admit(nagiosSettings, 1, check.passiveCheck.packetSize())) {
+                    dropped(check);
+                    return;
+                }
+                connections.acquire();
+                check.connectionPermit = connections;
+                check.connection = NscaConnection.connect(nagiosSettings, getMetrics(), check.passiveCheck.packetSize());
+                check.connection.handshake();
+                sealStage.put(check);
+            }
+
+            @Override
+            void discard(PendingCheck check, Exception e) {
+                failed(check, e, FailureCause.HANDSHAKE);
+            }
+
+            @Override
+            void spill(PendingCheck check) {
+                spillCheck(check);
+            }
+        };
+        this.encodeStage = new Stage<MessagePayload>("encode", cpuThreads, queueCapacity, handshakeStage) {
+            @Override
+            void process(MessagePayload payload) throws Exception {
+                PendingCheck check = new PendingCheck(payload, encoder.encode(payload));
+                try {
+                    handshakeStage.put(check);
+                } catch (InterruptedException e) {
+                    check.discard();
+                    throw e;
+                }
+            }
+
+            @Override
+            void discard(MessagePayload payload, Exception e) {
+                getMetrics().recordFailed();
+                failed.incrementAndGet();
+                finished();
+                failures.failed(payload, e);
+            }
+
+            @Override
+            void spill(MessagePayload payload) {
+                spillPayload(payload);
+            }
+        };
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.googlecode.jsendnsca.sender.INagiosPassiveCheckSender#send(com.googlecode
+     * .jsendnsca.sender.MessagePayload)
+     */
+    public void send(MessagePayload payload) throws NagiosException, IOException {
+        Validate.notNull(payload, "payload cannot be null");
+        if (shutdown) {
+            getMetrics().recordDropped();
+            throw new RejectedExecutionException("sender has been shutdown");
+        }
+        getMetrics().queued();
+        pending.incrementAndGet();
+        try {
+            encodeStage.put(payload);
+        } catch (InterruptedException e) {
+            pending.decrementAndGet();
+            getMetrics().dequeued();
+            getMetrics().recordDropped();
+            Thread.currentThread().interrupt();
+            throw new NagiosException("Interrupted while queuing passive check", e);
+        }
+    }
+
+    /**
+     * The metrics of this sender, the queue depth counts passive checks
+     * anywhere in the pipeline
+     *
+     * @return the {@link SenderMetrics}
+     */
+    public SenderMetrics getMetrics() {
+        return encoder.getMetrics();
+    }
+
+    /**
+     * Set the listener to notify when a passive check cannot be sent, replacing
+     * the default {@link SummarisingFailureListener}. A listener which is
+     * also {@link java.io.Flushable} is flushed when this sender is flushed or
+     * closed.
+     *
+     * @param listener
+     *            the {@link SendFailureListener}
+     */
+    public void setSendFailureListener(SendFailureListener listener) {
+        failures.setListener(listener);
+    }
+
+    /**
+     * The last failure to send a passive check with the given cause
+     *
+     * @param cause
+     *            the {@link FailureCause}
+     * @return the exception, null if there has been no such failure
+     */
+    public Exception getLastFailure(FailureCause cause) {
+        return failures.getLastFailure(cause);
+    }
+
+    /**
+     * Set the store for the passive checks still in the pipeline when closing
+     * times out, by default they are abandoned
+     *
+     * @param spoolStore
+     *            the {@link SpoolStore}, null for none
+     */
+    public void setSpoolStore(SpoolStore spoolStore) {
+        this.spoolStore = spoolStore;
+    }
+
+    /**
+     * The number of passive checks waiting to be encoded
+     *
+     * @return the queue depth
+     */
+    public int getEncodeQueueDepth() {
+        return encodeStage.depth();
+    }
+
+    /**
+     * The number of encoded passive checks waiting for a connection
+     *
+     * @return the queue depth
+     */
+    public int getHandshakeQueueDepth() {
+        return handshakeStage.depth();
+    }
+
+    /**
+     * The number of connected passive checks waiting to be encrypted
+     *
+     * @return the queue depth
+     */
+    public int getSealQueueDepth() {
+        return sealStage.depth();
+    }
+
+    /**
+     * The number of encrypted passive checks waiting to be written
+     *
+     * @return the queue depth
+     */
+    public int getWriteQueueDepth() {
+        return writeStage.depth();
+    }
+
+    /**
+     * Shutdown the pipeline once the passive checks already queued have been
+     * sent. Each stage stops when its queue is empty and the stage feeding it
+     * has stopped.
+     */
+    public void shutdown() {
+        shutdown = true;
+        encodeStage.shutdown();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.googlecode.jsendnsca.CloseablePassiveCheckSender#flush(long,
+     * java.util.concurrent.TimeUnit)
+     */
+    public DeliveryReport flush(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        final long deliveredBefore = delivered.get();
+        final long failedBefore = failed.get();
+
+        while (pending.get() > 0) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(10)));
+        }
+        failures.flush();
+        return new DeliveryReport(delivered.get() - deliveredBefore, 0, failed.get() - failedBefore, pending.get());
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.googlecode.jsendnsca.CloseablePassiveCheckSender#close(long,
+     * java.util.concurrent.TimeUnit)
+     */
+    public DeliveryReport close(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deliveredBefore = delivered.get();
+        final long failedBefore = failed.get();
+        final long spooledBefore = spooled.get();
+        final long abandonedBefore = abandoned.get();
+
+        shutdown();
+        if (!writeStage.awaitTermination(timeout, unit)) {
+            for (Stage<?> stage : new Stage<?>[] { encodeStage, handshakeStage, sealStage, writeStage }) {
+                stage.abort();
+            }
+        }
+
+        final SpoolStore store = spoolStore;
+        if (store != null && spooled.get() > spooledBefore && !flushSpool(store)) {
+            // the passive checks spooled are lost with the spool file
+            final long lost = spooled.get() - spooledBefore;
+            spooled.addAndGet(-lost);
+            abandoned.addAndGet(lost);
+        }
+        spoolFlushed = true;
+        failures.flush();
+        return new DeliveryReport(delivered.get() - deliveredBefore, spooled.get() - spooledBefore,
+                failed.get() - failedBefore + abandoned.get() - abandonedBefore, pending.get());
+    }
+
+    /**
+     * Close waiting at most 10 seconds for the pipeline to empty
+     */
+    public void close() {
+        try {
+            close(DEFAULT_CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void failed(PendingCheck check, Exception e, FailureCause step) {
+        check.discard();
+        getMetrics().recordFailed();
+        failed.incrementAndGet();
+        finished();
+        failures.failed(check.payload, e, step);
+    }
+
+    private void dropped(PendingCheck check) {
+        check.discard();
+        getMetrics().recordDropped();
+        failed.incrementAndGet();
+        finished();
+        failures.failed(check.payload, new RateLimitExceededException(RateLimit.EXCEEDED));
+    }
+
+    private void finished() {
+        pending.decrementAndGet();
+        getMetrics().dequeued();
+    }
+
+    private void spillCheck(PendingCheck check) {
+        check.discard();
+        spillPayload(check.payload);
+    }
+
+    /**
+     * Hand a passive check left in the pipeline when closing timed out to the
+     * {@link SpoolStore}, a passive check still being processed then is
+     * spilled when it reaches the next stage
+     */
+    private void spillPayload(MessagePayload payload) {
+        final SpoolStore store = spoolStore;
+        boolean stored = false;
+        if (store != null) {
+            try {
+                store.spool(payload);
+                stored = !spoolFlushed || flushSpool(store);
+            } catch (IOException e) {
+                failures.failed(payload, e);
+            }
+        }
+        if (stored) {
+            spooled.incrementAndGet();
+        } else {
+            abandoned.incrementAndGet();
+        }
+        finished();
+    }
+
+    private static boolean flushSpool(SpoolStore store) {
+        try {
+            store.flush();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static class PendingCheck {
+
+        private final MessagePayload payload;
+        private final PassiveCheckBytesBuilder passiveCheck;
+        private NscaConnection connection;
+        private Semaphore connectionPermit;
+        private byte[] packet;
+
+        private PendingCheck(MessagePayload payload, PassiveCheckBytesBuilder passiveCheck) {
+            this.payload = payload;
+            this.passiveCheck = passiveCheck;
+        }
+
+        private void discard() {
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+            if (connectionPermit != null) {
+                connectionPermit.release();
+                connectionPermit = null;
+            }
+            passiveCheck.release();
+        }
+    }
+
+    /**
+     * A queue and the worker threads taking from it, started by the first
+     * item put. The workers are daemon threads blocking on the queue, woken
+     * to stop by a poison pill per worker queued behind the last item once
+     * the stage is shut down.
+     */
+    private abstract static class Stage<T> implements Runnable {
+
+        private static final Object POISON = new Object();
+
+        private final BlockingQueue<Object> queue;
+        private final Stage<?> next;
+        private final int threads;
+        private final ThreadFactory threadFactory;
+        private final List<Thread> workers = new ArrayList<Thread>();
+        private final AtomicInteger running = new AtomicInteger();
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private volatile boolean started;
+        private volatile boolean shutdown;
+        private volatile boolean aborted;
+
+        Stage(String name, int threads, int capacity, Stage<?> next) {
+            this.queue = new ArrayBlockingQueue<Object>(capacity);
+            this.next = next;
+            this.threads = threads;
+            this.threadFactory = new DaemonThreadFactory(name);
+        }
+
+        abstract void process(T item) throws Exception;
+
+        abstract void discard(T item, Exception e);
+
+        /**
+         * Take an item out of the pipeline once it has been aborted
+         */
+        abstract void spill(T item);
+
+        void put(T item) throws InterruptedException {
+            if (aborted || !started && !start()) {
+                spill(item);
+                return;
+            }
+            queue.put(item);
+            if (aborted && queue.remove(item)) {
+                // raced with abort() emptying the queue
+                spill(item);
+            }
+        }
+
+        /**
+         * Start the workers unless the stage was shut down first
+         *
+         * @return true if the workers are running
+         */
+        private synchronized boolean start() {
+            if (!started && !shutdown) {
+                running.set(threads);
+                for (int i = 0; i < threads; i++) {
+                    final Thread worker = threadFactory.newThread(this);
+                    workers.add(worker);
+                    worker.start();
+                }
+                started = true;
+            }
+            return started;
+        }
+
+        int depth() {
+            return queue.size();
+        }
+
+        /**
+         * Stop the workers once the items queued have been processed, a stage
+         * never started terminates at once
+         */
+        void shutdown() {
+            synchronized (this) {
+                if (shutdown) {
+                    return;
+                }
+                shutdown = true;
+            }
+            if (!started) {
+                terminate();
+                return;
+            }
+            boolean interrupted = false;
+            int pills = 0;
+            while (pills < threads && !aborted) {
+                try {
+                    queue.put(POISON);
+                    pills++;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return terminated.await(timeout, unit);
+        }
+
+        /**
+         * Stop taking items and spill the ones queued, the items being
+         * processed are spilled when they are put to the next stage
+         */
+        @SuppressWarnings("unchecked")
+        void abort() {
+            aborted = true;
+            final List<Object> remaining = new ArrayList<Object>();
+            queue.drainTo(remaining);
+            for (Object item : remaining) {
+                if (item != POISON) {
+                    spill((T) item);
+                }
+            }
+            synchronized (this) {
+                for (Thread worker : workers) {
+                    worker.interrupt();
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        public void run() {
+            try {
+                while (true) {
+                    final Object taken = queue.take();
+                    if (taken == POISON) {
+                        return;
+                    }
+                    final T item = (T) taken;
+                    if (aborted) {
+                        spill(item);
+                        return;
+                    }
+                    try {
+                        process(item);
+                    } catch (InterruptedException e) {
+                        // interrupted by abort()
+                        spill(item);
+                        return;
+                    } catch (Exception e) {
+                        discard(item, e);
+                    }
+                }
+            } catch (InterruptedException ignore) {
+            } finally {
+                if (running.decrementAndGet() == 0) {
+                    terminate();
+                }
+            }
+        }
+
+        private void terminate() {
+            if (next != null) {
+                next.shutdown();
+            }
+            terminated.countDown();
+        }
+    }
+}
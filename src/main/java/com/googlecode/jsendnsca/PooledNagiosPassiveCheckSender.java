@@ -0,0 +1,312 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+
+import com.googlecode.jsendnsca.encryption.SessionEncryptor;
+import com.googlecode.jsendnsca.metrics.SenderMetrics;
+
+/**
+ * This sender keeps a pool of connections to the NSCA add-on open and sends
+ * many passive checks over each, as the C <code>send_nsca</code> does for all
+ * the passive checks it reads, saving a connect and handshake per passive
+ * check.
+ * <p>
+ * NSCA reads fixed size packets from a connection, so with adaptive message
+ * support every packet is sent at the largest size. The encryptor must be a
+ * {@link SessionEncryptor} for a connection to be reused, which all the
+ * {@link com.googlecode.jsendnsca.encryption.Encryption} methods are,
+ * otherwise each connection carries a single passive check.
+ * <p>
+ * NSCA does not acknowledge passive checks, so a passive check written to a
+ * connection that NSCA has just closed is lost without an error. Connections
+ * are therefore only reused for a bounded number of passive checks and not
+ * after they have been idle for a while.
+ * <p>
+ * This sender is thread safe, each thread sending uses a connection of its
+ * own and {@link #send(MessagePayload)} blocks while all connections are in
+ * use.
+ * <p>
+ * With adaptive concurrency enabled the number of connections in use at once
+ * is adapted between 1 and the maximum: it grows while handshake and write
+ * latencies stay flat and shrinks when they rise or sends fail, so a
+ * struggling NSCA is not made to queue connections in its accept backlog.
+ *
+ * @since 2.1
+ */
+public class PooledNagiosPassiveCheckSender implements CloseablePassiveCheckSender {
+
+    private static final int DEFAULT_MAX_SESSIONS = 4;
+    private static final int DEFAULT_MAX_PACKETS_PER_SESSION = 1000;
+    private static final long DEFAULT_MAX_IDLE_MILLIS = 5000;
+
+    private final NagiosPassiveCheckSender encoder;
+    private final NagiosSettings nagiosSettings;
+    private final ConcurrencyLimiter sessionLimiter;
+    private final BlockingDeque<Session> idleSessions = new LinkedBlockingDeque<Session>();
+    private final int maxPacketsPerSession;
+    private final long maxIdleNanos;
+    private volatile boolean closed;
+
+    /**
+     * Construct a new {@link PooledNagiosPassiveCheckSender} with the provided
+     * {@link NagiosSettings}, at most 4 connections each reused for up to
+     * 1000 passive checks and not after 5 seconds idle
+     *
+     * @param settings
+     *            the {@link NagiosSettings} to use to send the Passive Check
+     */
+    public PooledNagiosPassiveCheckSender(NagiosSettings settings) {
+        this(settings, DEFAULT_MAX_SESSIONS, DEFAULT_MAX_PACKETS_PER_SESSION, DEFAULT_MAX_IDLE_MILLIS);
+    }
+
+    /**
+     * Construct a new {@link PooledNagiosPassiveCheckSender} with the provided
+     * {@link NagiosSettings}
+     *
+     * @param settings
+     *            the {@link NagiosSettings} to use to send the Passive Check
+     * @param maxSessions
+     *            the maximum number of connections open at once
+     * @param maxPacketsPerSession
+     *            the number of passive checks after which a connection is
+     *            closed
+     * @param maxIdleMillis
+     *            the time after which an idle connection is closed instead of
+     *            reused
+     */
+    public PooledNagiosPassiveCheckSender(NagiosSettings settings, int maxSessions, int maxPacketsPerSession, long maxIdleMillis) {
+        Validate.isTrue(maxSessions > 0, "maxSessions must be greater than 0");
+        Validate.isTrue(maxPacketsPerSession > 0, "maxPacketsPerSession must be greater than 0");
+        Validate.isTrue(maxIdleMillis >= 0, "maxIdleMillis cannot be negative");
+
+        this.encoder = new NagiosPassiveCheckSender(settings);
+        this.nagiosSettings = settings;
+        this.sessionLimiter = new ConcurrencyLimiter(maxSessions);
+        this.maxPacketsPerSession = maxPacketsPerSession;
+        this.maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(maxIdleMillis);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.googlecode.jsendnsca.sender.INagiosPassiveCheckSender#send(com.googlecode
+     * .jsendnsca.sender.MessagePayload)
+     */
+    public void send(MessagePayload payload) throws NagiosException, IOException {
+        Validate.notNull(payload, "payload cannot be null");
+        if (closed) {
+            getMetrics().recordDropped();
+            throw new RejectedExecutionException("sender has been closed");
+        }
+
+        final PassiveCheckBytesBuilder passiveCheck = encoder.encode(payload, nagiosSettings.getMaxMessageSizeInChars());
+        if (!RateLimit.admit(nagiosSettings, 1, passiveCheck.packetSize())) {
+            passiveCheck.release();
+            getMetrics().recordDropped();
+            throw new RateLimitExceededException(RateLimit.EXCEEDED);
+        }
+        boolean sent = false;
+        try {
+            try {
+                sessionLimiter.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NagiosException("Interrupted while waiting for a connection", e);
+            }
+            try {
+                sent = sendOverSession(passiveCheck);
+            } finally {
+                sessionLimiter.release();
+            }
+        } finally {
+            passiveCheck.release();
+            if (sent) {
+                getMetrics().recordSent();
+            } else {
+                getMetrics().recordFailed();
+            }
+        }
+    }
+
+    private boolean sendOverSession(PassiveCheckBytesBuilder passiveCheck) throws NagiosException, IOException {
+        final long start = System.nanoTime();
+        Session session = takeIdleSession();
+        if (session == null) {
+            try {
+                session = new Session(NscaConnection.connect(nagiosSettings, getMetrics(), passiveCheck.packetSize()));
+            } catch (IOException e) {
+                sessionLimiter.failed();
+                throw e;
+            }
+        }
+
+        boolean reusable = false;
+        FailureCause step = FailureCause.HANDSHAKE;
+        try {
+            if (session.connection.getPacketCount() == 0) {
+                session.connection.handshake();
+                sessionLimiter.sample(ConcurrencyLimiter.HANDSHAKE, System.nanoTime() - start);
+            }
+            final byte[] packet = session.connection.seal(passiveCheck);
+            step = FailureCause.WRITE;
+            final long writeStart = System.nanoTime();
+            session.connection.write(packet);
+            sessionLimiter.sample(ConcurrencyLimiter.WRITE, System.nanoTime() - writeStart);
+            reusable = session.connection.supportsMultiplePackets()
+                && session.connection.getPacketCount() < maxPacketsPerSession;
+            return true;
+        } catch (SocketTimeoutException ste) {
+            sessionLimiter.failed();
+            throw ste;
+        } catch (IOException e) {
+            sessionLimiter.failed();
+            throw new NagiosSendException("Error occurred while sending passive alert", step, e);
+        } finally {
+            if (reusable && !closed) {
+                session.idleSince = System.nanoTime();
+                idleSessions.offerFirst(session);
+                if (closed) {
+                    closeIdleSessions();
+                }
+            } else {
+                session.connection.close();
+            }
+        }
+    }
+
+    /**
+     * The most recently used idle connection, idle connections past the
+     * maximum idle time are closed
+     */
+    private Session takeIdleSession() {
+        Session session = idleSessions.pollFirst();
+        while (session != null && System.nanoTime() - session.idleSince > maxIdleNanos) {
+            session.connection.close();
+            session = idleSessions.pollFirst();
+        }
+        return session;
+    }
+
+    /**
+     * Adapt the number of connections in use at once to the latency of NSCA,
+     * starting from 1 and never above the maximum this sender was constructed
+     * with. Off by default, when the maximum is always allowed.
+     *
+     * @param adaptiveConcurrency
+     *            true to adapt the number of connections
+     */
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+        sessionLimiter.setAdaptive(adaptiveConcurrency);
+    }
+
+    /**
+     * The number of connections currently allowed in use at once
+     *
+     * @return the concurrency limit
+     */
+    public int getConcurrencyLimit() {
+        return sessionLimiter.getLimit();
+    }
+
+    /**
+     * The number of connections open and waiting for the next passive check
+     *
+     * @return the idle connection count
+     */
+    public int getIdleSessionCount() {
+        return idleSessions.size();
+    }
+
+    /**
+     * The metrics of this sender
+     *
+     * @return the {@link SenderMetrics}
+     */
+    public SenderMetrics getMetrics() {
+        return encoder.getMetrics();
+    }
+
+    /**
+     * Use the provided {@link SenderMetrics} instead of the metrics this
+     * sender was constructed with
+     *
+     * @param metrics
+     *            the {@link SenderMetrics} to record into
+     */
+    public void setMetrics(SenderMetrics metrics) {
+        encoder.setMetrics(metrics);
+    }
+
+    /**
+     * Passive checks are sent on the calling thread so there is nothing
+     * queued to flush, this waits for the passive checks being sent
+     */
+    public DeliveryReport flush(long timeout, TimeUnit unit) throws InterruptedException {
+        return new DeliveryReport(0, 0, 0, awaitSessions(timeout, unit));
+    }
+
+    /**
+     * Close the idle connections and wait for the passive checks being sent,
+     * their connections are closed once sent. Passive checks sent after
+     * closing are rejected.
+     */
+    public DeliveryReport close(long timeout, TimeUnit unit) throws InterruptedException {
+        close();
+        return new DeliveryReport(0, 0, 0, awaitSessions(timeout, unit));
+    }
+
+    /**
+     * Close the idle connections, connections in use are closed once their
+     * passive check has been sent. Passive checks sent after closing are
+     * rejected.
+     */
+    public void close() {
+        closed = true;
+        closeIdleSessions();
+    }
+
+    /**
+     * @return the number of passive checks still being sent at the timeout
+     */
+    private int awaitSessions(long timeout, TimeUnit unit) throws InterruptedException {
+        return sessionLimiter.awaitIdle(timeout, unit);
+    }
+
+    private void closeIdleSessions() {
+        Session session;
+        while ((session = idleSessions.pollFirst()) != null) {
+            session.connection.close();
+        }
+    }
+
+    private static class Session {
+
+        private final NscaConnection connection;
+        private long idleSince;
+
+        private Session(NscaConnection connection) {
+            this.connection = connection;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Configures a sender which does not block to queue passive checks in a lane
+ * per {@link Level}, so a CRITICAL result is not stuck behind a backlog of OK
+ * results.
+ * <p>
+ * The lanes are drained by weighted round robin, by default 8 CRITICAL, 4
+ * WARNING and 2 UNKNOWN results are sent for each OK result, so a busy higher
+ * lane slows the lower lanes down but never stops them.
+ * <p>
+ * As lanes reorder passive checks, a newer result for a host and service
+ * waits for an older one still queued in another lane to be sent first,
+ * which would otherwise be sent after it and leave Nagios with the stale
+ * state. Only when the queue is full does the newer result replace the older
+ * ones instead. With OK coalescing a newer OK result also replaces an older
+ * queued OK result for the same host and service.
+ * <p>
+ * When the queue is full a new result pushes out the oldest result of the
+ * lowest non empty lane at or below its own, so OK results are dropped first.
+ * It is refused if there is no such result.
+ *
+ * @since 2.1
+ */
+public class PriorityLanes {
+
+    /**
+     * The lanes from highest to lowest priority
+     */
+    static final Level[] LANE_ORDER = { Level.CRITICAL, Level.WARNING, Level.UNKNOWN, Level.OK };
+
+    private final int[] weights = { 8, 4, 2, 1 };
+    private int capacity = Integer.MAX_VALUE;
+    private boolean okCoalescing = true;
+
+    /**
+     * Set the number of results of a level sent in turn before moving on to
+     * the next lane
+     *
+     * @param level
+     *            the {@link Level} of the lane
+     * @param weight
+     *            the weight, at least 1
+     * @return this {@link PriorityLanes}
+     */
+    public PriorityLanes withWeight(Level level, int weight) {
+        Validate.notNull(level, "level cannot be null");
+        Validate.isTrue(weight > 0, "weight must be greater than 0");
+        weights[laneOf(level)] = weight;
+        return this;
+    }
+
+    /**
+     * Bound the number of results queued across all lanes, by default there
+     * is no bound
+     *
+     * @param capacity
+     *            the capacity
+     * @return this {@link PriorityLanes}
+     */
+    public PriorityLanes withCapacity(int capacity) {
+        Validate.isTrue(capacity > 0, "capacity must be greater than 0");
+        this.capacity = capacity;
+        return this;
+    }
+
+    /**
+     * Whether a newer OK result replaces an older queued OK result for the
+     * same host and service, on by default
+     *
+     * @param okCoalescing
+     *            true to coalesce OK results
+     * @return this {@link PriorityLanes}
+     */
+    public PriorityLanes withOkCoalescing(boolean okCoalescing) {
+        this.okCoalescing = okCoalescing;
+        return this;
+    }
+
+    static int laneOf(Level level) {
+        for (int lane = 0; lane < LANE_ORDER.length; lane++) {
+            if (LANE_ORDER[lane] == level) {
+                return lane;
+            }
+        }
+        throw new IllegalArgumentException(String.format("[%s] has no lane", level));
+    }
+
+    int[] getWeights() {
+        return Arrays.copyOf(weights, weights.length);
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    boolean isOkCoalescing() {
+        return okCoalescing;
+    }
+}
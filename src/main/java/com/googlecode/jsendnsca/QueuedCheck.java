@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+/**
+ * A passive check waiting in the queue of a sender, pre-encoded into its
+ * packet if pre-encoding is enabled
+ */
+class QueuedCheck {
+
+    /**
+     * The {@link #expiresAt} of a check which never expires
+     */
+    static final long NEVER = Long.MAX_VALUE;
+
+    final MessagePayload payload;
+    final PassiveCheckBytesBuilder passiveCheck;
+    final SendEvent queueWait = SendEvent.begin(SendEventType.QUEUE_WAIT);
+
+    /**
+     * The {@link System#nanoTime()} the check was queued
+     */
+    final long queuedAt;
+
+    /**
+     * The {@link System#nanoTime()} after which the check is not worth
+     * sending, or {@link #NEVER}
+     */
+    final long expiresAt;
+
+    /**
+     * Bookkeeping of the {@link LaneQueue}: the lane, the host and service,
+     * whether the check has left the queue or is waiting to enter its lane,
+     * and the older and newer checks for the same host and service still
+     * queued
+     */
+    int lane;
+    Object serviceKey;
+    boolean dequeued;
+    boolean waiting;
+    QueuedCheck olderForService;
+    QueuedCheck newerForService;
+
+    QueuedCheck(MessagePayload payload, PassiveCheckBytesBuilder passiveCheck) {
+        this(payload, passiveCheck, NEVER);
+    }
+
+    QueuedCheck(MessagePayload payload, PassiveCheckBytesBuilder passiveCheck, long expiresAt) {
+        this(payload, passiveCheck, expiresAt, System.nanoTime());
+    }
+
+    QueuedCheck(MessagePayload payload, PassiveCheckBytesBuilder passiveCheck, long expiresAt, long queuedAt) {
+        this.payload = payload;
+        this.passiveCheck = passiveCheck;
+        this.expiresAt = expiresAt;
+        this.queuedAt = queuedAt;
+    }
+
+    /**
+     * Whether the time to live has passed, only reading the clock for checks
+     * which can expire
+     */
+    boolean hasExpired() {
+        return expiresAt != NEVER && System.nanoTime() - expiresAt >= 0;
+    }
+
+    /**
+     * Commit the {@link SendEventType#QUEUE_WAIT} event as the check leaves
+     * the queue to be sent
+     */
+    void commitQueueWait(NagiosSettings nagiosSettings, int packetSize) {
+        queueWait.commit(nagiosSettings, packetSize, queuedAt);
+    }
+
+    int packetSize() {
+        return passiveCheck == null ? 0 : passiveCheck.packetSize();
+    }
+
+    /**
+     * Release the packet buffer of a pre-encoded check
+     */
+    void discard() {
+        if (passiveCheck != null) {
+            passiveCheck.release();
+        }
+    }
+}
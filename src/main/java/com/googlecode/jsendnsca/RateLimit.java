@@ -0,0 +1,211 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * A limit on the packets and bytes per second sent to NSCA, shared by every
+ * sender using {@link NagiosSettings} with this limit. Give the
+ * {@link NagiosSettings} of an NSCA endpoint the same {@link RateLimit}
+ * instance to limit all the traffic of the application to it.
+ * <p>
+ * Each limit is a token bucket refilled at the rate per second which holds
+ * up to the burst time worth of tokens. The buckets are kept as the time at
+ * which they will next be full, updated with a compare and set, so checking
+ * the limit takes no lock.
+ * <p>
+ * When a bucket is empty the {@link Policy} decides whether the sending
+ * thread waits or the passive check is dropped. The queued senders wait on
+ * their worker threads, so passive checks build up in their queue where
+ * {@link PriorityLanes} can coalesce them.
+ *
+ * @since 2.1
+ */
+public class RateLimit {
+
+    /**
+     * What to do with a passive check over the limit
+     */
+    public enum Policy {
+        /**
+         * wait for the bucket to refill, the default
+         */
+        WAIT,
+        /**
+         * drop the passive check, counted by
+         * {@link com.googlecode.jsendnsca.metrics.SenderMetrics#getDropped()}.
+         * Senders which send on the calling thread throw a
+         * {@link RateLimitExceededException}, the queued senders pass it to
+         * their {@link SendFailureListener} and report the passive check as
+         * abandoned.
+         */
+        DROP
+    }
+
+    /**
+     * The message of the exception thrown for a dropped passive check
+     */
+    static final String EXCEEDED = "rate limit exceeded";
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final AtomicLong packetsFullAt = new AtomicLong(System.nanoTime());
+    private final AtomicLong bytesFullAt = new AtomicLong(System.nanoTime());
+    private double nanosPerPacket;
+    private double nanosPerByte;
+    private long burstNanos = TimeUnit.SECONDS.toNanos(1);
+    private Policy policy = Policy.WAIT;
+
+    /**
+     * Limit the packets sent per second, by default there is no limit
+     *
+     * @param packetsPerSecond
+     *            the packets per second, 0 for no limit
+     * @return this {@link RateLimit}
+     */
+    public RateLimit withPacketsPerSecond(double packetsPerSecond) {
+        Validate.isTrue(packetsPerSecond >= 0, "packetsPerSecond cannot be negative");
+        this.nanosPerPacket = packetsPerSecond == 0 ? 0 : NANOS_PER_SECOND / packetsPerSecond;
+        return this;
+    }
+
+    /**
+     * Limit the bytes sent per second, by default there is no limit
+     *
+     * @param bytesPerSecond
+     *            the bytes per second, 0 for no limit
+     * @return this {@link RateLimit}
+     */
+    public RateLimit withBytesPerSecond(double bytesPerSecond) {
+        Validate.isTrue(bytesPerSecond >= 0, "bytesPerSecond cannot be negative");
+        this.nanosPerByte = bytesPerSecond == 0 ? 0 : NANOS_PER_SECOND / bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Set how long a burst at full speed may last after a quiet period, 1
+     * second by default
+     *
+     * @param burst
+     *            the burst time
+     * @param unit
+     *            the {@link TimeUnit} of the burst time
+     * @return this {@link RateLimit}
+     */
+    public RateLimit withBurst(long burst, TimeUnit unit) {
+        Validate.isTrue(burst >= 0, "burst cannot be negative");
+        this.burstNanos = unit.toNanos(burst);
+        return this;
+    }
+
+    /**
+     * Set what to do with a passive check over the limit
+     *
+     * @param policy
+     *            the {@link Policy}, {@link Policy#WAIT} by default
+     * @return this {@link RateLimit}
+     */
+    public RateLimit withPolicy(Policy policy) {
+        Validate.notNull(policy, "policy cannot be null");
+        this.policy = policy;
+        return this;
+    }
+
+    /**
+     * Take the tokens for packets about to be sent to the endpoint of the
+     * settings, if they have a {@link RateLimit}
+     *
+     * @return false if the packets must be dropped
+     */
+    static boolean admit(NagiosSettings settings, int packets, int bytes) {
+        final RateLimit rateLimit = settings.getRateLimit();
+        return rateLimit == null || rateLimit.admit(packets, bytes);
+    }
+
+    /**
+     * Take the tokens for packets about to be sent, waiting for them with the
+     * {@link Policy#WAIT} policy. An interrupted wait lets the packets through
+     * and keeps the thread interrupted.
+     *
+     * @return false if the packets must be dropped
+     */
+    boolean admit(int packets, int bytes) {
+        final long packetCost = (long) (packets * nanosPerPacket);
+        final long byteCost = (long) (bytes * nanosPerByte);
+        final long now = System.nanoTime();
+
+        if (policy == Policy.DROP) {
+            if (!tryTake(packetsFullAt, packetCost, now)) {
+                return false;
+            }
+            if (!tryTake(bytesFullAt, byteCost, now)) {
+                packetsFullAt.addAndGet(-packetCost);
+                return false;
+            }
+            return true;
+        }
+
+        final long wait = Math.max(take(packetsFullAt, packetCost, now), take(bytesFullAt, byteCost, now));
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Take the tokens if the bucket holds them, a full bucket always gives
+     * them so a packet bigger than the burst is not refused forever
+     */
+    private boolean tryTake(AtomicLong fullAt, long cost, long now) {
+        if (cost == 0) {
+            return true;
+        }
+        while (true) {
+            final long current = fullAt.get();
+            final long next = Math.max(current, now) + cost;
+            if (current - now > 0 && next - now > burstNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Take the tokens, borrowing from the future if the bucket is empty
+     *
+     * @return the nanoseconds to wait until the tokens borrowed are refilled
+     */
+    private long take(AtomicLong fullAt, long cost, long now) {
+        if (cost == 0) {
+            return 0;
+        }
+        while (true) {
+            final long current = fullAt.get();
+            final long next = Math.max(current, now) + cost;
+            if (fullAt.compareAndSet(current, next)) {
+                return next - now - burstNanos;
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+/**
+ * Thrown if a passive check is dropped because its {@link RateLimit} is
+ * exceeded and its policy is {@link RateLimit.Policy#DROP}
+ *
+ * @since 2.1
+ */
+public class RateLimitExceededException extends NagiosException {
+
+    private static final long serialVersionUID = 3859417106562873047L;
+
+    /**
+     * Constructs an instance of <code>RateLimitExceededException</code>
+     *
+     * @param msg
+     *            the detail message.
+     */
+    public RateLimitExceededException(String msg) {
+        super(msg, null);
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+
+import com.googlecode.jsendnsca.metrics.SenderMetrics;
+
+/**
+ * This sender delivers every passive check to each of a number of NSCA
+ * servers, e.g. an active/active pair of Nagios servers.
+ * <p>
+ * The packet of a passive check is encoded once and copied for each replica,
+ * only the timestamp, CRC and encryption of each connection are done per
+ * replica. Each replica is a {@link NonBlockingNagiosPassiveCheckSender} with
+ * its own queue and worker thread, so a slow or unavailable replica does not
+ * delay the others, and sends its passive checks in the order they were
+ * sent. The replicas must encode alike, so their
+ * {@link NagiosSettings} must have the same charset and message sizes.
+ *
+ * @since 2.1
+ */
+public class ReplicatingNagiosPassiveCheckSender implements CloseablePassiveCheckSender {
+
+    private static final long DEFAULT_CLOSE_TIMEOUT_SECONDS = 10;
+
+    private final NonBlockingNagiosPassiveCheckSender[] replicas;
+
+    /**
+     * Construct a new {@link ReplicatingNagiosPassiveCheckSender}
+     *
+     * @param replicas
+     *            the {@link NagiosSettings} of each NSCA server to deliver to
+     */
+    public ReplicatingNagiosPassiveCheckSender(NagiosSettings... replicas) {
+        Validate.notEmpty(replicas, "replicas cannot be empty");
+        Validate.noNullElements(replicas, "replicas cannot contain null");
+        final NagiosSettings first = replicas[0];
+        for (NagiosSettings replica : replicas) {
+            Validate.isTrue(replica.getCharset().equals(first.getCharset())
+                && replica.getMinMessageSizeInChars() == first.getMinMessageSizeInChars()
+                && replica.getMaxMessageSizeInChars() == first.getMaxMessageSizeInChars(),
+                "replicas must have the same charset and message sizes");
+        }
+
+        this.replicas = new NonBlockingNagiosPassiveCheckSender[replicas.length];
+        for (int i = 0; i < replicas.length; i++) {
+            this.replicas[i] = new NonBlockingNagiosPassiveCheckSender(replicas[i]);
+            this.replicas[i].setDrainOnCallingThread(false);
+        }
+    }
+
+    /**
+     * Queue the passive check for every replica. A replica which rejects it,
+     * e.g. because its queue is full, counts it as dropped in its metrics;
+     * it is only rejected if every replica rejects it.
+     */
+    public void send(MessagePayload payload) throws NagiosException, IOException {
+        Validate.notNull(payload, "payload cannot be null");
+
+        final PassiveCheckBytesBuilder[] packets = new PassiveCheckBytesBuilder[replicas.length];
+        packets[0] = replicas[0].encode(payload);
+        for (int i = 1; i < packets.length; i++) {
+            packets[i] = packets[0].copy();
+        }
+
+        RejectedExecutionException rejected = null;
+        int rejections = 0;
+        for (int i = 0; i < replicas.length; i++) {
+            try {
+                replicas[i].sendEncoded(payload, packets[i]);
+            } catch (RejectedExecutionException e) {
+                rejected = e;
+                rejections++;
+            }
+        }
+        if (rejections == replicas.length) {
+            throw rejected;
+        }
+    }
+
+    /**
+     * The number of replicas
+     *
+     * @return the number of NSCA servers each passive check is delivered to
+     */
+    public int getReplicaCount() {
+        return replicas.length;
+    }
+
+    /**
+     * The metrics of delivering to a replica
+     *
+     * @param replica
+     *            the index of the replica in the order given
+     * @return the {@link SenderMetrics}
+     */
+    public SenderMetrics getMetrics(int replica) {
+        return replicas[replica].getMetrics();
+    }
+
+    /**
+     * @see NonBlockingNagiosPassiveCheckSender#setTimeToLive(long, TimeUnit)
+     */
+    public void setTimeToLive(long timeToLive, TimeUnit unit) {
+        for (NonBlockingNagiosPassiveCheckSender replica : replicas) {
+            replica.setTimeToLive(timeToLive, unit);
+        }
+    }
+
+    /**
+     * @see NonBlockingNagiosPassiveCheckSender#setMicroBatching(MicroBatching)
+     */
+    public void setMicroBatching(MicroBatching microBatching) {
+        for (NonBlockingNagiosPassiveCheckSender replica : replicas) {
+            replica.setMicroBatching(microBatching);
+        }
+    }
+
+    /**
+     * @see NonBlockingNagiosPassiveCheckSender#setSendFailureListener(SendFailureListener)
+     */
+    public void setSendFailureListener(SendFailureListener listener) {
+        for (NonBlockingNagiosPassiveCheckSender replica : replicas) {
+            replica.setSendFailureListener(listener);
+        }
+    }
+
+    /**
+     * Flush every replica within the one deadline, counting each passive
+     * check once per replica
+     */
+    public DeliveryReport flush(long timeout, TimeUnit unit) throws InterruptedException {
+        return sum(flushEach(timeout, unit));
+    }
+
+    /**
+     * Flush every replica within the one deadline, the replicas not yet
+     * flushed keep sending meanwhile
+     *
+     * @param timeout
+     *            the maximum time to wait
+     * @param unit
+     *            the unit of the timeout
+     * @return what became of the queued passive checks of each replica, in
+     *         the order the replicas were given
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public List<DeliveryReport> flushEach(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        final List<DeliveryReport> reports = new ArrayList<DeliveryReport>(replicas.length);
+        for (NonBlockingNagiosPassiveCheckSender replica : replicas) {
+            reports.add(replica.flush(remaining(deadline), TimeUnit.NANOSECONDS));
+        }
+        return reports;
+    }
+
+    /**
+     * Close every replica within the one deadline, counting each passive
+     * check once per replica
+     */
+    public DeliveryReport close(long timeout, TimeUnit unit) throws InterruptedException {
+        return sum(closeEach(timeout, unit));
+    }
+
+    /**
+     * Close every replica within the one deadline
+     *
+     * @param timeout
+     *            the maximum time to wait
+     * @param unit
+     *            the unit of the timeout
+     * @return what became of the queued passive checks of each replica, in
+     *         the order the replicas were given
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public List<DeliveryReport> closeEach(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        final List<DeliveryReport> reports = new ArrayList<DeliveryReport>(replicas.length);
+        for (NonBlockingNagiosPassiveCheckSender replica : replicas) {
+            reports.add(replica.close(remaining(deadline), TimeUnit.NANOSECONDS));
+        }
+        return reports;
+    }
+
+    /**
+     * Close waiting at most 10 seconds for the queued passive checks to be
+     * sent
+     */
+    public void close() {
+        try {
+            close(DEFAULT_CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static DeliveryReport sum(List<DeliveryReport> reports) {
+        long delivered = 0;
+        long spooled = 0;
+        long abandoned = 0;
+        long pending = 0;
+        for (DeliveryReport report : reports) {
+            delivered += report.getDelivered();
+            spooled += report.getSpooled();
+            abandoned += report.getAbandoned();
+            pending += report.getPending();
+        }
+        return new DeliveryReport(delivered, spooled, abandoned, pending);
+    }
+
+    private static long remaining(long deadline) {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+}
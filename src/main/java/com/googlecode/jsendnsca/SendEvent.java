@@ -0,0 +1,67 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+/**
+ * A Java Flight Recorder event timing a phase of sending a passive check.
+ * <p>
+ * This is the implementation for Java runtimes without JFR and records
+ * nothing. On Java 11 and later it is replaced by the implementation in
+ * <code>META-INF/versions/11</code> of the multi-release jar, which emits
+ * events only when they are enabled in a recording.
+ */
+class SendEvent {
+
+    private static final SendEvent DISABLED = new SendEvent();
+
+    private SendEvent() {
+    }
+
+    /**
+     * Start timing a phase
+     *
+     * @param type
+     *            the phase
+     * @return the event to commit when the phase ends
+     */
+    static SendEvent begin(SendEventType type) {
+        return DISABLED;
+    }
+
+    /**
+     * Stop timing the phase and commit the event if the recording wants it
+     *
+     * @param nagiosSettings
+     *            the settings of the sender, may be null if not known
+     * @param packetSize
+     *            the size of the packet in bytes, 0 if not yet encoded
+     */
+    void commit(NagiosSettings nagiosSettings, int packetSize) {
+    }
+
+    /**
+     * As {@link #commit(NagiosSettings, int)}, also recording when the phase
+     * started where that is before the event began, e.g. for a check queued
+     * off the heap whose event only began when it was polled
+     *
+     * @param nagiosSettings
+     *            the settings of the sender, may be null if not known
+     * @param packetSize
+     *            the size of the packet in bytes, 0 if not yet encoded
+     * @param startNanos
+     *            the {@link System#nanoTime()} the phase started
+     */
+    void commit(NagiosSettings nagiosSettings, int packetSize, long startNanos) {
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+/**
+ * The phases of sending a passive check recorded as {@link SendEvent}s
+ */
+enum SendEventType {
+
+    /**
+     * waiting in the queue of a non-blocking sender
+     */
+    QUEUE_WAIT,
+    /**
+     * writing the payload fields into the packet
+     */
+    ENCODE,
+    /**
+     * resolving the host and opening the TCP connection
+     */
+    CONNECT,
+    /**
+     * reading the initialisation vector and timestamp sent by NSCA
+     */
+    HANDSHAKE,
+    /**
+     * writing the timestamp and CRC and encrypting the packet
+     */
+    ENCRYPT,
+    /**
+     * writing the packet to the connection
+     */
+    WRITE
+}
@@ -0,0 +1,39 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+/**
+ * Notified when a sender which does not block fails to send a passive check,
+ * as the exception cannot be thrown to the caller of
+ * {@link PassiveCheckSender#send(MessagePayload)}.
+ * <p>
+ * Listeners are called on the worker thread of the sender so should return
+ * quickly.
+ *
+ * @since 2.1
+ */
+public interface SendFailureListener {
+
+    /**
+     * Called when a passive check could not be sent
+     *
+     * @param payload
+     *            the Passive Check message payload
+     * @param cause
+     *            the classified cause of the failure
+     * @param exception
+     *            the exception thrown while sending
+     */
+    void onFailure(MessagePayload payload, FailureCause cause, Exception exception);
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Classifies the failures of a sender which does not block, remembers the
+ * last failure of each cause and passes them on to its
+ * {@link SendFailureListener}
+ */
+class SendFailures {
+
+    private final AtomicReferenceArray<Exception> lastFailures = new AtomicReferenceArray<Exception>(FailureCause.values().length);
+    private volatile SendFailureListener listener = new SummarisingFailureListener();
+
+    void failed(MessagePayload payload, Exception exception) {
+        failed(payload, exception, FailureCause.UNKNOWN);
+    }
+
+    /**
+     * @param fallback
+     *            the cause if the exception itself cannot be classified, e.g.
+     *            the step of the send which threw it
+     */
+    void failed(MessagePayload payload, Exception exception, FailureCause fallback) {
+        FailureCause cause = FailureCause.classify(exception);
+        if (cause == FailureCause.UNKNOWN) {
+            cause = fallback;
+        }
+        lastFailures.set(cause.ordinal(), exception);
+        try {
+            listener.onFailure(payload, cause, exception);
+        } catch (RuntimeException ignore) {
+            // a faulty listener must not stop the worker thread
+        }
+    }
+
+    /**
+     * Flush the listener if it is {@link Flushable}, e.g. to print the
+     * summaries of the {@link SummarisingFailureListener}
+     */
+    void flush() {
+        final SendFailureListener current = listener;
+        if (current instanceof Flushable) {
+            try {
+                ((Flushable) current).flush();
+            } catch (IOException ignore) {
+                // the failures have already been counted
+            } catch (RuntimeException ignore) {
+                // a faulty listener must not fail the sender
+            }
+        }
+    }
+
+    Exception getLastFailure(FailureCause cause) {
+        Validate.notNull(cause, "cause cannot be null");
+        return lastFailures.get(cause.ordinal());
+    }
+
+    void setListener(SendFailureListener listener) {
+        Validate.notNull(listener, "listener cannot be null");
+        this.listener = listener;
+    }
+}
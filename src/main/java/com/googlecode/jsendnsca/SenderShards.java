@@ -0,0 +1,190 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+
+import com.googlecode.jsendnsca.metrics.SenderMetrics;
+
+/**
+ * The {@link NonBlockingNagiosPassiveCheckSender}s a sender spreads passive
+ * checks across, each with a worker thread and {@link SenderMetrics} of its
+ * own so threads sending to different shards do not contend, read together
+ * through an aggregate. Only the worker threads send, so each shard sends its
+ * passive checks in the order they were queued.
+ */
+class SenderShards {
+
+    private final NonBlockingNagiosPassiveCheckSender[] shards;
+    private final SenderMetrics metrics;
+
+    /**
+     * Shards each sending over a connection of its own
+     */
+    SenderShards(NagiosSettings settings, int count) {
+        Validate.notNull(settings, "settings cannot be null");
+        Validate.isTrue(count > 0, "count must be greater than 0");
+
+        shards = new NonBlockingNagiosPassiveCheckSender[count];
+        final SenderMetrics[] parts = new SenderMetrics[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = newShard(new NagiosPassiveCheckSender(settings));
+            parts[i] = shards[i].getMetrics();
+        }
+        metrics = SenderMetrics.aggregate(parts);
+    }
+
+    /**
+     * Shards sending over the connections of a shared pool, which records the
+     * sends while each shard records its queue into metrics of its own
+     */
+    SenderShards(PooledNagiosPassiveCheckSender pool, int count) {
+        Validate.notNull(pool, "pool cannot be null");
+        Validate.isTrue(count > 0, "count must be greater than 0");
+
+        shards = new NonBlockingNagiosPassiveCheckSender[count];
+        final SenderMetrics[] parts = new SenderMetrics[count + 1];
+        for (int i = 0; i < count; i++) {
+            shards[i] = newShard(pool);
+            parts[i] = new SenderMetrics();
+            shards[i].setQueueMetrics(parts[i]);
+        }
+        parts[count] = pool.getMetrics();
+        metrics = SenderMetrics.aggregate(parts);
+    }
+
+    /**
+     * The metrics a shard records its queue into
+     */
+    SenderMetrics getQueueMetrics(int index) {
+        return shards[index].queueMetrics();
+    }
+
+    private static NonBlockingNagiosPassiveCheckSender newShard(PassiveCheckSender sender) {
+        final NonBlockingNagiosPassiveCheckSender shard = new NonBlockingNagiosPassiveCheckSender(sender);
+        shard.setDrainOnCallingThread(false);
+        return shard;
+    }
+
+    NonBlockingNagiosPassiveCheckSender get(int index) {
+        return shards[index];
+    }
+
+    int count() {
+        return shards.length;
+    }
+
+    SenderMetrics getMetrics() {
+        return metrics;
+    }
+
+    void setPreEncoding(boolean preEncoding) {
+        for (NonBlockingNagiosPassiveCheckSender shard : shards) {
+            shard.setPreEncoding(preEncoding);
+        }
+    }
+
+    void setTimeToLive(long timeToLive, TimeUnit unit) {
+        for (NonBlockingNagiosPassiveCheckSender shard : shards) {
+            shard.setTimeToLive(timeToLive, unit);
+        }
+    }
+
+    void setPriorityLanes(PriorityLanes priorityLanes) {
+        for (NonBlockingNagiosPassiveCheckSender shard : shards) {
+            shard.setPriorityLanes(priorityLanes);
+        }
+    }
+
+    void setOffHeapQueue(int capacityInBytes) {
+        for (NonBlockingNagiosPassiveCheckSender shard : shards) {
+            shard.setOffHeapQueue(capacityInBytes);
+        }
+    }
+
+    void setMicroBatching(MicroBatching microBatching) {
+        for (NonBlockingNagiosPassiveCheckSender shard : shards) {
+            shard.setMicroBatching(microBatching);
+        }
+    }
+
+    void setStormProtection(StormProtection stormProtection) {
+        for (NonBlockingNagiosPassiveCheckSender shard : shards) {
+            shard.setStormProtection(stormProtection);
+        }
+    }
+
+    void setSendFailureListener(SendFailureListener listener) {
+        for (NonBlockingNagiosPassiveCheckSender shard : shards) {
+            shard.setSendFailureListener(listener);
+        }
+    }
+
+    void setSpoolStore(SpoolStore spoolStore) {
+        for (NonBlockingNagiosPassiveCheckSender shard : shards) {
+            shard.setSpoolStore(spoolStore);
+        }
+    }
+
+    /**
+     * Flush every shard in turn within the one deadline, the workers of the
+     * shards not yet flushed keep sending meanwhile
+     */
+    DeliveryReport flush(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long delivered = 0;
+        long spooled = 0;
+        long abandoned = 0;
+        long pending = 0;
+        for (NonBlockingNagiosPassiveCheckSender shard : shards) {
+            final DeliveryReport report = shard.flush(remaining(deadline), TimeUnit.NANOSECONDS);
+            delivered += report.getDelivered();
+            spooled += report.getSpooled();
+            abandoned += report.getAbandoned();
+            pending += report.getPending();
+        }
+        return new DeliveryReport(delivered, spooled, abandoned, pending);
+    }
+
+    /**
+     * Close every shard in turn within the one deadline
+     */
+    DeliveryReport close(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long delivered = 0;
+        long spooled = 0;
+        long abandoned = 0;
+        long pending = 0;
+        for (NonBlockingNagiosPassiveCheckSender shard : shards) {
+            final DeliveryReport report = shard.close(remaining(deadline), TimeUnit.NANOSECONDS);
+            delivered += report.getDelivered();
+            spooled += report.getSpooled();
+            abandoned += report.getAbandoned();
+            pending += report.getPending();
+        }
+        return new DeliveryReport(delivered, spooled, abandoned, pending);
+    }
+
+    void shutdown() {
+        for (NonBlockingNagiosPassiveCheckSender shard : shards) {
+            shard.shutdown();
+        }
+    }
+
+    private static long remaining(long deadline) {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+}
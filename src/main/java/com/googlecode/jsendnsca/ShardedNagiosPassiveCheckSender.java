@@ -0,0 +1,188 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+
+import com.googlecode.jsendnsca.metrics.SenderMetrics;
+
+/**
+ * This sender spreads the threads sending passive checks across a number of
+ * shards, by default one per core, so busy threads do not all contend for
+ * the queue and worker thread of a single
+ * {@link NonBlockingNagiosPassiveCheckSender}.
+ * <p>
+ * Each shard is a {@link NonBlockingNagiosPassiveCheckSender} with its own
+ * queue and worker thread. A thread always sends to the same shard, so the
+ * passive checks it sends are sent in order. The workers share the
+ * connections of one {@link PooledNagiosPassiveCheckSender}, at most one per
+ * shard. Each shard records its queue into {@link SenderMetrics} of its own,
+ * so the threads sending do not contend for one counter, and
+ * {@link #getMetrics()} sums them with those of the pool when read.
+ *
+ * @since 2.1
+ */
+public class ShardedNagiosPassiveCheckSender implements CloseablePassiveCheckSender {
+
+    private static final int DEFAULT_MAX_PACKETS_PER_SESSION = 1000;
+    private static final long DEFAULT_MAX_IDLE_MILLIS = 5000;
+    private static final long DEFAULT_CLOSE_TIMEOUT_SECONDS = 10;
+
+    private final PooledNagiosPassiveCheckSender pool;
+    private final SenderShards shards;
+
+    /**
+     * Construct a new {@link ShardedNagiosPassiveCheckSender} with the
+     * provided {@link NagiosSettings} and a shard per available processor
+     *
+     * @param settings
+     *            the {@link NagiosSettings} to use to send the Passive Check
+     */
+    public ShardedNagiosPassiveCheckSender(NagiosSettings settings) {
+        this(settings, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construct a new {@link ShardedNagiosPassiveCheckSender} with the
+     * provided {@link NagiosSettings}
+     *
+     * @param settings
+     *            the {@link NagiosSettings} to use to send the Passive Check
+     * @param shardCount
+     *            the number of shards
+     */
+    public ShardedNagiosPassiveCheckSender(NagiosSettings settings, int shardCount) {
+        Validate.isTrue(shardCount > 0, "shardCount must be greater than 0");
+        this.pool = new PooledNagiosPassiveCheckSender(settings, shardCount, DEFAULT_MAX_PACKETS_PER_SESSION, DEFAULT_MAX_IDLE_MILLIS);
+        this.shards = new SenderShards(pool, shardCount);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.googlecode.jsendnsca.sender.INagiosPassiveCheckSender#send(com.googlecode
+     * .jsendnsca.sender.MessagePayload)
+     */
+    public void send(MessagePayload payload) throws NagiosException, IOException {
+        shards.get(shardOf(Thread.currentThread(), shards.count())).send(payload);
+    }
+
+    /**
+     * The shard of a thread, thread ids are handed out in sequence so threads
+     * spread evenly across the shards
+     */
+    static int shardOf(Thread thread, int shardCount) {
+        return (int) ((thread.getId() & Long.MAX_VALUE) % shardCount);
+    }
+
+    /**
+     * The metrics of all the shards, a read only view summing the metrics of
+     * each shard and of the shared connections when read
+     *
+     * @return the {@link SenderMetrics}
+     */
+    public SenderMetrics getMetrics() {
+        return shards.getMetrics();
+    }
+
+    /**
+     * @see NonBlockingNagiosPassiveCheckSender#setTimeToLive(long, TimeUnit)
+     */
+    public void setTimeToLive(long timeToLive, TimeUnit unit) {
+        shards.setTimeToLive(timeToLive, unit);
+    }
+
+    /**
+     * @see NonBlockingNagiosPassiveCheckSender#setPriorityLanes(PriorityLanes)
+     */
+    public void setPriorityLanes(PriorityLanes priorityLanes) {
+        shards.setPriorityLanes(priorityLanes);
+    }
+
+    /**
+     * Queue the passive checks of each shard in direct memory of the given size
+     *
+     * @see NonBlockingNagiosPassiveCheckSender#setOffHeapQueue(int)
+     */
+    public void setOffHeapQueue(int capacityInBytes) {
+        shards.setOffHeapQueue(capacityInBytes);
+    }
+
+    /**
+     * @see NonBlockingNagiosPassiveCheckSender#setStormProtection(StormProtection)
+     */
+    public void setStormProtection(StormProtection stormProtection) {
+        shards.setStormProtection(stormProtection);
+    }
+
+    /**
+     * @see NonBlockingNagiosPassiveCheckSender#setSendFailureListener(SendFailureListener)
+     */
+    public void setSendFailureListener(SendFailureListener listener) {
+        shards.setSendFailureListener(listener);
+    }
+
+    /**
+     * @see NonBlockingNagiosPassiveCheckSender#setSpoolStore(SpoolStore)
+     */
+    public void setSpoolStore(SpoolStore spoolStore) {
+        shards.setSpoolStore(spoolStore);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.googlecode.jsendnsca.CloseablePassiveCheckSender#flush(long,
+     * java.util.concurrent.TimeUnit)
+     */
+    public DeliveryReport flush(long timeout, TimeUnit unit) throws InterruptedException {
+        return shards.flush(timeout, unit);
+    }
+
+    /**
+     * Close the shards and then the shared connections
+     */
+    public DeliveryReport close(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        final DeliveryReport report = shards.close(timeout, unit);
+        pool.close(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        return report;
+    }
+
+    /**
+     * Close waiting at most 10 seconds for the queued passive checks to be
+     * sent
+     */
+    public void close() {
+        try {
+            close(DEFAULT_CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Shutdown the worker threads of the shards at once, use
+     * {@link #close(long, TimeUnit)} to wait for the queued passive checks to
+     * be sent
+     */
+    public void shutdown() {
+        shards.shutdown();
+        pool.close();
+    }
+}
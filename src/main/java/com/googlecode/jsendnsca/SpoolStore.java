@@ -0,0 +1,45 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.io.IOException;
+
+/**
+ * Keeps the passive checks a sender could not send before closing, so they
+ * can be sent when the application starts again.
+ *
+ * @see FileSpoolStore
+ * @since 2.1
+ */
+public interface SpoolStore {
+
+    /**
+     * Store a passive check
+     *
+     * @param payload
+     *            the Passive Check message payload
+     * @throws IOException
+     *             thrown if the passive check cannot be stored
+     */
+    void spool(MessagePayload payload) throws IOException;
+
+    /**
+     * Make the passive checks stored so far durable, called once a sender has
+     * spooled all it is going to
+     *
+     * @throws IOException
+     *             thrown if the passive checks cannot be made durable
+     */
+    void flush() throws IOException;
+}
@@ -0,0 +1,278 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Limits the rate of passive checks per host and service, so a service
+ * repeating the same alert many times a second does not bury the passive
+ * checks of every other service in the queue of a sender.
+ * <p>
+ * Each host and service has a small token bucket. Passive checks over its
+ * rate are suppressed and counted, the next passive check let through for
+ * the service carries the count in its message, e.g. "disk full (12 further
+ * results suppressed)". A passive check whose level differs from the last
+ * one for its service is a state change and always let through.
+ * <p>
+ * The buckets are kept in fixed size arrays split into segments, with a
+ * service keyed by the hash codes of its host name and service name and the
+ * names compared on a match, so services with colliding hash codes never
+ * share a bucket. Services not seen for the idle time are forgotten, and when
+ * a segment is full the least recently seen of a few candidate services
+ * makes room.
+ * <p>
+ * Share one instance between senders for them to share the buckets. The
+ * settings cannot be changed once a passive check has been admitted.
+ *
+ * @since 2.1
+ */
+public class StormProtection {
+
+    private static final int SEGMENT_COUNT = 16;
+    private static final int PROBE_LIMIT = 8;
+    private static final byte EMPTY = 0;
+
+    private double resultsPerSecond = 1;
+    private int burst = 5;
+    private int maxServices = 64 * 1024;
+    private long idleNanos = TimeUnit.MINUTES.toNanos(10);
+    private volatile Segment[] segments;
+
+    /**
+     * Set the rate passive checks are let through per host and service, 1
+     * per second by default
+     *
+     * @param resultsPerSecond
+     *            the passive checks per second
+     * @return this {@link StormProtection}
+     */
+    public StormProtection withResultsPerSecond(double resultsPerSecond) {
+        Validate.isTrue(resultsPerSecond > 0, "resultsPerSecond must be greater than 0");
+        validateNotInUse();
+        this.resultsPerSecond = resultsPerSecond;
+        return this;
+    }
+
+    /**
+     * Set the number of passive checks a quiet service may send at once, 5 by
+     * default
+     *
+     * @param burst
+     *            the burst, at least 1
+     * @return this {@link StormProtection}
+     */
+    public StormProtection withBurst(int burst) {
+        Validate.isTrue(burst > 0, "burst must be greater than 0");
+        validateNotInUse();
+        this.burst = burst;
+        return this;
+    }
+
+    /**
+     * Set the number of services tracked, 65536 by default
+     *
+     * @param maxServices
+     *            the maximum number of services
+     * @return this {@link StormProtection}
+     */
+    public StormProtection withMaxServices(int maxServices) {
+        Validate.isTrue(maxServices >= SEGMENT_COUNT, "maxServices must be at least " + SEGMENT_COUNT);
+        validateNotInUse();
+        this.maxServices = maxServices;
+        return this;
+    }
+
+    /**
+     * Set the time after which a quiet service is forgotten, 10 minutes by
+     * default
+     *
+     * @param idle
+     *            the idle time
+     * @param unit
+     *            the {@link TimeUnit} of the idle time
+     * @return this {@link StormProtection}
+     */
+    public StormProtection withIdleTime(long idle, TimeUnit unit) {
+        Validate.isTrue(idle > 0, "idle must be greater than 0");
+        validateNotInUse();
+        this.idleNanos = unit.toNanos(idle);
+        return this;
+    }
+
+    /**
+     * Let a passive check through or suppress it
+     *
+     * @return null if suppressed, otherwise the passive check to send which
+     *         carries the count of passive checks suppressed before it
+     */
+    MessagePayload admit(MessagePayload payload) {
+        final int suppressed = admit(payload.getHostname(), payload.getServiceName(), payload.getLevel());
+        if (suppressed < 0) {
+            return null;
+        }
+        if (suppressed == 0) {
+            return payload;
+        }
+        final String message = String.format("%s (%d further results suppressed)", payload.getMessage(), suppressed);
+        if (payload.isHostCheck()) {
+            return MessagePayload.forHostCheck(payload.getHostname(), payload.getLevel(), message);
+        }
+        return new MessagePayload(payload.getHostname(), payload.getLevel(), payload.getServiceName(), message);
+    }
+
+    /**
+     * @return -1 if suppressed, otherwise the number of passive checks
+     *         suppressed since the last one let through
+     */
+    int admit(String hostname, String serviceName, Level level) {
+        final long key = ((long) hashCode(hostname) << 32) | (hashCode(serviceName) & 0xffffffffL);
+        final long mixed = key * 0x9e3779b97f4a7c15L;
+        final Segment segment = segments()[(int) (mixed >>> 60) & (SEGMENT_COUNT - 1)];
+        final byte state = (byte) ((level == null ? Level.UNKNOWN : level).ordinal() + 1);
+        synchronized (segment) {
+            return segment.admit(key, (int) mixed, hostname, serviceName, state, System.nanoTime());
+        }
+    }
+
+    private void validateNotInUse() {
+        Validate.isTrue(segments == null, "storm protection cannot be changed once in use");
+    }
+
+    private Segment[] segments() {
+        Segment[] current = segments;
+        if (current == null) {
+            synchronized (this) {
+                current = segments;
+                if (current == null) {
+                    final long nanosPerResult = (long) (1e9 / resultsPerSecond);
+                    current = new Segment[SEGMENT_COUNT];
+                    for (int i = 0; i < SEGMENT_COUNT; i++) {
+                        current[i] = new Segment(maxServices / SEGMENT_COUNT, nanosPerResult, burst * nanosPerResult, idleNanos);
+                    }
+                    segments = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private static int hashCode(String value) {
+        return value == null ? 0 : value.hashCode();
+    }
+
+    /**
+     * An open addressing table of buckets in parallel arrays
+     */
+    private static final class Segment {
+
+        private final int capacity;
+        private final long nanosPerResult;
+        private final long burstNanos;
+        private final long idleNanos;
+        private final long[] keys;
+        private final String[] hostnames;
+        private final String[] serviceNames;
+        private final long[] fullAt;
+        private final long[] lastSeen;
+        private final int[] suppressed;
+        private final byte[] states;
+
+        private Segment(int capacity, long nanosPerResult, long burstNanos, long idleNanos) {
+            this.capacity = capacity;
+            this.nanosPerResult = nanosPerResult;
+            this.burstNanos = burstNanos;
+            this.idleNanos = idleNanos;
+            this.keys = new long[capacity];
+            this.hostnames = new String[capacity];
+            this.serviceNames = new String[capacity];
+            this.fullAt = new long[capacity];
+            this.lastSeen = new long[capacity];
+            this.suppressed = new int[capacity];
+            this.states = new byte[capacity];
+        }
+
+        private int admit(long key, int hash, String hostname, String serviceName, byte state, long now) {
+            final int slot = slotOf(key, hash, hostname, serviceName, now);
+            if (states[slot] == EMPTY || !holds(slot, key, hostname, serviceName) || now - lastSeen[slot] > idleNanos) {
+                keys[slot] = key;
+                hostnames[slot] = hostname;
+                serviceNames[slot] = serviceName;
+                fullAt[slot] = now + nanosPerResult;
+                lastSeen[slot] = now;
+                suppressed[slot] = 0;
+                states[slot] = state;
+                return 0;
+            }
+
+            lastSeen[slot] = now;
+            final long next = Math.max(fullAt[slot], now) + nanosPerResult;
+            final boolean withinRate = next - now <= burstNanos;
+            if (withinRate || states[slot] != state) {
+                if (withinRate) {
+                    fullAt[slot] = next;
+                }
+                final int count = suppressed[slot];
+                suppressed[slot] = 0;
+                states[slot] = state;
+                return count;
+            }
+            if (suppressed[slot] < Integer.MAX_VALUE) {
+                suppressed[slot]++;
+            }
+            return -1;
+        }
+
+        /**
+         * The slot holding the key, else the first empty or idle slot of the
+         * probe window, else its least recently seen slot
+         */
+        private int slotOf(long key, int hash, String hostname, String serviceName, long now) {
+            final int start = (hash & Integer.MAX_VALUE) % capacity;
+            int free = -1;
+            int oldest = start;
+            for (int probe = 0; probe < PROBE_LIMIT; probe++) {
+                final int slot = (start + probe) % capacity;
+                if (states[slot] == EMPTY) {
+                    if (free < 0) {
+                        free = slot;
+                    }
+                    continue;
+                }
+                if (holds(slot, key, hostname, serviceName)) {
+                    return slot;
+                }
+                if (free < 0 && now - lastSeen[slot] > idleNanos) {
+                    free = slot;
+                }
+                if (lastSeen[slot] - lastSeen[oldest] < 0 || states[oldest] == EMPTY) {
+                    oldest = slot;
+                }
+            }
+            return free >= 0 ? free : oldest;
+        }
+
+        private boolean holds(int slot, long key, String hostname, String serviceName) {
+            return keys[slot] == key
+                && equal(hostnames[slot], hostname)
+                && equal(serviceNames[slot], serviceName);
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
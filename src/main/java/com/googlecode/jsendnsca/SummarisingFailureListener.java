@@ -0,0 +1,123 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import java.io.Flushable;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * The default {@link SendFailureListener}, which prints failures to a
+ * {@link PrintStream} without flooding it during an outage.
+ * <p>
+ * The first failure of each {@link FailureCause} in an interval is printed
+ * with its stack trace. Later failures of that cause in the interval are only
+ * counted, and the count is printed as a single summary line with the next
+ * failure of any cause once the interval has passed. The senders flush the
+ * summaries still pending when they are flushed or closed.
+ *
+ * @since 2.1
+ */
+public class SummarisingFailureListener implements SendFailureListener, Flushable {
+
+    private static final long DEFAULT_INTERVAL_SECONDS = 10;
+
+    private final PrintStream out;
+    private final long intervalNanos;
+    private final long[] intervalStarts = new long[FailureCause.values().length];
+    private final int[] suppressed = new int[FailureCause.values().length];
+    private final boolean[] started = new boolean[FailureCause.values().length];
+
+    /**
+     * Construct a new {@link SummarisingFailureListener} printing to standard
+     * error at most once every 10 seconds per cause
+     */
+    public SummarisingFailureListener() {
+        this(System.err, DEFAULT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Construct a new {@link SummarisingFailureListener}
+     *
+     * @param out
+     *            the stream to print failures to
+     * @param interval
+     *            the minimum time between printing failures of the same cause
+     * @param unit
+     *            the unit of the interval
+     */
+    public SummarisingFailureListener(PrintStream out, long interval, TimeUnit unit) {
+        Validate.notNull(out, "out cannot be null");
+        Validate.isTrue(interval >= 0, "interval cannot be negative");
+        Validate.notNull(unit, "unit cannot be null");
+        this.out = out;
+        this.intervalNanos = unit.toNanos(interval);
+    }
+
+    public void onFailure(MessagePayload payload, FailureCause cause, Exception exception) {
+        final StringBuilder summaries = new StringBuilder();
+        final boolean first;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            for (FailureCause elapsed : FailureCause.values()) {
+                if (started[elapsed.ordinal()] && now - intervalStarts[elapsed.ordinal()] >= intervalNanos) {
+                    started[elapsed.ordinal()] = false;
+                    summarise(elapsed, summaries);
+                }
+            }
+            final int index = cause.ordinal();
+            first = !started[index];
+            if (first) {
+                started[index] = true;
+                intervalStarts[index] = now;
+            } else {
+                suppressed[index]++;
+            }
+        }
+
+        out.print(summaries);
+        if (!first) {
+            return;
+        }
+        out.println(String.format("Failed to send passive check for host [%s] service [%s] with cause %s",
+                payload == null ? null : payload.getHostname(),
+                payload == null ? null : payload.getServiceName(), cause));
+        exception.printStackTrace(out);
+    }
+
+    /**
+     * Print the summaries of the failures counted so far without waiting for
+     * their interval to pass
+     */
+    public void flush() {
+        final StringBuilder summaries = new StringBuilder();
+        synchronized (this) {
+            for (FailureCause cause : FailureCause.values()) {
+                summarise(cause, summaries);
+            }
+        }
+        out.print(summaries);
+        out.flush();
+    }
+
+    private void summarise(FailureCause cause, StringBuilder summaries) {
+        final int index = cause.ordinal();
+        if (suppressed[index] > 0) {
+            summaries.append(String.format("%d further passive checks failed with cause %s%n", suppressed[index], cause));
+            suppressed[index] = 0;
+        }
+    }
+}
@@ -15,7 +15,11 @@ package com.googlecode.jsendnsca.builders;
 
 import static org.apache.commons.lang.StringUtils.EMPTY;
 
+import java.nio.charset.Charset;
+
+import com.googlecode.jsendnsca.AdaptiveTimeout;
 import com.googlecode.jsendnsca.NagiosSettings;
+import com.googlecode.jsendnsca.RateLimit;
 import com.googlecode.jsendnsca.encryption.Encryption;
 import com.googlecode.jsendnsca.encryption.Encryptor;
 
@@ -155,6 +159,45 @@ public class NagiosSettingsBuilder {
         return this;
     }
 
+    /**
+     * The next {@link NagiosSettings} created will use the specified
+     * {@link Charset} to encode passive checks
+     *
+     * @param charset
+     *            the {@link Charset} to use
+     * @return the {@link NagiosSettingsBuilder} instance
+     */
+    public NagiosSettingsBuilder withCharset(Charset charset) {
+        nagiosSettings.setCharset(charset);
+        return this;
+    }
+
+    /**
+     * The next {@link NagiosSettings} created will limit the rate passive
+     * checks are sent at
+     *
+     * @param rateLimit
+     *            the {@link RateLimit} to share between the senders
+     * @return the {@link NagiosSettingsBuilder} instance
+     */
+    public NagiosSettingsBuilder withRateLimit(RateLimit rateLimit) {
+        nagiosSettings.setRateLimit(rateLimit);
+        return this;
+    }
+
+    /**
+     * The next {@link NagiosSettings} created will adapt its timeouts to the
+     * latency of NSCA, with the configured timeouts as ceilings
+     *
+     * @param adaptiveTimeout
+     *            the {@link AdaptiveTimeout} to share between the senders
+     * @return the {@link NagiosSettingsBuilder} instance
+     */
+    public NagiosSettingsBuilder withAdaptiveTimeout(AdaptiveTimeout adaptiveTimeout) {
+        nagiosSettings.setAdaptiveTimeout(adaptiveTimeout);
+        return this;
+    }
+
     /**
      * The next {@link NagiosSettings} created will have large message support enabled,
      * see {@link com.googlecode.jsendnsca.NagiosSettings#enableLargeMessageSupport()}.
@@ -165,4 +208,15 @@ public class NagiosSettingsBuilder {
         nagiosSettings.enableLargeMessageSupport();
         return this;
     }
+
+    /**
+     * The next {@link NagiosSettings} created will have adaptive message support enabled,
+     * see {@link com.googlecode.jsendnsca.NagiosSettings#enableAdaptiveMessageSupport()}.
+     *
+     * @return the {@link NagiosSettingsBuilder} instance
+     */
+    public NagiosSettingsBuilder withAdaptiveMessageSupportEnabled() {
+        nagiosSettings.enableAdaptiveMessageSupport();
+        return this;
+    }
 }
@@ -0,0 +1,137 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca.cli;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Parses command line options of the form <code>--name value</code>,
+ * <code>--name=value</code> or <code>--flag</code>
+ */
+class CommandLine {
+
+    private final Map<String, String> values = new HashMap<String, String>();
+    private final Set<String> flags = new HashSet<String>();
+
+    /**
+     * @param args
+     *            the command line arguments
+     * @param flagNames
+     *            the options which take no value
+     * @throws IllegalArgumentException
+     *             if an argument is not an option or an option has no value
+     */
+    CommandLine(String[] args, String... flagNames) {
+        final Set<String> flagSet = new HashSet<String>();
+        for (String flagName : flagNames) {
+            flagSet.add(flagName);
+        }
+
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException(String.format("Unexpected argument [%s]", args[i]));
+            }
+            String name = args[i].substring(2);
+            String value = null;
+            if (name.contains("=")) {
+                value = StringUtils.substringAfter(name, "=");
+                name = StringUtils.substringBefore(name, "=");
+            }
+
+            if (flagSet.contains(name) && value == null) {
+                flags.add(name);
+            } else {
+                if (value == null) {
+                    if (i + 1 == args.length) {
+                        throw new IllegalArgumentException(String.format("Option [--%s] requires a value", name));
+                    }
+                    value = args[++i];
+                }
+                values.put(name, value);
+            }
+        }
+    }
+
+    /**
+     * @param valueNames
+     *            the options which take a value
+     * @throws IllegalArgumentException
+     *             if any other option with a value was given
+     */
+    void rejectUnknown(String... valueNames) {
+        final Set<String> known = new HashSet<String>();
+        for (String valueName : valueNames) {
+            known.add(valueName);
+        }
+        for (String name : values.keySet()) {
+            if (!known.contains(name)) {
+                throw new IllegalArgumentException(String.format("Unknown option [--%s]", name));
+            }
+        }
+    }
+
+    boolean hasFlag(String name) {
+        return flags.contains(name);
+    }
+
+    String getString(String name, String defaultValue) {
+        return values.containsKey(name) ? values.get(name) : defaultValue;
+    }
+
+    int getInt(String name, int defaultValue) {
+        return (int) getLong(name, defaultValue);
+    }
+
+    long getLong(String name, long defaultValue) {
+        final String value = values.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Option [--%s] must be a number, was [%s]", name, value));
+        }
+    }
+
+    double getDouble(String name, double defaultValue) {
+        final String value = values.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Option [--%s] must be a number, was [%s]", name, value));
+        }
+    }
+
+    <E extends Enum<E>> E getEnum(String name, Class<E> type, E defaultValue) {
+        final String value = values.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(type, value.toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Option [--%s] must be one of %s, was [%s]",
+                    name, StringUtils.join(type.getEnumConstants(), ','), value));
+        }
+    }
+}
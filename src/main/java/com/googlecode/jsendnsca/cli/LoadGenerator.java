@@ -0,0 +1,371 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca.cli;
+
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.lang.RandomStringUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+
+import com.googlecode.jsendnsca.FailureCause;
+import com.googlecode.jsendnsca.Level;
+import com.googlecode.jsendnsca.MessagePayload;
+import com.googlecode.jsendnsca.NagiosPassiveCheckSender;
+import com.googlecode.jsendnsca.NagiosSettings;
+import com.googlecode.jsendnsca.builders.NagiosSettingsBuilder;
+import com.googlecode.jsendnsca.encryption.Encryption;
+import com.googlecode.jsendnsca.metrics.LatencyHistogram;
+
+/**
+ * Generates synthetic passive check traffic to measure how many passive checks
+ * per second an NSCA server can take.
+ * <p>
+ * In closed loop mode each of the concurrent workers sends its next passive
+ * check as soon as the last one completes, which finds the maximum
+ * throughput. In open loop mode passive checks are started at a fixed rate
+ * whether or not earlier ones have completed, and latency is measured from
+ * when each was due to start so a slow server is not hidden by the generator
+ * slowing down with it.
+ * <p>
+ * Run without arguments to print the options.
+ *
+ * @since 2.1
+ */
+public class LoadGenerator {
+
+    /**
+     * How passive checks are paced
+     */
+    public enum Mode {
+        /**
+         * each worker sends back to back
+         */
+        CLOSED,
+        /**
+         * passive checks are started at a fixed rate
+         */
+        OPEN
+    }
+
+    static final String USAGE = StringUtils.join(new String[] {
+        "Usage: LoadGenerator [options]",
+        "  --host <host>              NSCA host, default localhost",
+        "  --port <port>              NSCA port, default 5667",
+        "  --password <password>      NSCA password",
+        "  --encryption <encryption>  one of " + Encryption.supportedList() + ", default NONE",
+        "  --timeout <ms>             response timeout, default 10000",
+        "  --connect-timeout <ms>     connection timeout, default 5000",
+        "  --mode <closed|open>       closed loop or open loop, default closed",
+        "  --rate <per second>        passive checks started per second in open loop mode",
+        "  --concurrency <n>          concurrent senders, default 4",
+        "  --duration <seconds>       default 10",
+        "  --hosts <n>                distinct host names, default 10",
+        "  --services <n>             distinct service names per host, default 10",
+        "  --message-size <n|min-max> message length, fixed or uniformly distributed, default 64",
+        "  --large-messages           enable large message support as in NSCA 2.9.1",
+        "  --quiet                    do not print progress every second"
+    }, '\n');
+
+    private static final int DEFAULT_PORT = 5667;
+
+    private final NagiosPassiveCheckSender sender;
+    private final Mode mode;
+    private final double rate;
+    private final int concurrency;
+    private final long durationNanos;
+    private final int hosts;
+    private final int services;
+    private final int minMessageSize;
+    private final int maxMessageSize;
+    private final String messageText;
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLongArray failures = new AtomicLongArray(FailureCause.values().length);
+    private long elapsedNanos;
+
+    LoadGenerator(NagiosSettings settings, Mode mode, double rate, int concurrency, long durationNanos,
+            int hosts, int services, int minMessageSize, int maxMessageSize) {
+        Validate.isTrue(mode == Mode.CLOSED || rate > 0, "open loop mode requires a rate greater than 0");
+        Validate.isTrue(concurrency > 0, "concurrency must be greater than 0");
+        Validate.isTrue(durationNanos > 0, "duration must be greater than 0");
+        Validate.isTrue(hosts > 0 && services > 0, "hosts and services must be greater than 0");
+        Validate.isTrue(minMessageSize >= 0 && minMessageSize <= maxMessageSize, "message size range is invalid");
+        Validate.isTrue(maxMessageSize < settings.getMaxMessageSizeInChars(),
+                "message size must be less than " + settings.getMaxMessageSizeInChars() + ", use --large-messages for larger messages");
+
+        this.sender = new NagiosPassiveCheckSender(settings);
+        this.mode = mode;
+        this.rate = rate;
+        this.concurrency = concurrency;
+        this.durationNanos = durationNanos;
+        this.hosts = hosts;
+        this.services = services;
+        this.minMessageSize = minMessageSize;
+        this.maxMessageSize = maxMessageSize;
+        this.messageText = RandomStringUtils.randomAlphanumeric(maxMessageSize);
+    }
+
+    /**
+     * Run the load generator
+     *
+     * @param args
+     *            the options, run without any to print them
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length == 0) {
+            System.out.println(USAGE);
+            return;
+        }
+
+        final LoadGenerator generator;
+        final CommandLine commandLine;
+        try {
+            commandLine = new CommandLine(args, "large-messages", "quiet");
+            generator = fromCommandLine(commandLine);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        generator.run(commandLine.hasFlag("quiet") ? null : System.out);
+        generator.printReport(System.out);
+    }
+
+    static LoadGenerator fromCommandLine(CommandLine commandLine) {
+        commandLine.rejectUnknown("host", "port", "password", "encryption", "timeout", "connect-timeout",
+                "mode", "rate", "concurrency", "duration", "hosts", "services", "message-size");
+
+        final NagiosSettingsBuilder settings = new NagiosSettingsBuilder()
+            .withNagiosHost(commandLine.getString("host", "localhost"))
+            .withPort(commandLine.getInt("port", DEFAULT_PORT))
+            .withEncryption(commandLine.getEnum("encryption", Encryption.class, Encryption.NONE))
+            .withResponseTimeout(commandLine.getInt("timeout", 10000))
+            .withConnectionTimeout(commandLine.getInt("connect-timeout", 5000));
+        final String password = commandLine.getString("password", null);
+        if (password != null) {
+            settings.withPassword(password);
+        }
+        if (commandLine.hasFlag("large-messages")) {
+            settings.withLargeMessageSupportEnabled();
+        }
+
+        final String messageSize = commandLine.getString("message-size", "64");
+        final int minMessageSize;
+        final int maxMessageSize;
+        try {
+            minMessageSize = Integer.parseInt(StringUtils.substringBefore(messageSize, "-"));
+            maxMessageSize = messageSize.contains("-") ? Integer.parseInt(StringUtils.substringAfter(messageSize, "-")) : minMessageSize;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Option [--message-size] must be a size or a range min-max, was [%s]", messageSize));
+        }
+
+        return new LoadGenerator(settings.create(),
+                commandLine.getEnum("mode", Mode.class, Mode.CLOSED),
+                commandLine.getDouble("rate", 0),
+                commandLine.getInt("concurrency", 4),
+                TimeUnit.SECONDS.toNanos(commandLine.getLong("duration", 10)),
+                commandLine.getInt("hosts", 10),
+                commandLine.getInt("services", 10),
+                minMessageSize,
+                maxMessageSize);
+    }
+
+    /**
+     * Generate load for the configured duration
+     *
+     * @param progress
+     *            where to print progress every second, null for none
+     */
+    void run(PrintStream progress) throws InterruptedException {
+        final long start = System.nanoTime();
+        final Thread progressReporter = progress == null ? null : startProgressReporter(progress, start);
+        try {
+            if (mode == Mode.CLOSED) {
+                runClosedLoop(start + durationNanos);
+            } else {
+                runOpenLoop(start, start + durationNanos);
+            }
+        } finally {
+            elapsedNanos = System.nanoTime() - start;
+            if (progressReporter != null) {
+                progressReporter.interrupt();
+            }
+        }
+    }
+
+    private void runClosedLoop(final long end) throws InterruptedException {
+        final Thread[] workers = new Thread[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            workers[i] = new Thread("load-generator-" + (i + 1)) {
+                @Override
+                public void run() {
+                    final Random random = new Random();
+                    long now = System.nanoTime();
+                    while (now < end) {
+                        send(nextPayload(random), now);
+                        now = System.nanoTime();
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    private void runOpenLoop(long start, long end) throws InterruptedException {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1024, concurrency * 16)));
+        final Random random = new Random();
+        final double intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        try {
+            for (long i = 0;; i++) {
+                final long due = start + (long) (i * intervalNanos);
+                if (due >= end) {
+                    break;
+                }
+                long wait = due - System.nanoTime();
+                while (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    wait = due - System.nanoTime();
+                }
+
+                final MessagePayload payload = nextPayload(random);
+                try {
+                    executor.execute(new Runnable() {
+                        public void run() {
+                            send(payload, due);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    dropped.incrementAndGet();
+                }
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private void send(MessagePayload payload, long startNanos) {
+        try {
+            sender.send(payload);
+            sent.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            failures.incrementAndGet(FailureCause.classify(e).ordinal());
+        }
+        latencies.record(System.nanoTime() - startNanos);
+    }
+
+    private MessagePayload nextPayload(Random random) {
+        final Level[] levels = Level.values();
+        final int messageSize = minMessageSize + random.nextInt(maxMessageSize - minMessageSize + 1);
+        return new MessagePayload(
+                "host-" + random.nextInt(hosts),
+                levels[random.nextInt(levels.length)],
+                "service-" + random.nextInt(services),
+                messageText.substring(0, messageSize));
+    }
+
+    private Thread startProgressReporter(final PrintStream progress, final long start) {
+        final Thread reporter = new Thread("load-generator-progress") {
+            @Override
+            public void run() {
+                long lastSent = 0;
+                try {
+                    while (true) {
+                        Thread.sleep(1000);
+                        final long nowSent = sent.get();
+                        progress.println(String.format("%5ds  %8d/s  sent %d  failed %d  dropped %d",
+                                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start),
+                                nowSent - lastSent, nowSent, failed.get(), dropped.get()));
+                        lastSent = nowSent;
+                    }
+                } catch (InterruptedException ignore) {
+                }
+            }
+        };
+        reporter.setDaemon(true);
+        reporter.start();
+        return reporter;
+    }
+
+    /**
+     * Print the achieved throughput, latency percentiles and failures
+     *
+     * @param out
+     *            where to print the report
+     */
+    void printReport(PrintStream out) {
+        final double seconds = elapsedNanos / 1e9;
+        out.println(String.format("%s loop, concurrency %d%s, %.1f s",
+                mode == Mode.CLOSED ? "Closed" : "Open", concurrency,
+                mode == Mode.OPEN ? String.format(", target %.1f/s", rate) : "", seconds));
+        out.println(String.format("Sent     %d (%.1f/s)", getSent(), getSent() / seconds));
+        out.println(String.format("Failed   %d", getFailed()));
+        out.println(String.format("Dropped  %d (generator fell behind)", getDropped()));
+        out.println(String.format("Latency  p50 %s  p90 %s  p99 %s  p99.9 %s  max %s ms",
+                millis(latencies.getPercentile(50)), millis(latencies.getPercentile(90)),
+                millis(latencies.getPercentile(99)), millis(latencies.getPercentile(99.9)),
+                millis(latencies.getMax())));
+        for (FailureCause cause : FailureCause.values()) {
+            if (getFailures(cause) > 0) {
+                out.println(String.format("  %-12s %d", cause, getFailures(cause)));
+            }
+        }
+    }
+
+    long getSent() {
+        return sent.get();
+    }
+
+    long getFailed() {
+        return failed.get();
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    long getFailures(FailureCause cause) {
+        return failures.get(cause.ordinal());
+    }
+
+    LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1e6);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca.cli;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads delimited records from a stream into a reused character buffer,
+ * splitting each into at most {@link #MAX_FIELDS} fields without creating a
+ * {@link String} for the record. A field is only turned into a
+ * {@link String} when asked for.
+ * <p>
+ * Records end at a new line or the record delimiter, a trailing carriage
+ * return is dropped. As in <code>send_nsca</code> the last field takes the
+ * remainder of the record including any further field delimiters.
+ */
+class RecordReader {
+
+    static final int MAX_FIELDS = 4;
+
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private final char fieldDelimiter;
+    private final char recordDelimiter;
+    private final int[] fieldStarts = new int[MAX_FIELDS];
+    private final int[] fieldEnds = new int[MAX_FIELDS];
+    private char[] buffer = new char[INITIAL_BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private int fieldCount;
+    private long lineNumber;
+    private boolean endOfStream;
+
+    /**
+     * @param reader
+     *            the records, read in chunks so need not be buffered
+     * @param fieldDelimiter
+     *            the character between fields
+     * @param recordDelimiter
+     *            the character ending a record as well as a new line
+     */
+    RecordReader(Reader reader, char fieldDelimiter, char recordDelimiter) {
+        this.reader = reader;
+        this.fieldDelimiter = fieldDelimiter;
+        this.recordDelimiter = recordDelimiter;
+    }
+
+    /**
+     * Read the next record, skipping blank ones
+     *
+     * @return false at the end of the stream
+     */
+    boolean next() throws IOException {
+        while (true) {
+            final int end = findRecordEnd();
+            if (end < 0) {
+                return false;
+            }
+            lineNumber++;
+            final int start = position;
+            position = end + 1;
+
+            int recordEnd = end;
+            if (recordEnd > start && buffer[recordEnd - 1] == '\r') {
+                recordEnd--;
+            }
+            if (recordEnd > start) {
+                split(start, recordEnd);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * The number of fields in the current record
+     */
+    int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * The number of the current record, counting from 1
+     */
+    long getLineNumber() {
+        return lineNumber;
+    }
+
+    String getField(int index) {
+        return new String(buffer, fieldStarts[index], fieldEnds[index] - fieldStarts[index]);
+    }
+
+    boolean isFieldEmpty(int index) {
+        return fieldEnds[index] == fieldStarts[index];
+    }
+
+    /**
+     * Parse a field as a non negative integer, surrounding spaces are ignored
+     *
+     * @return the value, -1 if the field is not a number
+     */
+    int getFieldAsInt(int index) {
+        int start = fieldStarts[index];
+        int end = fieldEnds[index];
+        while (start < end && buffer[start] == ' ') {
+            start++;
+        }
+        while (end > start && buffer[end - 1] == ' ') {
+            end--;
+        }
+        if (start == end || end - start > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            final char c = buffer[i];
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + c - '0';
+        }
+        return value;
+    }
+
+    private void split(int start, int end) {
+        fieldCount = 0;
+        int fieldStart = start;
+        for (int i = start; i < end && fieldCount < MAX_FIELDS - 1; i++) {
+            if (buffer[i] == fieldDelimiter) {
+                fieldStarts[fieldCount] = fieldStart;
+                fieldEnds[fieldCount] = i;
+                fieldCount++;
+                fieldStart = i + 1;
+            }
+        }
+        fieldStarts[fieldCount] = fieldStart;
+        fieldEnds[fieldCount] = end;
+        fieldCount++;
+    }
+
+    /**
+     * The index of the end of the next record, reading more of the stream as
+     * needed. The last record need not be terminated.
+     *
+     * @return the index of the terminating character, -1 at the end of the
+     *         stream
+     */
+    private int findRecordEnd() throws IOException {
+        // counted from the position as ensureSpace() may move the record
+        int scanned = 0;
+        while (true) {
+            for (int i = position + scanned; i < limit; i++) {
+                final char c = buffer[i];
+                if (c == '\n' || c == recordDelimiter) {
+                    return i;
+                }
+            }
+            scanned = limit - position;
+
+            if (endOfStream) {
+                if (position == limit) {
+                    return -1;
+                }
+                // terminate the last record in place
+                ensureSpace();
+                buffer[limit] = '\n';
+                return limit++;
+            }
+
+            ensureSpace();
+            final int count = reader.read(buffer, limit, buffer.length - limit);
+            if (count < 0) {
+                endOfStream = true;
+            } else {
+                limit += count;
+            }
+        }
+    }
+
+    /**
+     * Make room after the limit by moving the current record to the start of
+     * the buffer, growing the buffer only for a record longer than it
+     */
+    private void ensureSpace() {
+        if (limit < buffer.length) {
+            return;
+        }
+        final int length = limit - position;
+        if (position == 0) {
+            final char[] grown = new char[buffer.length * 2];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        } else {
+            System.arraycopy(buffer, position, buffer, 0, length);
+        }
+        position = 0;
+        limit = length;
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca.cli;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+
+import com.googlecode.jsendnsca.FailureCause;
+import com.googlecode.jsendnsca.Level;
+import com.googlecode.jsendnsca.MessagePayload;
+import com.googlecode.jsendnsca.NagiosConfigurationException;
+import com.googlecode.jsendnsca.NagiosSettings;
+import com.googlecode.jsendnsca.NagiosSettingsFactory;
+import com.googlecode.jsendnsca.PooledNagiosPassiveCheckSender;
+import com.googlecode.jsendnsca.encryption.Encryption;
+import com.googlecode.jsendnsca.utils.IOUtils;
+
+/**
+ * A replacement for the C <code>send_nsca</code> which reads passive checks
+ * from standard input or a file, one per line, and sends them to NSCA.
+ * <p>
+ * As with <code>send_nsca</code> a service check is
+ * <code>host[tab]service[tab]return code[tab]output</code> and a host check is
+ * <code>host[tab]return code[tab]output</code>. Records end at a new line or
+ * the ETB character, and are read and sent as they arrive so the input can be
+ * of any size. Passive checks are sent over a pool of connections, each
+ * carrying many of them.
+ * <p>
+ * Settings are read from a {@link NagiosSettingsFactory} properties file,
+ * which may instead use the <code>password</code> and
+ * <code>encryption_method</code> keys of <code>send_nsca.cfg</code>, and
+ * then overridden by the command line options. Every record which can't be
+ * parsed or sent is reported on standard error with its line number.
+ * <p>
+ * Run with <code>--help</code> to print the options.
+ *
+ * @since 2.1
+ */
+public class SendNsca {
+
+    static final String USAGE = StringUtils.join(new String[] {
+        "Usage: SendNsca -H <host> [-p <port>] [-to <timeout>] [-d <delim>] [-c <config_file>] [options]",
+        "  -H, --host <host>              NSCA host, default localhost",
+        "  -p, --port <port>              NSCA port, default 5667",
+        "  -to, --timeout <seconds>       connection and response timeout, default 10",
+        "  -d, --delimiter <delim>        field delimiter, default tab",
+        "  -c, --config <file>            NagiosSettingsFactory properties or send_nsca.cfg",
+        "  --record-delimiter <delim>     record delimiter as well as a new line, default ETB",
+        "  --input <file>                 read the passive checks from a file instead of standard input",
+        "  --password <password>          NSCA password",
+        "  --encryption <encryption>      one of " + Encryption.supportedList(),
+        "  --large-messages               enable large message support as in NSCA 2.9.1",
+        "  --sessions <n>                 connections to send over in parallel, more than 1 may",
+        "                                 reorder passive checks, default 1"
+    }, '\n');
+
+    static final int STATE_OK = 0;
+    static final int STATE_CRITICAL = 2;
+    static final int STATE_UNKNOWN = 3;
+
+    private static final String[][] SEND_NSCA_OPTIONS = {
+        {"-H", "--host"}, {"-p", "--port"}, {"-to", "--timeout"}, {"-d", "--delimiter"}, {"-c", "--config"}
+    };
+    private static final String LARGE_MESSAGES = "large-messages";
+    private static final char ETB = '\u0017';
+    private static final int HOST_CHECK_FIELDS = 3;
+    private static final int SERVICE_CHECK_FIELDS = 4;
+    private static final Level[] LEVELS = Level.values();
+
+    private final NagiosSettings settings;
+    private final PooledNagiosPassiveCheckSender sender;
+    private final char fieldDelimiter;
+    private final char recordDelimiter;
+    private final int sessions;
+    private final PrintStream errors;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    SendNsca(NagiosSettings settings, char fieldDelimiter, char recordDelimiter, int sessions, PrintStream errors) {
+        Validate.isTrue(sessions > 0, "sessions must be greater than 0");
+
+        this.settings = settings;
+        this.sender = new PooledNagiosPassiveCheckSender(settings, sessions, 1000, 5000);
+        this.fieldDelimiter = fieldDelimiter;
+        this.recordDelimiter = recordDelimiter;
+        this.sessions = sessions;
+        this.errors = errors;
+    }
+
+    /**
+     * Send the passive checks read from standard input or a file
+     *
+     * @param args
+     *            the command line arguments
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        System.exit(run(args, System.in, System.out, System.err));
+    }
+
+    static int run(String[] args, InputStream in, PrintStream out, PrintStream err) throws IOException, InterruptedException {
+        if (args.length > 0 && (args[0].equals("-h") || args[0].equals("--help"))) {
+            out.println(USAGE);
+            return STATE_UNKNOWN;
+        }
+
+        final SendNsca sendNsca;
+        final String input;
+        try {
+            final CommandLine commandLine = new CommandLine(translate(args), LARGE_MESSAGES);
+            sendNsca = fromCommandLine(commandLine, err);
+            input = commandLine.getString("input", null);
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return STATE_UNKNOWN;
+        } catch (NagiosConfigurationException e) {
+            err.println(e.getMessage());
+            return STATE_UNKNOWN;
+        }
+
+        final InputStream records = input == null ? in : new FileInputStream(input);
+        try {
+            sendNsca.sendAll(new InputStreamReader(records, sendNsca.settings.getCharset()));
+        } finally {
+            if (input != null) {
+                IOUtils.closeQuietly(records);
+            }
+        }
+        out.println(String.format("%d data packet(s) sent to host successfully.", sendNsca.getSent()));
+        return sendNsca.getFailed() == 0 ? STATE_OK : STATE_CRITICAL;
+    }
+
+    /**
+     * Rewrite the single dash options of <code>send_nsca</code> as the long
+     * options they stand for
+     */
+    static String[] translate(String[] args) {
+        final String[] translated = args.clone();
+        for (int i = 0; i < translated.length; i++) {
+            for (String[] option : SEND_NSCA_OPTIONS) {
+                if (translated[i].equals(option[0])) {
+                    translated[i] = option[1];
+                }
+            }
+            // skip the value, so a value such as -p is not taken for an option
+            if (translated[i].startsWith("--") && !translated[i].contains("=") && !translated[i].equals("--" + LARGE_MESSAGES)) {
+                i++;
+            }
+        }
+        return translated;
+    }
+
+    static SendNsca fromCommandLine(CommandLine commandLine, PrintStream errors) throws IOException, NagiosConfigurationException {
+        commandLine.rejectUnknown("host", "port", "timeout", "delimiter", "record-delimiter", "config", "input",
+                "password", "encryption", "sessions");
+
+        final String config = commandLine.getString("config", null);
+        final NagiosSettings settings = config == null ? new NagiosSettings() : loadSettings(config);
+        final String host = commandLine.getString("host", null);
+        if (host != null) {
+            settings.setNagiosHost(host);
+        }
+        settings.setPort(commandLine.getInt("port", settings.getPort()));
+        final long timeoutSeconds = commandLine.getLong("timeout", -1);
+        if (timeoutSeconds >= 0) {
+            settings.setTimeout((int) TimeUnit.SECONDS.toMillis(timeoutSeconds));
+            settings.setConnectTimeout((int) TimeUnit.SECONDS.toMillis(timeoutSeconds));
+        }
+        final String password = commandLine.getString("password", null);
+        if (password != null) {
+            settings.setPassword(password);
+        }
+        final Encryption encryption = commandLine.getEnum("encryption", Encryption.class, null);
+        if (encryption != null) {
+            settings.setEncryption(encryption);
+        }
+        if (commandLine.hasFlag(LARGE_MESSAGES)) {
+            settings.enableLargeMessageSupport();
+        }
+
+        return new SendNsca(settings,
+                toDelimiter("delimiter", commandLine.getString("delimiter", "\t")),
+                toDelimiter("record-delimiter", commandLine.getString("record-delimiter", String.valueOf(ETB))),
+                commandLine.getInt("sessions", 1),
+                errors);
+    }
+
+    /**
+     * Load a {@link NagiosSettingsFactory} properties file, also accepting the
+     * keys of <code>send_nsca.cfg</code>
+     */
+    static NagiosSettings loadSettings(String path) throws IOException, NagiosConfigurationException {
+        final Properties properties = new Properties();
+        final InputStream inputStream = new FileInputStream(path);
+        try {
+            properties.load(inputStream);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+
+        final NagiosSettings settings = NagiosSettingsFactory.createSettings(properties);
+        final String password = properties.getProperty("password");
+        if (StringUtils.isNotBlank(password)) {
+            settings.setPassword(password.trim());
+        }
+        final String encryptionMethod = properties.getProperty("encryption_method");
+        if (encryptionMethod != null) {
+            settings.setEncryption(toEncryption(encryptionMethod.trim()));
+        }
+        return settings;
+    }
+
+    /**
+     * The encryption for a <code>send_nsca.cfg</code> encryption method number
+     */
+    private static Encryption toEncryption(String encryptionMethod) throws NagiosConfigurationException {
+        if (encryptionMethod.equals("0")) {
+            return Encryption.NONE;
+        } else if (encryptionMethod.equals("1")) {
+            return Encryption.XOR;
+        } else if (encryptionMethod.equals("3")) {
+            return Encryption.TRIPLE_DES;
+        } else if (encryptionMethod.equals("14")) {
+            return Encryption.RIJNDAEL128;
+        } else if (encryptionMethod.equals("15")) {
+            return Encryption.RIJNDAEL192;
+        } else if (encryptionMethod.equals("16")) {
+            return Encryption.RIJNDAEL256;
+        }
+        throw new NagiosConfigurationException("Key [%s] must be one of [0,1,3,14,15,16], was [%s]", "encryption_method", encryptionMethod);
+    }
+
+    private static char toDelimiter(String name, String value) {
+        if (value.equals("\\t")) {
+            return '\t';
+        }
+        if (value.length() != 1) {
+            throw new IllegalArgumentException(String.format("Option [--%s] must be a single character, was [%s]", name, value));
+        }
+        return value.charAt(0);
+    }
+
+    /**
+     * Send every passive check read, closing the connections at the end
+     *
+     * @param reader
+     *            the records
+     */
+    void sendAll(Reader reader) throws IOException, InterruptedException {
+        final RecordReader records = new RecordReader(reader, fieldDelimiter, recordDelimiter);
+        final ThreadPoolExecutor executor = sessions == 1 ? null : new ThreadPoolExecutor(sessions, sessions, 0,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(sessions * 64), new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            while (records.next()) {
+                final long lineNumber = records.getLineNumber();
+                final MessagePayload payload = toPayload(records);
+                if (payload == null) {
+                    continue;
+                }
+                if (executor == null) {
+                    send(payload, lineNumber);
+                } else {
+                    executor.execute(new Runnable() {
+                        public void run() {
+                            send(payload, lineNumber);
+                        }
+                    });
+                }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            sender.close();
+        }
+    }
+
+    /**
+     * The passive check of the current record
+     *
+     * @return the payload, null if the record is invalid
+     */
+    private MessagePayload toPayload(RecordReader records) {
+        final int fieldCount = records.getFieldCount();
+        if (fieldCount < HOST_CHECK_FIELDS) {
+            return invalid(records, String.format("expected %d fields for a host check or %d for a service check, found %d",
+                    HOST_CHECK_FIELDS, SERVICE_CHECK_FIELDS, fieldCount));
+        }
+        if (records.isFieldEmpty(0)) {
+            return invalid(records, "host name cannot be empty");
+        }
+
+        final int levelField = fieldCount - 2;
+        final int returnCode = records.getFieldAsInt(levelField);
+        if (returnCode < 0 || returnCode >= LEVELS.length) {
+            return invalid(records, String.format("return code must be 0 to %d, was [%s]", LEVELS.length - 1, records.getField(levelField)));
+        }
+
+        if (fieldCount == HOST_CHECK_FIELDS) {
+            return MessagePayload.forHostCheck(records.getField(0), LEVELS[returnCode], records.getField(2));
+        }
+        if (records.isFieldEmpty(1)) {
+            return invalid(records, "service name cannot be empty");
+        }
+        return new MessagePayload(records.getField(0), LEVELS[returnCode], records.getField(1), records.getField(3));
+    }
+
+    private MessagePayload invalid(RecordReader records, String reason) {
+        failed.incrementAndGet();
+        errors.println(String.format("Line %d: %s", records.getLineNumber(), reason));
+        return null;
+    }
+
+    private void send(MessagePayload payload, long lineNumber) {
+        try {
+            sender.send(payload);
+            sent.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            errors.println(String.format("Line %d: failed with cause %s, %s", lineNumber, FailureCause.classify(e), e.getMessage()));
+        }
+    }
+
+    long getSent() {
+        return sent.get();
+    }
+
+    long getFailed() {
+        return failed.get();
+    }
+
+    PooledNagiosPassiveCheckSender getSender() {
+        return sender;
+    }
+}
@@ -1,12 +1,13 @@
 package com.googlecode.jsendnsca.encryption;
 
+import org.bouncycastle.crypto.BufferedBlockCipher;
 import org.bouncycastle.crypto.engines.RijndaelEngine;
 import org.bouncycastle.crypto.modes.CFBBlockCipher;
 import org.bouncycastle.crypto.paddings.*;
 import org.bouncycastle.crypto.params.*;
 
 
-public class AESEncryptor implements Encryptor {
+public class AESEncryptor implements SessionEncryptor {
 
     private int _keyByteLength;
 
@@ -38,4 +39,28 @@ public class AESEncryptor implements Encryptor {
             throw new RuntimeException(e);
         }
     }
+
+    public EncryptionSession startSession(byte[] initVector, String password) {
+        // CFB-8 has a one byte block, so nothing is held back between packets
+        final BufferedBlockCipher cipher = new BufferedBlockCipher(new CFBBlockCipher(new RijndaelEngine(_keyByteLength * 8), 8));
+
+        try {
+            byte[] sessionKey = new byte[_keyByteLength];
+            byte[] passwordBytes = password.getBytes("US-ASCII");
+            System.arraycopy(passwordBytes, 0, sessionKey, 0, Math.min(_keyByteLength, passwordBytes.length));
+
+            byte[] iv = new byte[_keyByteLength];
+            System.arraycopy(initVector, 0, iv, 0, Math.min(_keyByteLength, initVector.length));
+
+            cipher.init(true, new ParametersWithIV(new KeyParameter(sessionKey), iv));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        return new EncryptionSession() {
+            public void encrypt(byte[] passiveCheckBytes) {
+                cipher.processBytes(passiveCheckBytes, 0, passiveCheckBytes.length, passiveCheckBytes, 0);
+            }
+        };
+    }
 }
@@ -71,9 +71,16 @@ public enum Encryption {
     }
 
     private Encryptor none() {
-        return new Encryptor() {
+        return new SessionEncryptor() {
             public void encrypt(byte[] passiveCheckBytes, byte[] initVector, String password) {
             }
+
+            public EncryptionSession startSession(byte[] initVector, String password) {
+                return new EncryptionSession() {
+                    public void encrypt(byte[] passiveCheckBytes) {
+                    }
+                };
+            }
         };
     }
 }
@@ -0,0 +1,54 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca.encryption;
+
+/**
+ * An {@link Encryptor} which can encrypt many passive checks sent over one
+ * connection.
+ * <p>
+ * The NSCA daemon initialises its cipher once per connection, so with the CFB
+ * ciphers the state runs on from the end of one packet into the start of the
+ * next. Encryptors which do not implement this interface are only used for a
+ * single passive check per connection.
+ *
+ * @since 2.1
+ */
+public interface SessionEncryptor extends Encryptor {
+
+    /**
+     * Start encrypting the packets of a connection
+     *
+     * @param initVector
+     *            the init vector as sent by NSCA addon upon connection
+     * @param password
+     *            the NSCA daemon password
+     * @return the {@link EncryptionSession}, encrypting its first packet
+     *         exactly as {@link #encrypt(byte[], byte[], String)} would
+     */
+    EncryptionSession startSession(byte[] initVector, String password);
+
+    /**
+     * Encrypts the packets of one connection in the order they are written
+     */
+    interface EncryptionSession {
+
+        /**
+         * Encrypt the next passive check in place
+         *
+         * @param passiveCheckBytes
+         *            the passive check bytes
+         */
+        void encrypt(byte[] passiveCheckBytes);
+    }
+}
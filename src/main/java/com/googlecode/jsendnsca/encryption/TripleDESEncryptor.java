@@ -27,10 +27,11 @@ import javax.crypto.spec.SecretKeySpec;
  *
  * @author krisajenkins
  */
-public class TripleDESEncryptor implements Encryptor {
+public class TripleDESEncryptor implements SessionEncryptor {
 
     private static final String DES_ALGORITHM = "DESede";
     private static final String DES_TRANSFORMATION = "DESede/CFB8/PKCS5Padding";
+    private static final String DES_STREAM_TRANSFORMATION = "DESede/CFB8/NoPadding";
 
     /*
      * (non-Javadoc)
@@ -58,6 +59,34 @@ public class TripleDESEncryptor implements Encryptor {
         }
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.googlecode.jsendnsca.encryption.SessionEncryptor#startSession(byte[],
+     * java.lang.String)
+     */
+    public EncryptionSession startSession(byte[] initVector, String password) {
+        final SecretKey key = new SecretKeySpec(toFixedSizeByteArray(password.getBytes(), 24), DES_ALGORITHM);
+        final IvParameterSpec iv = new IvParameterSpec(toFixedSizeByteArray(initVector, 8));
+
+        try {
+            final Cipher cipher = Cipher.getInstance(DES_STREAM_TRANSFORMATION);
+            cipher.init(ENCRYPT_MODE, key, iv);
+            return new EncryptionSession() {
+                public void encrypt(byte[] passiveCheckBytes) {
+                    try {
+                        cipher.update(passiveCheckBytes, 0, passiveCheckBytes.length, passiveCheckBytes, 0);
+                    } catch (GeneralSecurityException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private byte[] toFixedSizeByteArray(byte[] source, int fixedLength) {
         byte[] result = new byte[fixedLength];
 
@@ -20,7 +20,7 @@ import static org.apache.commons.lang.StringUtils.*;
  * 
  * @author Raj Patel
  */
-public class XorEncryptor implements Encryptor {
+public class XorEncryptor implements SessionEncryptor {
 
     private static final int INITIALISATION_VECTOR_SIZE = 128;
 
@@ -49,4 +49,16 @@ public class XorEncryptor implements Encryptor {
             }
         }
     }
+
+    /**
+     * NSCA restarts XOR from the start of the initialisation vector and
+     * password for every packet, so each packet is encrypted on its own
+     */
+    public EncryptionSession startSession(final byte[] initVector, final String password) {
+        return new EncryptionSession() {
+            public void encrypt(byte[] passiveCheckBytes) {
+                XorEncryptor.this.encrypt(passiveCheckBytes, initVector, password);
+            }
+        };
+    }
 }
\ No newline at end of file
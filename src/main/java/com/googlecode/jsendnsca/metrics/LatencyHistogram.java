@@ -0,0 +1,167 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * A lock free histogram of latencies in nanoseconds.
+ * <p>
+ * Values are counted in log-linear buckets, each power of two range is split
+ * into 32 buckets so percentiles are accurate to within about 3%. Recording
+ * increments the bucket, count and total atomically and raises the maximum
+ * with a compare and set, without locking, so it is cheap enough to leave on
+ * in production. Latencies of more than about two minutes are counted in an
+ * overflow bucket, and a percentile falling in it is reported as the maximum
+ * recorded.
+ *
+ * @since 2.1
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 36;
+    private static final int OVERFLOW_INDEX = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+    private static final int BUCKET_COUNT = OVERFLOW_INDEX + 1;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a latency
+     *
+     * @param nanos
+     *            the latency in nanoseconds, negative values are counted as 0
+     */
+    public void record(long nanos) {
+        final long value = Math.max(nanos, 0L);
+        buckets.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        updateMax(value);
+    }
+
+    private void updateMax(long value) {
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Add the latencies recorded by another histogram to this one
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            final long bucket = other.buckets.get(i);
+            if (bucket != 0) {
+                buckets.addAndGet(i, bucket);
+            }
+        }
+        count.addAndGet(other.count.get());
+        total.addAndGet(other.total.get());
+        updateMax(other.max.get());
+    }
+
+    /**
+     * The number of latencies recorded
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * The largest latency recorded
+     *
+     * @return the maximum in nanoseconds, 0 if none recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * The mean of the latencies recorded
+     *
+     * @return the mean in nanoseconds, 0 if none recorded
+     */
+    public long getMean() {
+        final long snapshotCount = count.get();
+        return snapshotCount == 0 ? 0 : total.get() / snapshotCount;
+    }
+
+    /**
+     * The latency at or below which the given percentage of latencies fall
+     *
+     * @param percentile
+     *            the percentile between 0 and 100 e.g. 99.9
+     * @return the upper bound of the bucket holding the percentile in
+     *         nanoseconds, 0 if none recorded
+     */
+    public long getPercentile(double percentile) {
+        Validate.isTrue(percentile >= 0 && percentile <= 100, "percentile must be between 0 and 100 inclusive");
+
+        final long[] snapshot = new long[BUCKET_COUNT];
+        long snapshotCount = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = buckets.get(i);
+            snapshotCount += snapshot[i];
+        }
+        if (snapshotCount == 0) {
+            return 0;
+        }
+
+        final long target = Math.max(1L, (long) Math.ceil(percentile / 100 * snapshotCount));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulative += snapshot[i];
+            if (cumulative >= target) {
+                return Math.min(upperBoundOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        if (exponent == MAX_EXPONENT && value >>> MAX_EXPONENT > 1) {
+            return OVERFLOW_INDEX;
+        }
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long upperBoundOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        if (index == OVERFLOW_INDEX) {
+            return Long.MAX_VALUE;
+        }
+        final int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        final int subBucket = index % SUB_BUCKET_COUNT;
+        final long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((long) (SUB_BUCKET_COUNT + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Counters, gauges and latency histograms of a sender, readable directly or
+ * through JMX once registered with {@link #register(String)}.
+ * <p>
+ * All recording is lock free. A single instance can be shared between
+ * senders to aggregate their metrics, though senders recording from many
+ * threads at once are better given an instance each and read through
+ * {@link #aggregate(SenderMetrics...)}.
+ *
+ * @since 2.1
+ */
+public class SenderMetrics implements SenderMetricsMXBean {
+
+    /**
+     * The timed phases of sending a passive check
+     */
+    public enum Phase {
+        /**
+         * opening the TCP connection to NSCA
+         */
+        CONNECT,
+        /**
+         * reading the initialisation vector and timestamp sent by NSCA
+         */
+        IV_READ,
+        /**
+         * encoding the payload into the packet
+         */
+        ENCODE,
+        /**
+         * writing the CRC and encrypting the packet
+         */
+        ENCRYPT,
+        /**
+         * writing the packet to NSCA
+         */
+        WRITE
+    }
+
+    private static final String OBJECT_NAME_PREFIX = "com.googlecode.jsendnsca:type=SenderMetrics,name=";
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger inFlightConnections = new AtomicInteger();
+    private final Map<Phase, LatencyHistogram> latencies = new EnumMap<Phase, LatencyHistogram>(Phase.class);
+    private ObjectName objectName;
+
+    /**
+     * Construct a new {@link SenderMetrics} with all counters at zero
+     */
+    public SenderMetrics() {
+        for (Phase phase : Phase.values()) {
+            latencies.put(phase, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * A read only view of the sum of the given metrics, summed each time it is
+     * read so the senders recording into them do not contend with each other
+     *
+     * @param parts
+     *            the metrics to sum
+     * @return the aggregate {@link SenderMetrics}, recording into it throws
+     *         {@link UnsupportedOperationException}
+     */
+    public static SenderMetrics aggregate(SenderMetrics... parts) {
+        Validate.notEmpty(parts, "parts cannot be empty");
+        Validate.noNullElements(parts, "parts cannot contain null");
+        return new Aggregate(parts.clone());
+    }
+
+    /**
+     * Count a passive check sent
+     */
+    public void recordSent() {
+        sent.incrementAndGet();
+    }
+
+    /**
+     * Count a passive check which failed to send
+     */
+    public void recordFailed() {
+        failed.incrementAndGet();
+    }
+
+    /**
+     * Count a passive check dropped without an attempt to send it
+     */
+    public void recordDropped() {
+        dropped.incrementAndGet();
+    }
+
+    /**
+     * Count a passive check sent again after a failed send
+     */
+    public void recordRetried() {
+        retried.incrementAndGet();
+    }
+
+    /**
+     * Count a queued passive check discarded because its time to live passed
+     */
+    public void recordExpired() {
+        expired.incrementAndGet();
+    }
+
+    /**
+     * Count a passive check suppressed by storm protection
+     */
+    public void recordSuppressed() {
+        suppressed.incrementAndGet();
+    }
+
+    /**
+     * Record the latency of a phase
+     *
+     * @param phase
+     *            the phase
+     * @param nanos
+     *            the latency in nanoseconds
+     */
+    public void record(Phase phase, long nanos) {
+        latencies.get(phase).record(nanos);
+    }
+
+    /**
+     * Record a passive check queued to be sent
+     */
+    public void queued() {
+        queueDepth.incrementAndGet();
+    }
+
+    /**
+     * Record a queued passive check leaving the queue, sent or not
+     */
+    public void dequeued() {
+        queueDepth.decrementAndGet();
+    }
+
+    /**
+     * Record a connection to NSCA opened
+     */
+    public void connectionOpened() {
+        inFlightConnections.incrementAndGet();
+    }
+
+    /**
+     * Record a connection to NSCA closed
+     */
+    public void connectionClosed() {
+        inFlightConnections.decrementAndGet();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getRetried() {
+        return retried.get();
+    }
+
+    public long getExpired() {
+        return expired.get();
+    }
+
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public int getInFlightConnections() {
+        return inFlightConnections.get();
+    }
+
+    /**
+     * The latency histogram of a phase
+     *
+     * @param phase
+     *            the phase
+     * @return the histogram in nanoseconds
+     */
+    public LatencyHistogram getLatency(Phase phase) {
+        return latencies.get(phase);
+    }
+
+    public Map<String, Long> getLatencyMicros() {
+        final Map<String, Long> latencyMicros = new LinkedHashMap<String, Long>();
+        for (Phase phase : Phase.values()) {
+            final LatencyHistogram histogram = getLatency(phase);
+            final String name = phase.name().toLowerCase();
+            latencyMicros.put(name + ".p50", toMicros(histogram.getPercentile(50)));
+            latencyMicros.put(name + ".p99", toMicros(histogram.getPercentile(99)));
+            latencyMicros.put(name + ".p999", toMicros(histogram.getPercentile(99.9)));
+            latencyMicros.put(name + ".max", toMicros(histogram.getMax()));
+        }
+        return latencyMicros;
+    }
+
+    /**
+     * Register with the platform MBean server as
+     * <code>com.googlecode.jsendnsca:type=SenderMetrics,name=&lt;name&gt;</code>
+     *
+     * @param name
+     *            the name distinguishing this sender's metrics
+     * @throws JMException
+     *             thrown if the MBean could not be registered
+     */
+    public synchronized void register(String name) throws JMException {
+        final ObjectName newObjectName = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, newObjectName);
+        objectName = newObjectName;
+    }
+
+    /**
+     * Unregister from the platform MBean server if registered
+     *
+     * @throws JMException
+     *             thrown if the MBean could not be unregistered
+     */
+    public synchronized void unregister() throws JMException {
+        if (objectName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            objectName = null;
+        }
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static final class Aggregate extends SenderMetrics {
+
+        private final SenderMetrics[] parts;
+
+        Aggregate(SenderMetrics[] parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        public void recordSent() {
+            throw readOnly();
+        }
+
+        @Override
+        public void recordFailed() {
+            throw readOnly();
+        }
+
+        @Override
+        public void recordDropped() {
+            throw readOnly();
+        }
+
+        @Override
+        public void recordRetried() {
+            throw readOnly();
+        }
+
+        @Override
+        public void recordExpired() {
+            throw readOnly();
+        }
+
+        @Override
+        public void recordSuppressed() {
+            throw readOnly();
+        }
+
+        @Override
+        public void record(Phase phase, long nanos) {
+            throw readOnly();
+        }
+
+        @Override
+        public void queued() {
+            throw readOnly();
+        }
+
+        @Override
+        public void dequeued() {
+            throw readOnly();
+        }
+
+        @Override
+        public void connectionOpened() {
+            throw readOnly();
+        }
+
+        @Override
+        public void connectionClosed() {
+            throw readOnly();
+        }
+
+        @Override
+        public long getSent() {
+            long sum = 0;
+            for (SenderMetrics part : parts) {
+                sum += part.getSent();
+            }
+            return sum;
+        }
+
+        @Override
+        public long getFailed() {
+            long sum = 0;
+            for (SenderMetrics part : parts) {
+                sum += part.getFailed();
+            }
+            return sum;
+        }
+
+        @Override
+        public long getDropped() {
+            long sum = 0;
+            for (SenderMetrics part : parts) {
+                sum += part.getDropped();
+            }
+            return sum;
+        }
+
+        @Override
+        public long getRetried() {
+            long sum = 0;
+            for (SenderMetrics part : parts) {
+                sum += part.getRetried();
+            }
+            return sum;
+        }
+
+        @Override
+        public long getExpired() {
+            long sum = 0;
+            for (SenderMetrics part : parts) {
+                sum += part.getExpired();
+            }
+            return sum;
+        }
+
+        @Override
+        public long getSuppressed() {
+            long sum = 0;
+            for (SenderMetrics part : parts) {
+                sum += part.getSuppressed();
+            }
+            return sum;
+        }
+
+        @Override
+        public int getQueueDepth() {
+            int sum = 0;
+            for (SenderMetrics part : parts) {
+                sum += part.getQueueDepth();
+            }
+            return sum;
+        }
+
+        @Override
+        public int getInFlightConnections() {
+            int sum = 0;
+            for (SenderMetrics part : parts) {
+                sum += part.getInFlightConnections();
+            }
+            return sum;
+        }
+
+        /**
+         * A copy of the latencies of all the parts, taken when called
+         */
+        @Override
+        public LatencyHistogram getLatency(Phase phase) {
+            final LatencyHistogram sum = new LatencyHistogram();
+            for (SenderMetrics part : parts) {
+                sum.add(part.getLatency(phase));
+            }
+            return sum;
+        }
+
+        private static UnsupportedOperationException readOnly() {
+            return new UnsupportedOperationException("aggregated metrics are read only");
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link SenderMetrics}
+ *
+ * @since 2.1
+ */
+public interface SenderMetricsMXBean {
+
+    /**
+     * @return the number of passive checks sent
+     */
+    long getSent();
+
+    /**
+     * @return the number of passive checks which failed to send
+     */
+    long getFailed();
+
+    /**
+     * @return the number of passive checks dropped without an attempt to send
+     */
+    long getDropped();
+
+    /**
+     * @return the number of passive checks sent again after a failed send,
+     *         e.g. to the secondary of a hedged sender after the primary
+     *         failed
+     */
+    long getRetried();
+
+    /**
+     * @return the number of queued passive checks discarded because their
+     *         time to live passed
+     */
+    long getExpired();
+
+    /**
+     * @return the number of passive checks suppressed by storm protection
+     */
+    long getSuppressed();
+
+    /**
+     * @return the number of passive checks queued and not yet sent
+     */
+    int getQueueDepth();
+
+    /**
+     * @return the number of connections to NSCA currently open
+     */
+    int getInFlightConnections();
+
+    /**
+     * @return the 50th, 99th and 99.9th percentile and maximum latency of each
+     *         phase in microseconds, keyed by phase and statistic e.g.
+     *         <code>connect.p99</code>
+     */
+    Map<String, Long> getLatencyMicros();
+}
@@ -13,7 +13,7 @@
  */
 package com.googlecode.jsendnsca.utils;
 
-import org.apache.commons.lang.StringUtils;
+import java.nio.charset.Charset;
 
 /**
  * Utility methods for writing to a byte array
@@ -28,8 +28,8 @@ public class ByteArrayUtils {
     }
 
     /**
-     * Creates a fixed size byte array, populates it with contents of a String
-     * and writes this to a destination byte array
+     * Writes the contents of a String encoded with the platform default
+     * charset into a fixed size field of a destination byte array
      * 
      * @param dest
      *            the destination byte array
@@ -39,9 +39,33 @@ public class ByteArrayUtils {
      *            the offset to write to in the destination array
      * @param fixedSize
      *            the size of the byte array to place the {@link String} into
+     * @return the number of bytes of the {@link String} written, the remainder
+     *         of the fixed size is zero filled
      */
-    public static void writeFixedString(byte[] dest, String value, int offset, int fixedSize) {
-        System.arraycopy(getFixedSizeBytes(fixedSize, value), 0, dest, offset, fixedSize);
+    public static int writeFixedString(byte[] dest, String value, int offset, int fixedSize) {
+        return writeFixedString(dest, value, offset, fixedSize, Charset.defaultCharset());
+    }
+
+    /**
+     * Writes the contents of a String into a fixed size field of a destination
+     * byte array, truncating on a character boundary if it does not fit
+     * 
+     * @param dest
+     *            the destination byte array
+     * @param value
+     *            the {@link String} value
+     * @param offset
+     *            the offset to write to in the destination array
+     * @param fixedSize
+     *            the size of the byte array to place the {@link String} into
+     * @param charset
+     *            the {@link Charset} to encode the {@link String} with
+     * @return the number of bytes of the {@link String} written, the remainder
+     *         of the fixed size is zero filled
+     * @see FixedStringEncoder
+     */
+    public static int writeFixedString(byte[] dest, String value, int offset, int fixedSize, Charset charset) {
+        return FixedStringEncoder.forCharset(charset).encode(dest, value, offset, fixedSize);
     }
 
     /**
@@ -86,16 +110,9 @@ public class ByteArrayUtils {
     public static byte[] getFixedSizeBytes(int fixedSize, String value) {
         if (value == null)
             return null;
-        if (StringUtils.isBlank(value))
-            return new byte[fixedSize];
 
         final byte[] myBytes = new byte[fixedSize];
-
-        if (value.length() > fixedSize) {
-            value = value.substring(0, fixedSize);
-        }
-
-        System.arraycopy(value.getBytes(), 0, myBytes, 0, value.getBytes().length);
+        writeFixedString(myBytes, value, 0, fixedSize);
         return myBytes;
     }
 
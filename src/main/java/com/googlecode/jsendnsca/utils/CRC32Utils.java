@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca.utils;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Utility methods for CRC-32 checksums as calculated by
+ * {@link java.util.zip.CRC32}
+ * <p>
+ * Appending zero bytes to a message is a linear operation on the CRC-32
+ * register, so the checksum of a message followed by a run of zeros can be
+ * derived from the checksum of the message alone. This is the technique used
+ * by zlib's <code>crc32_combine</code> and costs O(log n) in the length of the
+ * zero run instead of O(n).
+ *
+ * @since 2.1
+ */
+public class CRC32Utils {
+
+    private static final int CRC32_POLYNOMIAL = 0xedb88320;
+    private static final int GF2_DIM = 32;
+
+    /**
+     * ZERO_BYTE_OPERATORS[n] applies 2^n zero bytes to a CRC-32 register,
+     * enough to cover any zero run which fits in an int
+     */
+    private static final int[][] ZERO_BYTE_OPERATORS = zeroByteOperators(31);
+
+    private CRC32Utils() {
+        // private constructor as only supports static methods
+    }
+
+    /**
+     * Extend a CRC-32 checksum over a run of zero bytes
+     *
+     * @param crc
+     *            the CRC-32 checksum of the preceding bytes
+     * @param zeroCount
+     *            the number of zero bytes following them
+     * @return the CRC-32 checksum of the preceding bytes followed by the zero
+     *         bytes
+     */
+    public static int extendWithZeros(int crc, int zeroCount) {
+        Validate.isTrue(zeroCount >= 0, "zeroCount cannot be negative");
+
+        int register = ~crc;
+        for (int n = 0; zeroCount != 0; n++, zeroCount >>>= 1) {
+            if ((zeroCount & 1) != 0) {
+                register = times(ZERO_BYTE_OPERATORS[n], register);
+            }
+        }
+        return ~register;
+    }
+
+    private static int[][] zeroByteOperators(int count) {
+        final int[][] operators = new int[count][];
+
+        // operator for a single zero bit
+        int[] operator = new int[GF2_DIM];
+        operator[0] = CRC32_POLYNOMIAL;
+        for (int n = 1; n < GF2_DIM; n++) {
+            operator[n] = 1 << (n - 1);
+        }
+
+        // square three times to get the operator for a single zero byte
+        for (int n = 0; n < 3; n++) {
+            operator = square(operator);
+        }
+
+        operators[0] = operator;
+        for (int n = 1; n < count; n++) {
+            operators[n] = square(operators[n - 1]);
+        }
+        return operators;
+    }
+
+    private static int times(int[] matrix, int vector) {
+        int sum = 0;
+        for (int n = 0; vector != 0; n++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[n];
+            }
+        }
+        return sum;
+    }
+
+    private static int[] square(int[] matrix) {
+        final int[] square = new int[GF2_DIM];
+        for (int n = 0; n < GF2_DIM; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+        return square;
+    }
+}
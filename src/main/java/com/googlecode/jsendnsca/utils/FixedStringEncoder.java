@@ -0,0 +1,171 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Encodes a {@link String} straight into a fixed size field of a byte array
+ * in a single pass, truncating on a character boundary so a multi byte
+ * character is never split.
+ * <p>
+ * Characters below 0x80 (or 0x100 for ISO-8859-1) are written directly, only
+ * the remainder of a string containing other characters goes through the
+ * {@link CharsetEncoder}. Unmappable characters are replaced as by
+ * {@link String#getBytes(Charset)}.
+ * <p>
+ * Instances are not thread safe, use {@link #forCharset(Charset)} to get the
+ * encoder of the calling thread.
+ *
+ * @since 2.1
+ */
+public class FixedStringEncoder {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ThreadLocal<Map<Charset, FixedStringEncoder>> ENCODERS = new ThreadLocal<Map<Charset, FixedStringEncoder>>() {
+        @Override
+        protected Map<Charset, FixedStringEncoder> initialValue() {
+            return new HashMap<Charset, FixedStringEncoder>();
+        }
+    };
+
+    private final Charset charset;
+    private final CharsetEncoder encoder;
+    private final char directLimit;
+    private boolean truncated;
+
+    /**
+     * Construct a new {@link FixedStringEncoder}
+     *
+     * @param charset
+     *            the {@link Charset} to encode with
+     */
+    public FixedStringEncoder(Charset charset) {
+        this.charset = charset;
+        this.encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.directLimit = directLimit(charset);
+    }
+
+    /**
+     * The {@link FixedStringEncoder} of the calling thread for a
+     * {@link Charset}
+     *
+     * @param charset
+     *            the {@link Charset} to encode with
+     * @return the encoder, reused by later calls for the same charset on this
+     *         thread whichever other charsets it encodes with in between
+     */
+    public static FixedStringEncoder forCharset(Charset charset) {
+        final Map<Charset, FixedStringEncoder> encoders = ENCODERS.get();
+        FixedStringEncoder encoder = encoders.get(charset);
+        if (encoder == null) {
+            encoder = new FixedStringEncoder(charset);
+            encoders.put(charset, encoder);
+        }
+        return encoder;
+    }
+
+    /**
+     * Encode a {@link String} into a fixed size field, the remainder of the
+     * field is zero filled
+     *
+     * @param dest
+     *            the destination byte array
+     * @param value
+     *            the {@link String} value, null or blank leaves the field zero
+     *            filled
+     * @param offset
+     *            the offset of the field in the destination array
+     * @param fixedSize
+     *            the size of the field
+     * @return the number of bytes written
+     */
+    public int encode(byte[] dest, String value, int offset, int fixedSize) {
+        truncated = false;
+        if (StringUtils.isBlank(value)) {
+            Arrays.fill(dest, offset, offset + fixedSize, (byte) 0);
+            return 0;
+        }
+
+        final int length = value.length();
+        final int directLength = Math.min(length, fixedSize);
+        int written = 0;
+        while (written < directLength) {
+            final char c = value.charAt(written);
+            if (c >= directLimit) {
+                break;
+            }
+            dest[offset + written] = (byte) c;
+            written++;
+        }
+
+        if (written < length) {
+            if (written == fixedSize) {
+                truncated = true;
+            } else {
+                written += encodeRemainder(dest, value, written, offset + written, fixedSize - written);
+            }
+        }
+
+        Arrays.fill(dest, offset + written, offset + fixedSize, (byte) 0);
+        return written;
+    }
+
+    /**
+     * Whether the last value encoded had to be truncated to fit the field
+     *
+     * @return true if truncated
+     */
+    public boolean wasTruncated() {
+        return truncated;
+    }
+
+    private int encodeRemainder(byte[] dest, String value, int start, int offset, int size) {
+        final CharBuffer in = CharBuffer.wrap(value, start, value.length());
+        final ByteBuffer out = ByteBuffer.wrap(dest, offset, size);
+
+        encoder.reset();
+        CoderResult result = encoder.encode(in, out, true);
+        if (result.isUnderflow()) {
+            result = encoder.flush(out);
+        }
+        truncated = result.isOverflow();
+        return out.position() - offset;
+    }
+
+    private static char directLimit(Charset charset) {
+        if (ISO_8859_1.equals(charset)) {
+            return 0x100;
+        }
+        if (US_ASCII.equals(charset) || UTF_8.equals(charset)) {
+            return 0x80;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import com.googlecode.jsendnsca.encryption.Encryption;
+import com.googlecode.jsendnsca.encryption.Encryptor;
+
+/**
+ * A Java Flight Recorder event timing a phase of sending a passive check.
+ * <p>
+ * Each {@link SendEventType} is a JFR event type of its own, named
+ * <code>com.googlecode.jsendnsca.*</code> in the JSend NSCA category. When an
+ * event type is not enabled in a recording {@link #begin(SendEventType)}
+ * returns a shared instance and nothing is allocated.
+ * <p>
+ * A runtime may leave out the <code>jdk.jfr</code> module, e.g. one built by
+ * jlink or an OSGi framework not exporting it. Whether JFR can be loaded is
+ * checked once, without it every event is the shared instance recording
+ * nothing, as on Java runtimes before 11.
+ */
+class SendEvent {
+
+    private static final SendEvent DISABLED = new SendEvent();
+    private static final boolean JFR_AVAILABLE = jfrAvailable();
+
+    SendEvent() {
+    }
+
+    static SendEvent begin(SendEventType type) {
+        return JFR_AVAILABLE ? Recorded.begin(type) : DISABLED;
+    }
+
+    void commit(NagiosSettings nagiosSettings, int packetSize) {
+    }
+
+    void commit(NagiosSettings nagiosSettings, int packetSize, long startNanos) {
+    }
+
+    /**
+     * Load the JFR event types, only referenced once the <code>jdk.jfr</code>
+     * module is known to be there
+     */
+    private static boolean jfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, SendEvent.class.getClassLoader());
+            return Recorded.EVENT_TYPES.length == SendEventType.values().length;
+        } catch (ClassNotFoundException e) {
+            return false;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * An event of a type enabled in a recording
+     */
+    private static final class Recorded extends SendEvent {
+
+        static final EventType[] EVENT_TYPES = {
+            EventType.getEventType(QueueWaitEvent.class),
+            EventType.getEventType(EncodeEvent.class),
+            EventType.getEventType(ConnectEvent.class),
+            EventType.getEventType(HandshakeEvent.class),
+            EventType.getEventType(EncryptEvent.class),
+            EventType.getEventType(WriteEvent.class)
+        };
+
+        private final NscaEvent event;
+
+        private Recorded(NscaEvent event) {
+            this.event = event;
+        }
+
+        static SendEvent begin(SendEventType type) {
+            if (!EVENT_TYPES[type.ordinal()].isEnabled()) {
+                return DISABLED;
+            }
+            final NscaEvent event = newEvent(type);
+            event.begin();
+            return new Recorded(event);
+        }
+
+        @Override
+        void commit(NagiosSettings nagiosSettings, int packetSize) {
+            event.end();
+            if (event.shouldCommit()) {
+                if (nagiosSettings != null) {
+                    event.host = nagiosSettings.getNagiosHost();
+                    event.port = nagiosSettings.getPort();
+                    event.encryption = nameOf(nagiosSettings.getEncryptor());
+                }
+                event.packetSize = packetSize;
+                event.commit();
+            }
+        }
+
+        @Override
+        void commit(NagiosSettings nagiosSettings, int packetSize, long startNanos) {
+            event.started(startNanos);
+            commit(nagiosSettings, packetSize);
+        }
+
+        private static NscaEvent newEvent(SendEventType type) {
+            switch (type) {
+            case QUEUE_WAIT:
+                return new QueueWaitEvent();
+            case ENCODE:
+                return new EncodeEvent();
+            case CONNECT:
+                return new ConnectEvent();
+            case HANDSHAKE:
+                return new HandshakeEvent();
+            case ENCRYPT:
+                return new EncryptEvent();
+            default:
+                return new WriteEvent();
+            }
+        }
+    }
+
+    private static String nameOf(Encryptor encryptor) {
+        for (Encryption encryption : Encryption.values()) {
+            if (encryption.getEncryptor() == encryptor) {
+                return encryption.name();
+            }
+        }
+        return encryptor.getClass().getSimpleName();
+    }
+
+    @Category("JSend NSCA")
+    @StackTrace(false)
+    abstract static class NscaEvent extends Event {
+
+        @Label("Host")
+        @Description("Host of the NSCA server")
+        String host;
+
+        @Label("Port")
+        @Description("Port of the NSCA server")
+        int port;
+
+        @Label("Packet Size")
+        @Description("Size of the passive check packet, 0 if not yet encoded")
+        @DataAmount
+        int packetSize;
+
+        @Label("Encryption")
+        @Description("Encryption of the passive check packet")
+        String encryption;
+
+        void started(long startNanos) {
+        }
+    }
+
+    @Name("com.googlecode.jsendnsca.QueueWait")
+    @Label("NSCA Queue Wait")
+    @Description("Time a passive check waited in the queue of a non-blocking sender")
+    static class QueueWaitEvent extends NscaEvent {
+
+        @Label("Queued Time")
+        @Description("Time since the passive check was queued, longer than the duration for a check queued off the heap")
+        @Timespan
+        long queuedTime;
+
+        @Override
+        void started(long startNanos) {
+            queuedTime = System.nanoTime() - startNanos;
+        }
+    }
+
+    @Name("com.googlecode.jsendnsca.Encode")
+    @Label("NSCA Encode")
+    @Description("Writing the payload fields into the passive check packet")
+    static class EncodeEvent extends NscaEvent {
+    }
+
+    @Name("com.googlecode.jsendnsca.Connect")
+    @Label("NSCA Connect")
+    @Description("Resolving the host and opening the connection to NSCA")
+    static class ConnectEvent extends NscaEvent {
+    }
+
+    @Name("com.googlecode.jsendnsca.Handshake")
+    @Label("NSCA Handshake")
+    @Description("Reading the initialisation vector and timestamp sent by NSCA")
+    static class HandshakeEvent extends NscaEvent {
+    }
+
+    @Name("com.googlecode.jsendnsca.Encrypt")
+    @Label("NSCA Encrypt")
+    @Description("Writing the timestamp and CRC and encrypting the passive check packet")
+    static class EncryptEvent extends NscaEvent {
+    }
+
+    @Name("com.googlecode.jsendnsca.Write")
+    @Label("NSCA Write")
+    @Description("Writing the passive check packet to NSCA")
+    static class WriteEvent extends NscaEvent {
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.googlecode.jsendnsca.builders.MessagePayloadBuilder;
+import com.googlecode.jsendnsca.builders.NagiosSettingsBuilder;
+import com.googlecode.jsendnsca.mocks.NagiosNscaStub;
+
+public class AdaptiveTimeoutTest {
+
+    @SuppressWarnings({"PublicField"})
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void shouldUseCeilingUntilLatencyIsSeen() throws Exception {
+        AdaptiveTimeout adaptiveTimeout = new AdaptiveTimeout();
+
+        assertEquals(5000, adaptiveTimeout.getConnectTimeout(5000));
+        assertEquals(10000, adaptiveTimeout.getHandshakeTimeout(10000));
+    }
+
+    @Test
+    public void shouldDeriveTimeoutFromMeanAndDeviation() throws Exception {
+        AdaptiveTimeout adaptiveTimeout = new AdaptiveTimeout()
+            .withMinimum(1, TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < 20; i++) {
+            adaptiveTimeout.connected(TimeUnit.MILLISECONDS.toNanos(20));
+        }
+        assertThat(adaptiveTimeout.getConnectTimeout(5000), allOf(greaterThanOrEqualTo(20), lessThan(25)));
+
+        adaptiveTimeout.connected(TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(adaptiveTimeout.getConnectTimeout(5000), greaterThanOrEqualTo(100));
+        assertEquals(10000, adaptiveTimeout.getHandshakeTimeout(10000));
+    }
+
+    @Test
+    public void shouldNotGoBelowMinimumOrAboveCeiling() throws Exception {
+        AdaptiveTimeout adaptiveTimeout = new AdaptiveTimeout();
+
+        adaptiveTimeout.handshaken(TimeUnit.MICROSECONDS.toNanos(200));
+        assertEquals(100, adaptiveTimeout.getHandshakeTimeout(10000));
+        assertEquals(50, adaptiveTimeout.getHandshakeTimeout(50));
+    }
+
+    @Test
+    public void shouldBackOffAfterTimeoutUntilLatencyIsSeen() throws Exception {
+        AdaptiveTimeout adaptiveTimeout = new AdaptiveTimeout();
+        adaptiveTimeout.handshaken(TimeUnit.MILLISECONDS.toNanos(1));
+
+        adaptiveTimeout.handshakeTimedOut();
+        assertEquals(200, adaptiveTimeout.getHandshakeTimeout(10000));
+        adaptiveTimeout.handshakeTimedOut();
+        assertEquals(400, adaptiveTimeout.getHandshakeTimeout(10000));
+        assertEquals(400, adaptiveTimeout.getHandshakeTimeout(0));
+
+        adaptiveTimeout.handshaken(TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(100, adaptiveTimeout.getHandshakeTimeout(10000));
+    }
+
+    @Test
+    public void shouldTimeoutHandshakeBeforeConfiguredTimeout() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0);
+        int port = serverSocket.getLocalPort();
+        serverSocket.close();
+        NagiosNscaStub stub = new NagiosNscaStub(port, "password");
+        stub.start();
+
+        try {
+            AdaptiveTimeout adaptiveTimeout = new AdaptiveTimeout();
+            NagiosPassiveCheckSender sender = new NagiosPassiveCheckSender(new NagiosSettingsBuilder()
+                .withNagiosHost("localhost")
+                .withPort(port)
+                .withPassword("password")
+                .withAdaptiveTimeout(adaptiveTimeout)
+                .create());
+            MessagePayload payload = new MessagePayloadBuilder()
+                .withHostname("localhost")
+                .withServiceName("service")
+                .create();
+
+            sender.send(payload);
+            stub.setSimulateTimeoutInMs(2000);
+
+            long start = System.nanoTime();
+            try {
+                sender.send(payload);
+                fail("handshake should have timed out");
+            } catch (SocketTimeoutException expected) {
+                assertThat(System.nanoTime() - start, lessThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(1500)));
+            }
+            assertThat(adaptiveTimeout.getHandshakeTimeout(10000), greaterThanOrEqualTo(200));
+        } finally {
+            stub.stop();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchCostsTest {
+
+    private final BatchCosts costs = new BatchCosts();
+
+    @Test
+    public void shouldNotLingerForBatchUntilCostsAreMeasured() throws Exception {
+        assertEquals(1, costs.targetSize(100));
+        assertEquals(0L, costs.lingerNanos(5000000L));
+    }
+
+    @Test
+    public void shouldTargetBatchSizeAmortisingHandshake() throws Exception {
+        costs.recordHandshake(1000000L);
+        costs.recordPackets(10, 1000000L);
+
+        assertEquals(30, costs.targetSize(100));
+        assertEquals(20, costs.targetSize(20));
+    }
+
+    @Test
+    public void shouldLingerNoLongerThanHandshake() throws Exception {
+        costs.recordHandshake(1000000L);
+
+        assertEquals(1000000L, costs.lingerNanos(5000000L));
+        assertEquals(500000L, costs.lingerNanos(500000L));
+    }
+
+    @Test
+    public void shouldStopLingeringWhileItGathersNothing() throws Exception {
+        costs.recordHandshake(1000000L);
+        costs.recordLinger(0);
+
+        int lingering = 0;
+        for (int i = 0; i < 32; i++) {
+            if (costs.lingerNanos(5000000L) > 0) {
+                lingering++;
+            }
+        }
+        assertEquals(2, lingering);
+    }
+}
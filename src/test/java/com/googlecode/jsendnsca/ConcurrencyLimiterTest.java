@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ConcurrencyLimiter limiter = new ConcurrencyLimiter(8);
+
+    @Test
+    public void shouldAllowMaximumWhenNotAdaptive() throws Exception {
+        limiter.sample(ConcurrencyLimiter.HANDSHAKE, 100 * MILLIS);
+        limiter.failed();
+
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void shouldGrowLimitInUseWhileLatencyIsFlat() throws Exception {
+        limiter.setAdaptive(true);
+        assertEquals(1, limiter.getLimit());
+
+        for (int i = 0; i < 8; i++) {
+            limiter.acquire();
+            limiter.sample(ConcurrencyLimiter.HANDSHAKE, 5 * MILLIS);
+        }
+        limiter.sample(ConcurrencyLimiter.HANDSHAKE, 5 * MILLIS);
+
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void shouldNotGrowLimitWhichIsNotUsed() throws Exception {
+        limiter.setAdaptive(true);
+        limiter.acquire();
+        limiter.release();
+
+        for (int i = 0; i < 20; i++) {
+            limiter.sample(ConcurrencyLimiter.WRITE, 5 * MILLIS);
+        }
+
+        assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    public void shouldShrinkLimitWhenLatencyRises() throws Exception {
+        growToMaximum();
+
+        limiter.sample(ConcurrencyLimiter.HANDSHAKE, 50 * MILLIS);
+        limiter.sample(ConcurrencyLimiter.HANDSHAKE, 50 * MILLIS);
+
+        assertEquals(6, limiter.getLimit());
+    }
+
+    @Test
+    public void shouldBackOffOnFailure() throws Exception {
+        growToMaximum();
+
+        limiter.failed();
+
+        assertEquals(6, limiter.getLimit());
+    }
+
+    @Test
+    public void shouldReportInFlightAtTimeout() throws Exception {
+        limiter.acquire();
+
+        assertEquals(1, limiter.awaitIdle(10, TimeUnit.MILLISECONDS));
+        limiter.release();
+        assertEquals(0, limiter.awaitIdle(10, TimeUnit.MILLISECONDS));
+    }
+
+    private void growToMaximum() throws InterruptedException {
+        limiter.setAdaptive(true);
+        for (int i = 0; i < 8; i++) {
+            limiter.acquire();
+            limiter.sample(ConcurrencyLimiter.HANDSHAKE, 5 * MILLIS);
+        }
+        assertEquals(8, limiter.getLimit());
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+import org.junit.Test;
+
+public class FailureCauseTest {
+
+    @Test
+    public void shouldClassifyConnectFailures() throws Exception {
+        assertEquals(FailureCause.CONNECT, FailureCause.classify(new ConnectException("Connection refused")));
+        assertEquals(FailureCause.CONNECT, FailureCause.classify(new UnknownHostException("foobar")));
+    }
+
+    @Test
+    public void shouldClassifyTimeoutsWhereverWrapped() throws Exception {
+        assertEquals(FailureCause.TIMEOUT, FailureCause.classify(new SocketTimeoutException("Read timed out")));
+        assertEquals(FailureCause.TIMEOUT, FailureCause.classify(
+                new NagiosSendException("Error", FailureCause.WRITE, new SocketTimeoutException("Read timed out"))));
+    }
+
+    @Test
+    public void shouldClassifyByStepOfSend() throws Exception {
+        assertEquals(FailureCause.HANDSHAKE, FailureCause.classify(
+                new NagiosSendException("Can't read initialisation vector", FailureCause.HANDSHAKE, new IOException())));
+        assertEquals(FailureCause.ENCRYPTION, FailureCause.classify(
+                new NagiosSendException("Can't encrypt passive check", FailureCause.ENCRYPTION, new RuntimeException())));
+    }
+
+    @Test
+    public void shouldClassifyDropsByRateLimit() throws Exception {
+        assertEquals(FailureCause.RATE_LIMIT, FailureCause.classify(new RateLimitExceededException("rate limit exceeded")));
+    }
+
+    @Test
+    public void shouldClassifyOtherFailuresAsUnknown() throws Exception {
+        assertEquals(FailureCause.UNKNOWN, FailureCause.classify(new IllegalStateException()));
+    }
+}
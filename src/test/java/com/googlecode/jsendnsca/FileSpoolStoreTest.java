@@ -0,0 +1,94 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class FileSpoolStoreTest {
+
+    @SuppressWarnings({"PublicField"})
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    private File file;
+    private FileSpoolStore spoolStore;
+
+    @Before
+    public void createSpoolStore() throws Exception {
+        file = File.createTempFile("jsendnsca", ".spool");
+        file.delete();
+        spoolStore = new FileSpoolStore(file);
+    }
+
+    @After
+    public void deleteSpoolFile() {
+        file.delete();
+    }
+
+    @Test
+    public void shouldRecoverSpooledPassiveChecksInOrder() throws Exception {
+        MessagePayload serviceCheck = new MessagePayload("web1", Level.CRITICAL, "http", "HTTP CRITICAL");
+        MessagePayload hostCheck = MessagePayload.forHostCheck("web1", Level.WARNING, "down");
+        MessagePayload escaped = new MessagePayload("web\t2", Level.OK, "disk\\usage", "line one\nline\ttwo\r\n\\n");
+
+        spoolStore.spool(serviceCheck);
+        spoolStore.spool(hostCheck);
+        spoolStore.flush();
+        spoolStore.spool(escaped);
+        spoolStore.flush();
+
+        List<MessagePayload> recovered = spoolStore.recover();
+
+        assertThat(recovered, contains(serviceCheck, hostCheck, escaped));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void shouldRecoverNothingWithoutSpoolFile() throws Exception {
+        assertThat(spoolStore.recover(), is(empty()));
+    }
+
+    @Test
+    public void shouldThrowIOExceptionForCorruptSpoolFile() throws Exception {
+        FileWriter writer = new FileWriter(file);
+        writer.write("web1\thttp\n");
+        writer.close();
+
+        expectedException.expect(IOException.class);
+        expectedException.expectMessage("Corrupt spool file");
+
+        spoolStore.recover();
+    }
+
+    @Test
+    public void shouldKeepSpooledPassiveChecksWhenRecoveringWithoutFlush() throws Exception {
+        spoolStore.spool(new MessagePayload("web1", Level.OK, "http", "HTTP OK"));
+
+        assertEquals(1, spoolStore.recover().size());
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.googlecode.jsendnsca.builders.MessagePayloadBuilder;
+import com.googlecode.jsendnsca.builders.NagiosSettingsBuilder;
+import com.googlecode.jsendnsca.encryption.Encryption;
+import com.googlecode.jsendnsca.encryption.Encryptor;
+import com.googlecode.jsendnsca.mocks.NagiosNscaStub;
+
+public class HedgedNagiosPassiveCheckSenderTest {
+
+    @SuppressWarnings({"PublicField"})
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    private static final String PASSWORD = "password";
+
+    private final MessagePayload payload = new MessagePayloadBuilder()
+        .withHostname("localhost")
+        .withServiceName("service")
+        .create();
+
+    private NagiosNscaStub primaryStub;
+    private NagiosNscaStub secondaryStub;
+    private int primaryPort;
+    private int secondaryPort;
+    private HedgedNagiosPassiveCheckSender sender;
+
+    @Before
+    public void startMockDaemons() throws Exception {
+        primaryPort = freePort();
+        secondaryPort = freePort();
+        primaryStub = new NagiosNscaStub(primaryPort, PASSWORD);
+        primaryStub.start();
+        secondaryStub = new NagiosNscaStub(secondaryPort, PASSWORD);
+        secondaryStub.start();
+        sender = new HedgedNagiosPassiveCheckSender(settings(primaryPort), settings(secondaryPort));
+    }
+
+    @After
+    public void stopMockDaemons() throws Exception {
+        sender.close();
+        primaryStub.stop();
+        secondaryStub.stop();
+    }
+
+    @Test
+    public void shouldThrowIllegalArgExceptionOnConstructingSenderWithNullSecondary() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("secondary cannot be null");
+
+        new HedgedNagiosPassiveCheckSender(new NagiosSettings(), null);
+    }
+
+    @Test
+    public void shouldHedgeToSecondaryWhenPrimaryIsSlow() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            sender.send(payload);
+        }
+        assertEquals(0L, sender.getHedges());
+        primaryStub.setSimulateTimeoutInMs(2000);
+
+        long start = System.nanoTime();
+        sender.send(payload);
+
+        assertThat(System.nanoTime() - start, lessThan(TimeUnit.MILLISECONDS.toNanos(1500)));
+        assertEquals(1L, sender.getHedges());
+        assertTrue(secondaryStub.awaitPacketCount(1, 1000));
+        assertEquals(21L, sender.getMetrics().getSent());
+    }
+
+    @Test
+    public void shouldStartNewWindowOnceConcurrentHandshakesFillIt() throws Exception {
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 250; i++) {
+                        sender.recordHandshake(TimeUnit.MILLISECONDS.toNanos(1));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < 20; i++) {
+            sender.recordHandshake(TimeUnit.MILLISECONDS.toNanos(50));
+        }
+
+        assertThat(sender.hedgeDelayNanos(), greaterThan(TimeUnit.MILLISECONDS.toNanos(40)));
+    }
+
+    @Test
+    public void shouldNotHedgeBeyondBudget() throws Exception {
+        sender.setHedgeBudget(0);
+        for (int i = 0; i < 20; i++) {
+            sender.send(payload);
+        }
+        primaryStub.setSimulateTimeoutInMs(500);
+
+        long start = System.nanoTime();
+        sender.send(payload);
+
+        assertThat(System.nanoTime() - start, greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(400)));
+        assertEquals(0L, sender.getHedges());
+        assertEquals(0L, secondaryStub.getPacketCount());
+    }
+
+    @Test
+    public void shouldSendToSecondaryWhenPrimaryFails() throws Exception {
+        sender.close();
+        sender = new HedgedNagiosPassiveCheckSender(settings(freePort()), settings(secondaryPort));
+
+        sender.send(payload);
+
+        assertTrue(secondaryStub.awaitPacketCount(1, 1000));
+        assertEquals(1L, sender.getPrimaryMetrics().getFailed());
+        assertEquals(1L, sender.getMetrics().getSent());
+        assertEquals(1L, sender.getMetrics().getRetried());
+    }
+
+    @Test(timeout = 5000)
+    public void shouldRethrowErrorWhenEverySendFails() throws Exception {
+        sender.close();
+        NagiosSettings primary = settings(primaryPort);
+        primary.setEncryptor(new FailingEncryptor());
+        NagiosSettings secondary = settings(secondaryPort);
+        secondary.setEncryptor(new FailingEncryptor());
+        sender = new HedgedNagiosPassiveCheckSender(primary, secondary);
+
+        expectedException.expect(Error.class);
+        expectedException.expectMessage("encryptor failed");
+
+        sender.send(payload);
+    }
+
+    private static NagiosSettings settings(int port) {
+        return new NagiosSettingsBuilder()
+            .withNagiosHost("localhost")
+            .withPort(port)
+            .withPassword(PASSWORD)
+            .withEncryption(Encryption.XOR)
+            .create();
+    }
+
+    private static final class FailingEncryptor implements Encryptor {
+        public void encrypt(byte[] passiveCheckBytes, byte[] initVector, String password) {
+            throw new Error("encryptor failed");
+        }
+    }
+
+    private static int freePort() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0);
+        int port = serverSocket.getLocalPort();
+        serverSocket.close();
+        return port;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.jsendnsca.builders.NagiosSettingsBuilder;
+import com.googlecode.jsendnsca.encryption.Encryption;
+import com.googlecode.jsendnsca.mocks.NagiosNscaStub;
+
+public class KeyedNagiosPassiveCheckSenderTest {
+
+    private static final String PASSWORD = "password";
+
+    private NagiosNscaStub stub;
+    private int port;
+
+    @Before
+    public void startStub() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0);
+        port = serverSocket.getLocalPort();
+        serverSocket.close();
+        stub = new NagiosNscaStub(port, PASSWORD);
+        stub.start();
+    }
+
+    @After
+    public void stopStub() throws Exception {
+        stub.stop();
+    }
+
+    @Test
+    public void shouldKeepOrderOfPassiveChecksForEachService() throws Exception {
+        KeyedNagiosPassiveCheckSender sender = new KeyedNagiosPassiveCheckSender(new NagiosSettingsBuilder()
+                .withPort(port)
+                .withPassword(PASSWORD)
+                .withEncryption(Encryption.XOR)
+                .create(), 4);
+        for (int i = 0; i < 10; i++) {
+            for (int service = 0; service < 8; service++) {
+                sender.send(new MessagePayload("localhost", Level.OK, "service " + service, String.valueOf(i)));
+            }
+        }
+
+        DeliveryReport report = sender.close(10, TimeUnit.SECONDS);
+
+        assertEquals(0L, report.getAbandoned());
+        assertEquals(0L, report.getPending());
+        assertTrue(stub.awaitPacketCount(80, 5000));
+        Map<String, Integer> lastMessages = new HashMap<String, Integer>();
+        for (MessagePayload payload : stub.getMessagePayloadList()) {
+            Integer last = lastMessages.put(payload.getServiceName(), Integer.valueOf(payload.getMessage()));
+            assertEquals(last == null ? 0 : last + 1, Integer.parseInt(payload.getMessage()));
+        }
+        assertEquals(80L, sender.getMetrics().getSent());
+    }
+
+    @Test
+    public void shouldSpreadServicesAcrossLanes() throws Exception {
+        Set<Integer> lanes = new HashSet<Integer>();
+        for (int service = 0; service < 100; service++) {
+            int lane = KeyedNagiosPassiveCheckSender.laneOf("localhost", "service " + service, 4);
+            assertEquals(lane, KeyedNagiosPassiveCheckSender.laneOf("localhost", "service " + service, 4));
+            lanes.add(lane);
+        }
+        assertEquals(4, lanes.size());
+    }
+}
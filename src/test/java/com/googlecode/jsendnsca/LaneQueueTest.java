@@ -0,0 +1,172 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LaneQueueTest {
+
+    private final List<QueuedCheck> dropped = new ArrayList<QueuedCheck>();
+    private final CheckQueue.DropHandler dropHandler = new CheckQueue.DropHandler() {
+        public void dropped(QueuedCheck check) {
+            dropped.add(check);
+        }
+    };
+
+    @Test
+    public void shouldDrainLanesByWeightWithoutStarvingLowerLanes() throws Exception {
+        LaneQueue queue = new LaneQueue(new PriorityLanes().withWeight(Level.CRITICAL, 2), dropHandler);
+        for (int i = 0; i < 4; i++) {
+            queue.offer(check(Level.OK, "ok " + i));
+            queue.offer(check(Level.CRITICAL, "critical " + i));
+        }
+
+        StringBuilder levels = new StringBuilder();
+        QueuedCheck check;
+        while ((check = queue.poll()) != null) {
+            levels.append(check.payload.getLevel().name().charAt(0));
+        }
+
+        assertEquals("CCOCCOOO", levels.toString());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void shouldSendOlderResultForServiceInAnotherLaneFirst() throws Exception {
+        LaneQueue queue = new LaneQueue(new PriorityLanes(), dropHandler);
+        QueuedCheck critical = check(Level.CRITICAL, "database");
+        QueuedCheck ok = check(Level.OK, "database");
+
+        queue.offer(check(Level.OK, "disk"));
+        queue.offer(critical);
+        queue.offer(ok);
+
+        assertTrue(dropped.isEmpty());
+        assertEquals(3, queue.size());
+        assertEquals(1, queue.size(Level.OK));
+        assertSame(critical, queue.poll());
+        assertEquals(2, queue.size(Level.OK));
+        assertEquals("disk", queue.poll().payload.getServiceName());
+        assertSame(ok, queue.poll());
+    }
+
+    @Test
+    public void shouldReplaceOlderResultForServiceInAnotherLaneWhenFull() throws Exception {
+        LaneQueue queue = new LaneQueue(new PriorityLanes().withCapacity(1), dropHandler);
+        QueuedCheck critical = check(Level.CRITICAL, "database");
+        QueuedCheck ok = check(Level.OK, "database");
+
+        queue.offer(critical);
+        queue.offer(ok);
+
+        assertEquals(1, dropped.size());
+        assertSame(critical, dropped.get(0));
+        assertEquals(1, queue.size());
+        assertSame(ok, queue.poll());
+    }
+
+    @Test
+    public void shouldCoalesceOkResultsForService() throws Exception {
+        LaneQueue queue = new LaneQueue(new PriorityLanes(), dropHandler);
+        queue.offer(check(Level.OK, "disk"));
+        queue.offer(check(Level.OK, "disk"));
+        QueuedCheck newest = check(Level.OK, "disk");
+        queue.offer(newest);
+
+        assertEquals(2, dropped.size());
+        assertEquals(1, queue.size(Level.OK));
+        assertSame(newest, queue.poll());
+    }
+
+    @Test
+    public void shouldKeepEveryResultForServiceInSameNonOkLane() throws Exception {
+        LaneQueue queue = new LaneQueue(new PriorityLanes(), dropHandler);
+        queue.offer(check(Level.WARNING, "load"));
+        queue.offer(check(Level.WARNING, "load"));
+        queue.offer(check(Level.CRITICAL, "load"));
+
+        assertTrue(dropped.isEmpty());
+        assertEquals(3, queue.size());
+        assertEquals(Level.WARNING, queue.poll().payload.getLevel());
+        assertEquals(Level.WARNING, queue.poll().payload.getLevel());
+        assertEquals(Level.CRITICAL, queue.poll().payload.getLevel());
+    }
+
+    @Test
+    public void shouldCoalesceOkResultWaitingBehindCritical() throws Exception {
+        LaneQueue queue = new LaneQueue(new PriorityLanes(), dropHandler);
+        QueuedCheck critical = check(Level.CRITICAL, "database");
+        queue.offer(critical);
+        queue.offer(check(Level.OK, "database"));
+        QueuedCheck newest = check(Level.OK, "database");
+        queue.offer(newest);
+
+        assertEquals(1, dropped.size());
+        assertEquals(2, queue.size());
+        assertSame(critical, queue.poll());
+        assertSame(newest, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void shouldRemoveCheckWaitingForOlderResult() throws Exception {
+        LaneQueue queue = new LaneQueue(new PriorityLanes(), dropHandler);
+        QueuedCheck critical = check(Level.CRITICAL, "database");
+        QueuedCheck ok = check(Level.OK, "database");
+        queue.offer(critical);
+        queue.offer(ok);
+
+        assertTrue(queue.remove(ok));
+        assertFalse(queue.remove(ok));
+        assertSame(critical, queue.poll());
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void shouldKeepOkResultsWithoutCoalescing() throws Exception {
+        LaneQueue queue = new LaneQueue(new PriorityLanes().withOkCoalescing(false), dropHandler);
+        queue.offer(check(Level.OK, "disk"));
+        queue.offer(check(Level.OK, "disk"));
+
+        assertTrue(dropped.isEmpty());
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void shouldRefuseCheckWhenFullOfHigherLanes() throws Exception {
+        LaneQueue queue = new LaneQueue(new PriorityLanes().withCapacity(1), dropHandler);
+        QueuedCheck warning = check(Level.WARNING, "load");
+        queue.offer(warning);
+
+        assertFalse(queue.offer(check(Level.UNKNOWN, "disk")));
+        assertTrue(queue.offer(check(Level.CRITICAL, "database")));
+        assertSame(warning, dropped.get(0));
+        assertEquals(Level.CRITICAL, queue.poll().payload.getLevel());
+        assertNull(queue.poll());
+    }
+
+    private static QueuedCheck check(Level level, String serviceName) {
+        return new QueuedCheck(new MessagePayload("localhost", level, serviceName, "message"), null);
+    }
+}
@@ -15,6 +15,9 @@ package com.googlecode.jsendnsca;
 
 import com.googlecode.jsendnsca.builders.MessagePayloadBuilder;
 import com.googlecode.jsendnsca.builders.NagiosSettingsBuilder;
+import com.googlecode.jsendnsca.encryption.Encryption;
+import com.googlecode.jsendnsca.metrics.SenderMetrics;
+import com.googlecode.jsendnsca.metrics.SenderMetrics.Phase;
 import com.googlecode.jsendnsca.mocks.NagiosNscaStub;
 import org.apache.commons.io.IOUtils;
 import org.junit.After;
@@ -28,6 +31,7 @@ import java.net.ServerSocket;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 import static com.googlecode.jsendnsca.Level.CRITICAL;
 import static com.googlecode.jsendnsca.encryption.Encryption.TRIPLE_DES;
@@ -35,6 +39,7 @@ import static com.googlecode.jsendnsca.encryption.Encryption.XOR;
 import static org.hamcrest.Matchers.hasItem;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 public class NagiosPassiveCheckSenderTest {
 
@@ -94,6 +99,17 @@ public class NagiosPassiveCheckSenderTest {
         sender.send(new MessagePayload());
     }
 
+    @Test
+    public void shouldRejectPassiveCheckOnceClosed() throws Exception {
+        final NagiosPassiveCheckSender sender = new NagiosPassiveCheckSender(new NagiosSettings());
+        sender.close();
+
+        expectedException.expect(RejectedExecutionException.class);
+        expectedException.expectMessage("sender has been closed");
+
+        sender.send(new MessagePayload());
+    }
+
     @Test
     public void shouldSendPassiveCheck() throws Exception {
         final NagiosSettings nagiosSettings = new NagiosSettingsBuilder()
@@ -120,6 +136,27 @@ public class NagiosPassiveCheckSenderTest {
         assertThat(passiveChecksList, hasItem(payload));
     }
 
+    @Test
+    public void shouldRecordMetricsOfPassiveChecksSent() throws Exception {
+        final NagiosSettings nagiosSettings = new NagiosSettingsBuilder()
+                .withPort(port)
+                .withNagiosHost(HOSTNAME)
+                .withPassword(PASSWORD)
+                .withEncryption(XOR)
+                .create();
+
+        final NagiosPassiveCheckSender passiveAlerter = new NagiosPassiveCheckSender(nagiosSettings);
+        passiveAlerter.send(new MessagePayloadBuilder().withHostname(HOSTNAME).withMessage(MESSAGE).create());
+
+        final SenderMetrics metrics = passiveAlerter.getMetrics();
+        assertEquals(1L, metrics.getSent());
+        assertEquals(0L, metrics.getFailed());
+        assertEquals(0L, (long) metrics.getInFlightConnections());
+        for (Phase phase : Phase.values()) {
+            assertEquals(1L, metrics.getLatency(phase).getCount());
+        }
+    }
+
     @Test
     public void shouldSendPassiveCheckWithLargeMessageSupport() throws Exception {
         stub.turnOnLargeMessageSupportAsInNsca291();
@@ -149,6 +186,43 @@ public class NagiosPassiveCheckSenderTest {
         assertThat(passiveChecksList, hasItem(payload));
     }
 
+    @Test
+    public void shouldSendShortAndLargePassiveChecksWithAdaptiveMessageSupport() throws Exception {
+        stub.turnOnLargeMessageSupportAsInNsca291();
+
+        final NagiosSettings nagiosSettings = new NagiosSettingsBuilder()
+                .withPort(port)
+                .withAdaptiveMessageSupportEnabled()
+                .withNagiosHost(HOSTNAME)
+                .withPassword(PASSWORD)
+                .withEncryption(XOR)
+                .create();
+
+        final NagiosPassiveCheckSender passiveAlerter = new NagiosPassiveCheckSender(nagiosSettings);
+
+        final MessagePayload shortPayload = new MessagePayloadBuilder()
+                .withHostname(HOSTNAME)
+                .withLevel(CRITICAL)
+                .withServiceName(SERVICE_NAME)
+                .withMessage(MESSAGE)
+                .create();
+        final MessagePayload largePayload = new MessagePayloadBuilder()
+                .withHostname(HOSTNAME)
+                .withLevel(CRITICAL)
+                .withServiceName(SERVICE_NAME)
+                .withMessage(large())
+                .create();
+
+        passiveAlerter.send(shortPayload);
+        passiveAlerter.send(largePayload);
+
+        waitForStub();
+
+        List<MessagePayload> passiveChecksList = stub.getMessagePayloadList();
+        assertThat(passiveChecksList, hasItem(shortPayload));
+        assertThat(passiveChecksList, hasItem(largePayload));
+    }
+
     /*
      * I've confirmed externally that the NagiosStub would allow the too long
      * hostname, servicename and message lengths so the trimming must be done by
@@ -192,6 +266,7 @@ public class NagiosPassiveCheckSenderTest {
                 .withPassword(PASSWORD)
                 .withEncryption(TRIPLE_DES)
                 .create();
+        stub.setEncryption(TRIPLE_DES);
 
         final NagiosPassiveCheckSender passiveAlerter = new NagiosPassiveCheckSender(nagiosSettings);
 
@@ -203,6 +278,75 @@ public class NagiosPassiveCheckSenderTest {
                 .create();
 
         passiveAlerter.send(payload);
+
+        waitForStub();
+
+        assertThat(stub.getMessagePayloadList(), hasItem(payload));
+    }
+
+    @Test
+    public void shouldSendPassiveCheckWithEveryEncryption() throws Exception {
+        for (Encryption encryption : Encryption.values()) {
+            final NagiosSettings nagiosSettings = new NagiosSettingsBuilder()
+                    .withPort(port)
+                    .withNagiosHost(HOSTNAME)
+                    .withPassword(PASSWORD)
+                    .withEncryption(encryption)
+                    .create();
+            stub.setEncryption(encryption);
+
+            final MessagePayload payload = new MessagePayloadBuilder()
+                    .withHostname(HOSTNAME)
+                    .withLevel(Level.WARNING)
+                    .withServiceName(SERVICE_NAME)
+                    .withMessage(MESSAGE + " " + encryption)
+                    .create();
+
+            final long packetCount = stub.getPacketCount();
+            new NagiosPassiveCheckSender(nagiosSettings).send(payload);
+
+            assertTrue(encryption.name(), stub.awaitPacketCount(packetCount + 1, 5000));
+            assertThat(stub.getMessagePayloadList(), hasItem(payload));
+        }
+        assertEquals(0L, stub.getInvalidPacketCount());
+    }
+
+    @Test
+    public void shouldNotRecordPassiveCheckWithWrongPassword() throws Exception {
+        final NagiosSettings nagiosSettings = new NagiosSettingsBuilder()
+                .withPort(port)
+                .withNagiosHost(HOSTNAME)
+                .withPassword("wrong password")
+                .withEncryption(XOR)
+                .create();
+
+        new NagiosPassiveCheckSender(nagiosSettings).send(new MessagePayloadBuilder()
+                .withHostname(HOSTNAME)
+                .withMessage(MESSAGE)
+                .create());
+
+        waitForStub();
+
+        assertEquals(1L, stub.getInvalidPacketCount());
+        assertTrue(stub.getMessagePayloadList().isEmpty());
+    }
+
+    @Test
+    public void shouldThrowNagiosExceptionIfConnectionDropped() throws Exception {
+        expectedException.expect(NagiosException.class);
+        expectedException.expectMessage("Can't read initialisation vector");
+
+        final NagiosSettings nagiosSettings = new NagiosSettingsBuilder()
+                .withPort(port)
+                .withNagiosHost(HOSTNAME)
+                .withPassword(PASSWORD)
+                .create();
+        stub.dropNextConnections(1);
+
+        new NagiosPassiveCheckSender(nagiosSettings).send(new MessagePayloadBuilder()
+                .withHostname(HOSTNAME)
+                .withMessage(MESSAGE)
+                .create());
     }
 
     @Test
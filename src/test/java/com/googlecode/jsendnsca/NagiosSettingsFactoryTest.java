@@ -17,6 +17,7 @@ import static com.googlecode.jsendnsca.encryption.Encryption.XOR;
 import static org.junit.Assert.assertEquals;
 
 import java.io.File;
+import java.nio.charset.Charset;
 import java.util.Properties;
 
 import org.apache.commons.lang.StringUtils;
@@ -48,6 +49,7 @@ public class NagiosSettingsFactoryTest {
         overrideAllSettings.setProperty("nagios.nsca.timeout", "20000");
         overrideAllSettings.setProperty("nagios.nsca.connect.timeout", "10000");
         overrideAllSettings.setProperty("nagios.nsca.encryption", "xor");
+        overrideAllSettings.setProperty("nagios.nsca.charset", "ISO-8859-1");
 
         NagiosSettings settings = NagiosSettingsFactory.createSettings(overrideAllSettings);
 
@@ -58,6 +60,7 @@ public class NagiosSettingsFactoryTest {
         expectedSettings.setTimeout(20000);
         expectedSettings.setConnectTimeout(10000);
         expectedSettings.setEncryption(XOR);
+        expectedSettings.setCharset(Charset.forName("ISO-8859-1"));
 
         assertEquals(expectedSettings, settings);
     }
@@ -134,4 +137,15 @@ public class NagiosSettingsFactoryTest {
         NagiosSettingsFactory.createSettings(unknownEncryption);
     }
 
+    @Test
+    public void shouldThrowNagiosConfigurationExceptionForUnknownCharset() throws Exception {
+        expectedException.expect(NagiosConfigurationException.class);
+        expectedException.expectMessage("Key [nagios.nsca.charset] must be a supported charset, was [foobar]");
+
+        Properties unknownCharset = new Properties();
+        unknownCharset.setProperty("nagios.nsca.charset", "foobar");
+
+        NagiosSettingsFactory.createSettings(unknownCharset);
+    }
+
 }
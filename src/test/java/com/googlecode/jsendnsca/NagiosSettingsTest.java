@@ -73,6 +73,14 @@ public class NagiosSettingsTest {
         assertEquals(4096L, (long) nagiosSettings.getMaxMessageSizeInChars());
     }
     
+    @Test
+    public void shouldReturn512MinAnd4096MaxCharsInMessageWhenAdaptiveEnabled() throws Exception {
+        nagiosSettings.enableAdaptiveMessageSupport();
+
+        assertEquals(512L, (long) nagiosSettings.getMinMessageSizeInChars());
+        assertEquals(4096L, (long) nagiosSettings.getMaxMessageSizeInChars());
+    }
+
     @Test
     public void shouldThrowIllegalArgumentExceptionForNullEncryptor() throws Exception {
         expectedException.expect(IllegalArgumentException.class);
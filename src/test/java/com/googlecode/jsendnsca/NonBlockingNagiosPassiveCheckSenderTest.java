@@ -13,17 +13,52 @@
  */
 package com.googlecode.jsendnsca;
 
+import com.googlecode.jsendnsca.builders.MessagePayloadBuilder;
+import com.googlecode.jsendnsca.builders.NagiosSettingsBuilder;
+import com.googlecode.jsendnsca.metrics.SenderMetrics;
+import com.googlecode.jsendnsca.mocks.NagiosNscaStub;
 import org.junit.After;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import static com.googlecode.jsendnsca.encryption.Encryption.XOR;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 
 public class NonBlockingNagiosPassiveCheckSenderTest {
 
+    @SuppressWarnings({"PublicField"})
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    private static final String PASSWORD = "password";
+
     private NonBlockingNagiosPassiveCheckSender sender;
 
     @After
@@ -41,6 +76,396 @@ public class NonBlockingNagiosPassiveCheckSenderTest {
         assertThat(duration, lessThan(100L));
     }
 
+    @Test
+    public void shouldSendPreEncodedPassiveCheck() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0);
+        int port = serverSocket.getLocalPort();
+        serverSocket.close();
+        NagiosNscaStub stub = new NagiosNscaStub(port, PASSWORD);
+        stub.start();
+
+        try {
+            sender = new NonBlockingNagiosPassiveCheckSender(new NagiosSettingsBuilder()
+                    .withPort(port)
+                    .withPassword(PASSWORD)
+                    .withEncryption(XOR)
+                    .create());
+            sender.setPreEncoding(true);
+
+            MessagePayload payload = new MessagePayloadBuilder()
+                    .withHostname("localhost")
+                    .withLevel(Level.CRITICAL)
+                    .withServiceName("Test Service Name")
+                    .withMessage("Test Message")
+                    .create();
+            sender.send(payload);
+
+            Thread.sleep(200L);
+            assertThat(stub.getMessagePayloadList(), hasItem(payload));
+        } finally {
+            stub.stop();
+        }
+    }
+
+    @Test
+    public void shouldThrowIllegalArgumentExceptionEnablingPreEncodingForOtherSender() throws Exception {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("pre-encoding requires a NagiosPassiveCheckSender");
+
+        sender = new NonBlockingNagiosPassiveCheckSender(new SlowNagiosPassiveCheckSender());
+        sender.setPreEncoding(true);
+    }
+
+    @Test
+    public void shouldNotifyListenerOfClassifiedFailure() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0);
+        int port = serverSocket.getLocalPort();
+        serverSocket.close();
+
+        sender = new NonBlockingNagiosPassiveCheckSender(new NagiosSettingsBuilder()
+                .withPort(port)
+                .withPassword(PASSWORD)
+                .create());
+        final BlockingQueue<FailureCause> causes = new LinkedBlockingQueue<FailureCause>();
+        sender.setSendFailureListener(new SendFailureListener() {
+            public void onFailure(MessagePayload payload, FailureCause cause, Exception exception) {
+                causes.add(cause);
+            }
+        });
+
+        sender.send(new MessagePayloadBuilder().withHostname("localhost").withMessage("Test Message").create());
+
+        assertEquals(FailureCause.CONNECT, causes.poll(5, TimeUnit.SECONDS));
+        assertThat(sender.getLastFailure(FailureCause.CONNECT), instanceOf(ConnectException.class));
+        assertNull(sender.getLastFailure(FailureCause.TIMEOUT));
+    }
+
+    @Test
+    public void shouldSendQueuedPassiveChecksOverOneConnectionWhenClosed() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0);
+        int port = serverSocket.getLocalPort();
+        serverSocket.close();
+        NagiosNscaStub stub = new NagiosNscaStub(port, PASSWORD);
+        stub.start();
+        CountDownLatch release = new CountDownLatch(1);
+
+        try {
+            sender = new NonBlockingNagiosPassiveCheckSender(new NagiosSettingsBuilder()
+                    .withPort(port)
+                    .withPassword(PASSWORD)
+                    .withEncryption(XOR)
+                    .create());
+            sender.setExecutor(blockedExecutor(release));
+            sender.setPreEncoding(true);
+            for (int i = 0; i < 20; i++) {
+                sender.send(new MessagePayload("localhost", Level.OK, "service", "message " + i));
+            }
+
+            DeliveryReport report = sender.close(5, TimeUnit.SECONDS);
+
+            assertEquals(20L, report.getDelivered());
+            assertEquals(0L, report.getAbandoned());
+            assertEquals(1L, sender.getMetrics().getLatency(SenderMetrics.Phase.CONNECT).getCount());
+            assertEquals(0, sender.getMetrics().getQueueDepth());
+            stub.awaitPacketCount(20, 5000);
+            assertEquals(20L, stub.getPacketCount());
+        } finally {
+            release.countDown();
+            stub.stop();
+        }
+    }
+
+    @Test
+    public void shouldSendQueuedPassiveChecksInBatchOverOneConnection() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0);
+        int port = serverSocket.getLocalPort();
+        serverSocket.close();
+        NagiosNscaStub stub = new NagiosNscaStub(port, PASSWORD);
+        stub.start();
+        CountDownLatch release = new CountDownLatch(1);
+
+        try {
+            sender = new NonBlockingNagiosPassiveCheckSender(new NagiosSettingsBuilder()
+                    .withPort(port)
+                    .withPassword(PASSWORD)
+                    .withEncryption(XOR)
+                    .create());
+            sender.setExecutor(blockedExecutor(release));
+            sender.setPreEncoding(true);
+            sender.setMicroBatching(new MicroBatching().withMaxChecks(15));
+            for (int i = 0; i < 20; i++) {
+                sender.send(new MessagePayload("localhost", Level.OK, "service", "message " + i));
+            }
+            release.countDown();
+
+            assertThat(stub.awaitPacketCount(20, 5000), is(true));
+            awaitEmptyQueue();
+            assertEquals(2L, sender.getMetrics().getLatency(SenderMetrics.Phase.CONNECT).getCount());
+            assertEquals(20L, sender.getMetrics().getSent());
+            assertEquals(0L, stub.getInvalidPacketCount());
+        } finally {
+            stub.stop();
+        }
+    }
+
+    @Test
+    public void shouldSpoolPassiveChecksStillQueuedWhenCloseTimesOut() throws Exception {
+        File file = File.createTempFile("jsendnsca", ".spool");
+        file.delete();
+        FileSpoolStore spoolStore = new FileSpoolStore(file);
+        CountDownLatch release = new CountDownLatch(1);
+
+        sender = new NonBlockingNagiosPassiveCheckSender(new SlowNagiosPassiveCheckSender());
+        sender.setExecutor(blockedExecutor(release));
+        sender.setSpoolStore(spoolStore);
+        for (int i = 0; i < 10; i++) {
+            sender.send(new MessagePayload("localhost", Level.OK, "service", "message " + i));
+        }
+
+        DeliveryReport report = sender.close(250, TimeUnit.MILLISECONDS);
+        release.countDown();
+
+        assertThat(report.getSpooled(), greaterThan(0L));
+        assertEquals(10L, report.getDelivered() + report.getSpooled());
+        assertEquals(0L, report.getPending());
+        assertEquals(report.getSpooled(), (long) spoolStore.recover().size());
+    }
+
+    @Test
+    public void shouldRejectPassiveCheckOnceClosed() throws Exception {
+        sender = new NonBlockingNagiosPassiveCheckSender(new SlowNagiosPassiveCheckSender());
+        sender.close();
+
+        expectedException.expect(RejectedExecutionException.class);
+        expectedException.expectMessage("sender has been closed");
+
+        sender.send(new MessagePayload());
+    }
+
+    @Test
+    public void shouldFlushQueuedPassiveChecks() throws Exception {
+        sender = new NonBlockingNagiosPassiveCheckSender(new SlowNagiosPassiveCheckSender());
+        for (int i = 0; i < 3; i++) {
+            sender.send(new MessagePayload());
+        }
+
+        DeliveryReport report = sender.flush(5, TimeUnit.SECONDS);
+
+        assertEquals(0L, report.getPending());
+        assertEquals(0, sender.getMetrics().getQueueDepth());
+        sender.send(new MessagePayload());
+    }
+
+    @Test
+    public void shouldSendCriticalPassiveChecksAheadOfQueuedOkPassiveChecks() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingPassiveCheckSender recorder = new RecordingPassiveCheckSender();
+
+        sender = new NonBlockingNagiosPassiveCheckSender(recorder);
+        sender.setExecutor(blockedExecutor(release));
+        sender.setPriorityLanes(new PriorityLanes());
+        for (int i = 0; i < 5; i++) {
+            sender.send(new MessagePayload("localhost", Level.OK, "service " + i, "ok"));
+        }
+        sender.send(new MessagePayload("localhost", Level.CRITICAL, "database", "down"));
+        release.countDown();
+        awaitEmptyQueue();
+
+        assertEquals(6, recorder.sent.size());
+        assertEquals("database", recorder.sent.get(0));
+    }
+
+    @Test
+    public void shouldDropOkPassiveCheckWhenPriorityLanesAreFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingPassiveCheckSender recorder = new RecordingPassiveCheckSender();
+
+        sender = new NonBlockingNagiosPassiveCheckSender(recorder);
+        sender.setExecutor(blockedExecutor(release));
+        sender.setPriorityLanes(new PriorityLanes().withCapacity(2));
+        sender.send(new MessagePayload("localhost", Level.OK, "disk", "ok"));
+        sender.send(new MessagePayload("localhost", Level.WARNING, "load", "high"));
+        sender.send(new MessagePayload("localhost", Level.CRITICAL, "database", "down"));
+        release.countDown();
+        awaitEmptyQueue();
+
+        assertEquals(Arrays.asList("database", "load"), recorder.sent);
+        assertEquals(1L, sender.getMetrics().getDropped());
+    }
+
+    @Test
+    public void shouldRejectPassiveCheckWhenPriorityLanesAreFullOfHigherLevels() throws Exception {
+        sender = new NonBlockingNagiosPassiveCheckSender(new SlowNagiosPassiveCheckSender());
+        sender.setExecutor(blockedExecutor(new CountDownLatch(1)));
+        sender.setPriorityLanes(new PriorityLanes().withCapacity(1));
+        sender.send(new MessagePayload("localhost", Level.CRITICAL, "database", "down"));
+
+        expectedException.expect(RejectedExecutionException.class);
+        expectedException.expectMessage("queue is full");
+
+        sender.send(new MessagePayload("localhost", Level.OK, "disk", "ok"));
+    }
+
+    @Test
+    public void shouldSendPassiveChecksQueuedOffHeap() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingPassiveCheckSender recorder = new RecordingPassiveCheckSender();
+
+        sender = new NonBlockingNagiosPassiveCheckSender(recorder);
+        sender.setExecutor(blockedExecutor(release));
+        sender.setOffHeapQueue(4096);
+        for (int i = 0; i < 5; i++) {
+            sender.send(new MessagePayload("localhost", Level.OK, "service " + i, "ok"));
+        }
+        release.countDown();
+        awaitEmptyQueue();
+
+        assertEquals(Arrays.asList("service 0", "service 1", "service 2", "service 3", "service 4"), recorder.sent);
+    }
+
+    @Test
+    public void shouldSubmitATaskPerPassiveCheckToCustomExecutor() throws Exception {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingPassiveCheckSender recorder = new RecordingPassiveCheckSender();
+
+        try {
+            executor.execute(awaiting(release));
+            sender = new NonBlockingNagiosPassiveCheckSender(recorder);
+            sender.setExecutor(executor);
+            for (int i = 0; i < 50; i++) {
+                sender.send(new MessagePayload("localhost", Level.OK, "service " + i, "ok"));
+            }
+
+            assertEquals(50, executor.getQueue().size());
+            release.countDown();
+            awaitEmptyQueue();
+
+            assertEquals(50, recorder.sent.size());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void shouldSubmitOneTaskToDrainOffHeapQueue() throws Exception {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingPassiveCheckSender recorder = new RecordingPassiveCheckSender();
+
+        try {
+            executor.execute(awaiting(release));
+            sender = new NonBlockingNagiosPassiveCheckSender(recorder);
+            sender.setExecutor(executor);
+            sender.setOffHeapQueue(64 * 1024);
+            for (int i = 0; i < 50; i++) {
+                sender.send(new MessagePayload("localhost", Level.OK, "service " + i, "ok"));
+            }
+
+            assertEquals(1, executor.getQueue().size());
+            release.countDown();
+            awaitEmptyQueue();
+
+            assertEquals(50, recorder.sent.size());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void shouldDiscardPassiveChecksQueuedBeyondTimeToLive() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingPassiveCheckSender recorder = new RecordingPassiveCheckSender();
+
+        sender = new NonBlockingNagiosPassiveCheckSender(recorder);
+        sender.setExecutor(blockedExecutor(release));
+        sender.setTimeToLive(50, TimeUnit.MILLISECONDS);
+        sender.send(new MessagePayload("localhost", Level.OK, "disk", "ok"));
+        sender.send(new MessagePayload("localhost", Level.OK, "load", "ok"), 0, TimeUnit.MILLISECONDS);
+        sender.send(new MessagePayload("localhost", Level.OK, "database", "ok"), 1, TimeUnit.MINUTES);
+        Thread.sleep(100L);
+        release.countDown();
+        awaitEmptyQueue();
+
+        assertEquals(Arrays.asList("load", "database"), recorder.sent);
+        assertEquals(1L, sender.getMetrics().getExpired());
+        assertEquals(0L, sender.getMetrics().getDropped());
+    }
+
+    @Test
+    public void shouldReportExpiredPassiveChecksAsAbandonedWhenFlushed() throws Exception {
+        sender = new NonBlockingNagiosPassiveCheckSender(new RecordingPassiveCheckSender());
+        sender.setExecutor(blockedExecutor(new CountDownLatch(1)));
+        sender.send(new MessagePayload(), 1, TimeUnit.MILLISECONDS);
+        Thread.sleep(10L);
+
+        DeliveryReport report = sender.flush(1, TimeUnit.SECONDS);
+
+        assertEquals(0L, report.getDelivered());
+        assertEquals(1L, report.getAbandoned());
+        assertEquals(0L, report.getPending());
+    }
+
+    @Test
+    public void shouldSuppressPassiveChecksOfServiceInStorm() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingPassiveCheckSender recorder = new RecordingPassiveCheckSender();
+
+        sender = new NonBlockingNagiosPassiveCheckSender(recorder);
+        sender.setExecutor(blockedExecutor(release));
+        sender.setStormProtection(new StormProtection().withBurst(2));
+        for (int i = 0; i < 10; i++) {
+            sender.send(new MessagePayload("localhost", Level.CRITICAL, "disk", "disk full"));
+        }
+        sender.send(new MessagePayload("localhost", Level.OK, "load", "ok"));
+        release.countDown();
+        awaitEmptyQueue();
+
+        assertEquals(Arrays.asList("disk", "disk", "load"), recorder.sent);
+        assertEquals(8L, sender.getMetrics().getSuppressed());
+    }
+
+    private void awaitEmptyQueue() throws InterruptedException {
+        for (int i = 0; i < 500 && sender.getMetrics().getQueueDepth() > 0; i++) {
+            Thread.sleep(10L);
+        }
+    }
+
+    /**
+     * An executor whose single daemon thread is busy until released
+     */
+    private static ExecutorService blockedExecutor(final CountDownLatch release) {
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.execute(awaiting(release));
+        return executor;
+    }
+
+    private static Runnable awaiting(final CountDownLatch release) {
+        return new Runnable() {
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException ignore) {
+                }
+            }
+        };
+    }
+
+    private static class RecordingPassiveCheckSender implements PassiveCheckSender {
+
+        private final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+
+        public void send(MessagePayload payload) throws NagiosException, IOException {
+            sent.add(payload.getServiceName());
+        }
+    }
+
     private static class SlowNagiosPassiveCheckSender implements PassiveCheckSender {
 
         public void send(MessagePayload payload) throws NagiosException, IOException {
@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapQueueTest {
+
+    @Test
+    public void shouldReturnPassiveChecksInOrderTheyWereQueued() throws Exception {
+        OffHeapQueue queue = new OffHeapQueue(4096);
+        queue.offer(new QueuedCheck(new MessagePayload("host", Level.CRITICAL, "database", "déjà vu"), null, 42L, 7L));
+        queue.offer(new QueuedCheck(MessagePayload.forHostCheck("host", Level.OK, null), null));
+
+        assertEquals(2, queue.size());
+        QueuedCheck service = queue.poll();
+        assertEquals("host", service.payload.getHostname());
+        assertEquals(Level.CRITICAL, service.payload.getLevel());
+        assertEquals("database", service.payload.getServiceName());
+        assertEquals("déjà vu", service.payload.getMessage());
+        assertEquals(42L, service.expiresAt);
+        assertEquals(7L, service.queuedAt);
+
+        QueuedCheck host = queue.poll();
+        assertTrue(host.payload.isHostCheck());
+        assertNull(host.payload.getMessage());
+        assertEquals(QueuedCheck.NEVER, host.expiresAt);
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void shouldRefusePassiveCheckWhenFull() throws Exception {
+        OffHeapQueue queue = new OffHeapQueue(4096);
+        int offered = 0;
+        while (queue.offer(check(offered))) {
+            offered++;
+        }
+
+        assertEquals(offered, queue.size());
+        queue.poll();
+        assertTrue(queue.offer(check(offered)));
+        assertFalse(queue.offer(check(offered + 1)));
+    }
+
+    @Test
+    public void shouldWrapAroundEndOfBuffer() throws Exception {
+        OffHeapQueue queue = new OffHeapQueue(4096);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(queue.offer(check(i)));
+        }
+        for (int i = 10; i < 1000; i++) {
+            assertTrue(queue.offer(check(i)));
+            assertEquals(name(i - 10), queue.poll().payload.getServiceName());
+        }
+
+        assertEquals(10, queue.size());
+        for (int i = 990; i < 1000; i++) {
+            assertEquals(name(i), queue.poll().payload.getServiceName());
+        }
+    }
+
+    @Test
+    public void shouldRemoveOnlyPassiveCheckOfferedLast() throws Exception {
+        OffHeapQueue queue = new OffHeapQueue(4096);
+        QueuedCheck first = check(0);
+        QueuedCheck second = check(1);
+        queue.offer(first);
+        queue.offer(second);
+
+        assertFalse(queue.remove(first));
+        assertTrue(queue.remove(second));
+        assertEquals(1, queue.size());
+        assertTrue(queue.offer(check(2)));
+        assertEquals(name(0), queue.poll().payload.getServiceName());
+        assertEquals(name(2), queue.poll().payload.getServiceName());
+    }
+
+    private static QueuedCheck check(int i) {
+        return new QueuedCheck(new MessagePayload("localhost", Level.OK, name(i), "message"), null);
+    }
+
+    private static String name(int i) {
+        return String.format("service %04d", i);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class PacketBufferPoolTest {
+
+    @Test
+    public void shouldReuseReleasedBufferZeroFilled() throws Exception {
+        PacketBufferPool pool = new PacketBufferPool(1);
+        byte[] buffer = pool.acquire(4);
+        buffer[0] = 42;
+        pool.release(buffer);
+
+        assertSame(buffer, pool.acquire(4));
+        assertArrayEquals(new byte[4], buffer);
+    }
+
+    @Test
+    public void shouldLeaveBufferReleasedToFullPool() throws Exception {
+        PacketBufferPool pool = new PacketBufferPool(1);
+        byte[] pooled = new byte[4];
+        byte[] discarded = { 1, 2, 3, 4 };
+        pool.release(pooled);
+        pool.release(discarded);
+
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, discarded);
+        assertSame(pooled, pool.acquire(4));
+        assertNotSame(discarded, pool.acquire(4));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Test;
+
+import com.googlecode.jsendnsca.builders.NagiosSettingsBuilder;
+
+public class PassiveCheckBytesBuilderTest {
+
+    private static final int CRC_OFFSET = 4;
+
+    @Test
+    public void shouldWriteCRCOfWholePacket() throws Exception {
+        assertCRCOfWholePacket(new NagiosSettings(), "Test Message");
+    }
+
+    @Test
+    public void shouldWriteCRCOfWholePacketWithLargeMessageSupport() throws Exception {
+        assertCRCOfWholePacket(new NagiosSettingsBuilder().withLargeMessageSupportEnabled().create(), "Test Message");
+    }
+
+    @Test
+    public void shouldWriteCRCOfWholePacketWithEmptyMessage() throws Exception {
+        assertCRCOfWholePacket(new NagiosSettings(), "");
+    }
+
+    @Test
+    public void shouldSendSmallPacketForShortMessageWithAdaptiveMessageSupport() throws Exception {
+        final NagiosSettings settings = new NagiosSettingsBuilder().withAdaptiveMessageSupportEnabled().create();
+
+        assertEquals(720L, (long) packetFor(settings, "Test Message").length);
+    }
+
+    @Test
+    public void shouldSendLargePacketForLongMessageWithAdaptiveMessageSupport() throws Exception {
+        final NagiosSettings settings = new NagiosSettingsBuilder().withAdaptiveMessageSupportEnabled().create();
+
+        assertEquals(720L, (long) packetFor(settings, StringUtils.repeat("X", 511)).length);
+        assertEquals(4304L, (long) packetFor(settings, StringUtils.repeat("X", 512)).length);
+    }
+
+    @Test
+    public void shouldSendLargePacketForMultiByteMessageWithAdaptiveMessageSupport() throws Exception {
+        final NagiosSettings settings = new NagiosSettingsBuilder()
+            .withAdaptiveMessageSupportEnabled()
+            .withCharset(Charset.forName("UTF-8"))
+            .create();
+
+        assertEquals(720L, (long) packetFor(settings, StringUtils.repeat("\u00e9", 255)).length);
+        assertEquals(4304L, (long) packetFor(settings, StringUtils.repeat("\u00e9", 256)).length);
+    }
+
+    @Test
+    public void shouldWriteCRCOfWholePacketWhenGrownWithAdaptiveMessageSupport() throws Exception {
+        assertCRCOfWholePacket(new NagiosSettingsBuilder().withAdaptiveMessageSupportEnabled().create(), StringUtils.repeat("X", 1000));
+    }
+
+    private static byte[] packetFor(NagiosSettings settings, String message) {
+        return new PassiveCheckBytesBuilder(settings)
+            .withTimeStamp(1234567890)
+            .withLevel(Level.OK)
+            .withHostname("localhost")
+            .withServiceName("Test Service Name")
+            .withMessage(message)
+            .toByteArray();
+    }
+
+    private static void assertCRCOfWholePacket(NagiosSettings settings, String message) {
+        final byte[] bytes = new PassiveCheckBytesBuilder(settings)
+            .withTimeStamp(1234567890)
+            .withLevel(Level.CRITICAL)
+            .withHostname("localhost")
+            .withServiceName("Test Service Name")
+            .withMessage(message)
+            .writeCRC()
+            .toByteArray();
+
+        final int written = readInteger(bytes, CRC_OFFSET);
+        bytes[CRC_OFFSET] = bytes[CRC_OFFSET + 1] = bytes[CRC_OFFSET + 2] = bytes[CRC_OFFSET + 3] = 0;
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        assertEquals((int) crc.getValue(), written);
+    }
+
+    private static int readInteger(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8 | bytes[offset + 3] & 0xFF;
+    }
+}
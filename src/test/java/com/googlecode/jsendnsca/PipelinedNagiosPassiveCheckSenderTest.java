@@ -0,0 +1,184 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import com.googlecode.jsendnsca.builders.MessagePayloadBuilder;
+import com.googlecode.jsendnsca.builders.NagiosSettingsBuilder;
+import com.googlecode.jsendnsca.mocks.NagiosNscaStub;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.googlecode.jsendnsca.encryption.Encryption.XOR;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class PipelinedNagiosPassiveCheckSenderTest {
+
+    @SuppressWarnings({"PublicField"})
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    private static final String PASSWORD = "password";
+
+    private NagiosNscaStub stub;
+    private NagiosSettings settings;
+    private PipelinedNagiosPassiveCheckSender sender;
+
+    @Before
+    public void startMockDaemon() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0);
+        int port = serverSocket.getLocalPort();
+        serverSocket.close();
+        stub = new NagiosNscaStub(port, PASSWORD);
+        stub.start();
+
+        settings = new NagiosSettingsBuilder()
+                .withPort(port)
+                .withPassword(PASSWORD)
+                .withEncryption(XOR)
+                .create();
+        sender = new PipelinedNagiosPassiveCheckSender(settings, 2, 2, 4);
+    }
+
+    @After
+    public void stopMockDaemon() throws Exception {
+        sender.shutdown();
+        stub.stop();
+    }
+
+    @Test
+    public void shouldSendAllPassiveChecksThroughPipeline() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            sender.send(payload("Test Message " + i));
+        }
+
+        Thread.sleep(500L);
+
+        assertEquals(20L, (long) stub.getMessagePayloadList().size());
+        assertThat(stub.getMessagePayloadList(), hasItem(payload("Test Message 19")));
+        assertEquals(0L, (long) (sender.getEncodeQueueDepth() + sender.getHandshakeQueueDepth() + sender.getSealQueueDepth() + sender.getWriteQueueDepth()));
+    }
+
+    @Test
+    public void shouldKeepNoMoreConnectionsOpenThanIoThreads() throws Exception {
+        PipelinedNagiosPassiveCheckSender narrowSender = new PipelinedNagiosPassiveCheckSender(settings, 4, 1, 256);
+        for (int i = 0; i < 200; i++) {
+            narrowSender.send(payload("Test Message " + i));
+        }
+
+        int maxConnections = 0;
+        while (narrowSender.getMetrics().getQueueDepth() > 0) {
+            maxConnections = Math.max(maxConnections, narrowSender.getMetrics().getInFlightConnections());
+        }
+        narrowSender.close();
+
+        assertThat(maxConnections, lessThanOrEqualTo(1));
+        assertTrue(stub.awaitPacketCount(200, 5000));
+    }
+
+    @Test
+    public void shouldCloseAtOnceWhenNothingWasSent() throws Exception {
+        PipelinedNagiosPassiveCheckSender idleSender = new PipelinedNagiosPassiveCheckSender(settings, 2, 2, 4);
+
+        long start = System.nanoTime();
+        DeliveryReport report = idleSender.close(5, TimeUnit.SECONDS);
+
+        assertThat(System.nanoTime() - start, lessThan(TimeUnit.SECONDS.toNanos(1)));
+        assertEquals(0L, report.getDelivered());
+    }
+
+    @Test
+    public void shouldSendOnDaemonThreads() throws Exception {
+        sender.send(payload("Test Message"));
+
+        int workers = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("jsendnsca-encode-")) {
+                assertTrue(thread.isDaemon());
+                workers++;
+            }
+        }
+        assertThat(workers, greaterThan(0));
+        assertTrue(stub.awaitPacketCount(1, 5000));
+    }
+
+    @Test
+    public void shouldRejectPassiveChecksOnceShutdown() throws Exception {
+        expectedException.expect(RejectedExecutionException.class);
+
+        sender.shutdown();
+        sender.send(payload("Test Message"));
+    }
+
+    @Test
+    public void shouldDeliverQueuedPassiveChecksWhenClosed() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            sender.send(payload("Test Message " + i));
+        }
+
+        DeliveryReport report = sender.close(5, TimeUnit.SECONDS);
+
+        assertEquals(0L, report.getPending());
+        assertEquals(0L, report.getAbandoned());
+        assertEquals(0, sender.getMetrics().getQueueDepth());
+        stub.awaitPacketCount(20, 5000);
+        assertEquals(20L, stub.getPacketCount());
+    }
+
+    @Test
+    public void shouldSpoolPassiveChecksLeftInPipelineWhenCloseTimesOut() throws Exception {
+        File file = File.createTempFile("jsendnsca", ".spool");
+        file.delete();
+        FileSpoolStore spoolStore = new FileSpoolStore(file);
+        stub.setSimulateTimeoutInMs(1000);
+        PipelinedNagiosPassiveCheckSender slowSender = new PipelinedNagiosPassiveCheckSender(settings, 1, 1, 32);
+        slowSender.setSpoolStore(spoolStore);
+        for (int i = 0; i < 10; i++) {
+            slowSender.send(payload("Test Message " + i));
+        }
+
+        DeliveryReport report = slowSender.close(200, TimeUnit.MILLISECONDS);
+
+        assertThat(report.getSpooled(), greaterThan(0L));
+        assertEquals(10L, report.getSpooled() + report.getPending());
+        assertEquals(report.getSpooled(), (long) spoolStore.recover().size());
+
+        // the passive check in the handshake is spilled once it completes
+        Thread.sleep(1500L);
+        assertEquals(0, slowSender.getMetrics().getQueueDepth());
+        assertEquals(1L, (long) spoolStore.recover().size());
+    }
+
+    private static MessagePayload payload(String message) {
+        return new MessagePayloadBuilder()
+                .withHostname("localhost")
+                .withLevel(Level.OK)
+                .withServiceName("Test Service Name")
+                .withMessage(message)
+                .create();
+    }
+}
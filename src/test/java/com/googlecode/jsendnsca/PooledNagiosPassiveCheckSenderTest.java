@@ -0,0 +1,197 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.ServerSocket;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.googlecode.jsendnsca.builders.NagiosSettingsBuilder;
+import com.googlecode.jsendnsca.encryption.Encryption;
+import com.googlecode.jsendnsca.metrics.SenderMetrics.Phase;
+import com.googlecode.jsendnsca.mocks.NagiosNscaStub;
+
+public class PooledNagiosPassiveCheckSenderTest {
+
+    @SuppressWarnings({"PublicField"})
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    private static final String HOSTNAME = "localhost";
+    private static final String PASSWORD = "password";
+
+    private NagiosNscaStub stub;
+    private int port;
+
+    @Before
+    public void startStub() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0);
+        port = serverSocket.getLocalPort();
+        serverSocket.close();
+        stub = new NagiosNscaStub(port, PASSWORD);
+        stub.start();
+    }
+
+    @After
+    public void stopStub() throws Exception {
+        stub.stop();
+    }
+
+    @Test
+    public void shouldSendWithAdaptiveConcurrency() throws Exception {
+        final PooledNagiosPassiveCheckSender sender = new PooledNagiosPassiveCheckSender(settings(Encryption.XOR));
+        stub.setEncryption(Encryption.XOR);
+        sender.setAdaptiveConcurrency(true);
+        assertEquals(1, sender.getConcurrencyLimit());
+
+        for (int i = 0; i < 5; i++) {
+            sender.send(payload("adaptive " + i));
+        }
+        sender.close();
+
+        assertTrue(stub.awaitPacketCount(5, 5000));
+        assertEquals(5L, sender.getMetrics().getSent());
+    }
+
+    @Test
+    public void shouldSendManyPassiveChecksOverOneConnectionWithEveryEncryption() throws Exception {
+        for (Encryption encryption : Encryption.values()) {
+            stub.setEncryption(encryption);
+            final PooledNagiosPassiveCheckSender sender = new PooledNagiosPassiveCheckSender(settings(encryption));
+
+            final long packetCount = stub.getPacketCount();
+            for (int i = 0; i < 5; i++) {
+                sender.send(payload(encryption + " " + i));
+            }
+            sender.close();
+
+            assertTrue(encryption.name(), stub.awaitPacketCount(packetCount + 5, 5000));
+            assertThat(stub.getMessagePayloadList(), hasItem(payload(encryption + " 4")));
+            assertEquals(encryption.name(), 1L, sender.getMetrics().getLatency(Phase.CONNECT).getCount());
+        }
+        assertEquals(0L, stub.getInvalidPacketCount());
+    }
+
+    @Test
+    public void shouldOpenNewConnectionAfterMaxPacketsPerSession() throws Exception {
+        final PooledNagiosPassiveCheckSender sender = new PooledNagiosPassiveCheckSender(settings(Encryption.XOR), 1, 2, 5000);
+
+        for (int i = 0; i < 5; i++) {
+            sender.send(payload("message " + i));
+        }
+
+        assertEquals(3L, sender.getMetrics().getLatency(Phase.CONNECT).getCount());
+        assertEquals(1, sender.getIdleSessionCount());
+        sender.close();
+        assertEquals(0, sender.getIdleSessionCount());
+        assertTrue(stub.awaitPacketCount(5, 5000));
+    }
+
+    @Test
+    public void shouldNotReuseIdleConnection() throws Exception {
+        final PooledNagiosPassiveCheckSender sender = new PooledNagiosPassiveCheckSender(settings(Encryption.XOR), 1, 100, 0);
+
+        sender.send(payload("first"));
+        Thread.sleep(5);
+        sender.send(payload("second"));
+        sender.close();
+
+        assertEquals(2L, sender.getMetrics().getLatency(Phase.CONNECT).getCount());
+        assertTrue(stub.awaitPacketCount(2, 5000));
+    }
+
+    @Test
+    public void shouldSendEveryPacketAtTheLargestSizeWithAdaptiveMessageSupport() throws Exception {
+        stub.turnOnLargeMessageSupportAsInNsca291();
+        final NagiosSettings settings = settings(Encryption.TRIPLE_DES);
+        settings.enableAdaptiveMessageSupport();
+        stub.setEncryption(Encryption.TRIPLE_DES);
+        final PooledNagiosPassiveCheckSender sender = new PooledNagiosPassiveCheckSender(settings);
+
+        sender.send(payload("short"));
+        sender.send(payload(StringUtils.repeat("x", 2000)));
+        sender.send(payload("short again"));
+        sender.close();
+
+        assertTrue(stub.awaitPacketCount(3, 5000));
+        assertEquals(0L, stub.getInvalidPacketCount());
+        assertThat(stub.getMessagePayloadList(), hasItem(payload(StringUtils.repeat("x", 2000))));
+    }
+
+    @Test
+    public void shouldSendPassiveHostCheck() throws Exception {
+        final PooledNagiosPassiveCheckSender sender = new PooledNagiosPassiveCheckSender(settings(Encryption.XOR));
+        final MessagePayload hostCheck = MessagePayload.forHostCheck(HOSTNAME, Level.CRITICAL, "unreachable");
+
+        sender.send(hostCheck);
+        sender.close();
+
+        assertTrue(stub.awaitPacketCount(1, 5000));
+        assertThat(stub.getMessagePayloadList(), hasItem(hostCheck));
+        assertTrue(stub.getMessagePayloadList().get(0).isHostCheck());
+    }
+
+    @Test
+    public void shouldRejectPassiveCheckAfterClose() throws Exception {
+        final PooledNagiosPassiveCheckSender sender = new PooledNagiosPassiveCheckSender(settings(Encryption.XOR));
+        sender.close();
+
+        expectedException.expect(RejectedExecutionException.class);
+        expectedException.expectMessage("sender has been closed");
+
+        sender.send(payload("late"));
+    }
+
+    @Test
+    public void shouldThrowNagiosSendExceptionAndCloseConnectionOnFailure() throws Exception {
+        stub.setSendInitialisationVector(false);
+        final PooledNagiosPassiveCheckSender sender = new PooledNagiosPassiveCheckSender(settings(Encryption.XOR));
+
+        try {
+            sender.send(payload("no handshake"));
+            fail("expected the handshake to fail");
+        } catch (NagiosSendException e) {
+            assertEquals(FailureCause.HANDSHAKE, e.getFailureCause());
+        }
+
+        assertEquals(0, sender.getIdleSessionCount());
+        assertEquals(1L, sender.getMetrics().getFailed());
+        assertEquals(0, sender.getMetrics().getInFlightConnections());
+    }
+
+    private NagiosSettings settings(Encryption encryption) {
+        return new NagiosSettingsBuilder()
+                .withNagiosHost(HOSTNAME)
+                .withPort(port)
+                .withPassword(PASSWORD)
+                .withEncryption(encryption)
+                .create();
+    }
+
+    private static MessagePayload payload(String message) {
+        return new MessagePayload(HOSTNAME, Level.WARNING, "service", message);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.googlecode.jsendnsca.RateLimit.Policy;
+import com.googlecode.jsendnsca.builders.NagiosSettingsBuilder;
+
+public class RateLimitTest {
+
+    @SuppressWarnings({"PublicField"})
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void shouldDropPacketsOverBurstOfPacketsPerSecond() throws Exception {
+        RateLimit rateLimit = new RateLimit()
+            .withPacketsPerSecond(10)
+            .withPolicy(Policy.DROP);
+
+        int admitted = 0;
+        for (int i = 0; i < 20; i++) {
+            if (rateLimit.admit(1, 720)) {
+                admitted++;
+            }
+        }
+        assertEquals(10, admitted);
+    }
+
+    @Test
+    public void shouldDropPacketsOverBytesPerSecond() throws Exception {
+        RateLimit rateLimit = new RateLimit()
+            .withBytesPerSecond(7200)
+            .withBurst(0, TimeUnit.SECONDS)
+            .withPolicy(Policy.DROP);
+
+        assertTrue(rateLimit.admit(1, 720));
+        assertFalse(rateLimit.admit(1, 720));
+    }
+
+    @Test
+    public void shouldAdmitPacketBiggerThanBurstOnceBucketIsFull() throws Exception {
+        RateLimit rateLimit = new RateLimit()
+            .withBytesPerSecond(100)
+            .withPolicy(Policy.DROP);
+
+        assertTrue(rateLimit.admit(1, 4304));
+        assertFalse(rateLimit.admit(1, 720));
+    }
+
+    @Test
+    public void shouldWaitForBucketToRefill() throws Exception {
+        RateLimit rateLimit = new RateLimit()
+            .withPacketsPerSecond(100)
+            .withBurst(0, TimeUnit.SECONDS);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 11; i++) {
+            assertTrue(rateLimit.admit(1, 720));
+        }
+        assertThat(System.nanoTime() - start, greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(90)));
+    }
+
+    @Test
+    public void shouldRejectPassiveCheckOverRateLimit() throws Exception {
+        RateLimit rateLimit = new RateLimit()
+            .withPacketsPerSecond(1)
+            .withBurst(0, TimeUnit.SECONDS)
+            .withPolicy(Policy.DROP);
+        rateLimit.admit(1, 720);
+        NagiosPassiveCheckSender sender = new NagiosPassiveCheckSender(new NagiosSettingsBuilder()
+            .withRateLimit(rateLimit)
+            .create());
+
+        try {
+            expectedException.expect(RateLimitExceededException.class);
+            expectedException.expectMessage("rate limit exceeded");
+
+            sender.send(new MessagePayload());
+        } finally {
+            assertEquals(1L, sender.getMetrics().getDropped());
+        }
+    }
+
+    @Test
+    public void shouldReportPassiveCheckDroppedByQueuedSenderAsAbandoned() throws Exception {
+        RateLimit rateLimit = new RateLimit()
+            .withPacketsPerSecond(1)
+            .withBurst(0, TimeUnit.SECONDS)
+            .withPolicy(Policy.DROP);
+        rateLimit.admit(1, 720);
+        final List<FailureCause> causes = Collections.synchronizedList(new ArrayList<FailureCause>());
+        NonBlockingNagiosPassiveCheckSender sender = new NonBlockingNagiosPassiveCheckSender(new NagiosSettingsBuilder()
+            .withRateLimit(rateLimit)
+            .create());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+        sender.setExecutor(executor);
+        sender.setSendFailureListener(new SendFailureListener() {
+            public void onFailure(MessagePayload payload, FailureCause cause, Exception exception) {
+                causes.add(cause);
+            }
+        });
+
+        try {
+            sender.send(new MessagePayload());
+            DeliveryReport report = sender.flush(5, TimeUnit.SECONDS);
+
+            assertEquals(1L, report.getAbandoned());
+            assertEquals(0L, report.getPending());
+            assertEquals(Collections.singletonList(FailureCause.RATE_LIMIT), causes);
+            assertEquals(1L, sender.getMetrics().getDropped());
+            assertTrue(sender.getLastFailure(FailureCause.RATE_LIMIT) instanceof RateLimitExceededException);
+        } finally {
+            release.countDown();
+            sender.close();
+        }
+    }
+}
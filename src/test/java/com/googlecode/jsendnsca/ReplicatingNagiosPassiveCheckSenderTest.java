@@ -0,0 +1,134 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.googlecode.jsendnsca.builders.MessagePayloadBuilder;
+import com.googlecode.jsendnsca.builders.NagiosSettingsBuilder;
+import com.googlecode.jsendnsca.encryption.Encryption;
+import com.googlecode.jsendnsca.mocks.NagiosNscaStub;
+
+public class ReplicatingNagiosPassiveCheckSenderTest {
+
+    @SuppressWarnings({"PublicField"})
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    private NagiosNscaStub firstStub;
+    private NagiosNscaStub secondStub;
+    private int firstPort;
+    private int secondPort;
+
+    @Before
+    public void startMockDaemons() throws Exception {
+        firstPort = freePort();
+        secondPort = freePort();
+        firstStub = new NagiosNscaStub(firstPort, "first");
+        firstStub.start();
+        secondStub = new NagiosNscaStub(secondPort, "second");
+        secondStub.setEncryption(Encryption.TRIPLE_DES);
+        secondStub.start();
+    }
+
+    @After
+    public void stopMockDaemons() throws Exception {
+        firstStub.stop();
+        secondStub.stop();
+    }
+
+    @Test
+    public void shouldThrowIllegalArgExceptionOnReplicasEncodingDifferently() {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("replicas must have the same charset and message sizes");
+
+        new ReplicatingNagiosPassiveCheckSender(new NagiosSettings(), new NagiosSettingsBuilder()
+            .withLargeMessageSupportEnabled()
+            .create());
+    }
+
+    @Test
+    public void shouldDeliverToEveryReplicaWithItsOwnEncryption() throws Exception {
+        ReplicatingNagiosPassiveCheckSender sender = new ReplicatingNagiosPassiveCheckSender(
+            settings(firstPort, "first", Encryption.XOR),
+            settings(secondPort, "second", Encryption.TRIPLE_DES));
+
+        for (int i = 0; i < 10; i++) {
+            sender.send(payload(i));
+        }
+        List<DeliveryReport> reports = sender.closeEach(5, TimeUnit.SECONDS);
+
+        assertTrue(firstStub.awaitPacketCount(10, 1000));
+        assertTrue(secondStub.awaitPacketCount(10, 1000));
+        assertEquals(0L, firstStub.getInvalidPacketCount());
+        assertEquals(0L, secondStub.getInvalidPacketCount());
+        assertEquals("service 9", secondStub.getMessagePayloadList().get(9).getServiceName());
+        assertEquals(0L, reports.get(0).getPending());
+        assertEquals(0L, reports.get(1).getPending());
+        assertEquals(10L, sender.getMetrics(0).getSent());
+        assertEquals(10L, sender.getMetrics(1).getSent());
+    }
+
+    @Test
+    public void shouldKeepDeliveringToOtherReplicasWhenOneIsDown() throws Exception {
+        ReplicatingNagiosPassiveCheckSender sender = new ReplicatingNagiosPassiveCheckSender(
+            settings(freePort(), "first", Encryption.XOR),
+            settings(secondPort, "second", Encryption.TRIPLE_DES));
+
+        for (int i = 0; i < 5; i++) {
+            sender.send(payload(i));
+        }
+        List<DeliveryReport> reports = sender.closeEach(5, TimeUnit.SECONDS);
+
+        assertTrue(secondStub.awaitPacketCount(5, 1000));
+        assertEquals(0L, reports.get(0).getPending());
+        assertEquals(5L, sender.getMetrics(0).getFailed());
+        assertEquals(5L, sender.getMetrics(1).getSent());
+    }
+
+    private static MessagePayload payload(int i) {
+        return new MessagePayloadBuilder()
+            .withHostname("localhost")
+            .withServiceName("service " + i)
+            .withMessage("message " + i)
+            .create();
+    }
+
+    private static NagiosSettings settings(int port, String password, Encryption encryption) {
+        return new NagiosSettingsBuilder()
+            .withNagiosHost("localhost")
+            .withPort(port)
+            .withPassword(password)
+            .withEncryption(encryption)
+            .create();
+    }
+
+    private static int freePort() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0);
+        int port = serverSocket.getLocalPort();
+        serverSocket.close();
+        return port;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class SendEventTest {
+
+    @Test
+    public void shouldShareEventWhenNotRecording() throws Exception {
+        for (SendEventType type : SendEventType.values()) {
+            assertSame(SendEvent.begin(SendEventType.ENCODE), SendEvent.begin(type));
+        }
+    }
+
+    @Test
+    public void shouldCommitWithoutSettings() throws Exception {
+        SendEvent.begin(SendEventType.QUEUE_WAIT).commit(null, 0);
+        SendEvent.begin(SendEventType.WRITE).commit(new NagiosSettings(), 720);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ServerSocket;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.jsendnsca.builders.NagiosSettingsBuilder;
+import com.googlecode.jsendnsca.encryption.Encryption;
+import com.googlecode.jsendnsca.metrics.SenderMetrics.Phase;
+import com.googlecode.jsendnsca.mocks.NagiosNscaStub;
+
+public class ShardedNagiosPassiveCheckSenderTest {
+
+    private static final String PASSWORD = "password";
+
+    private NagiosNscaStub stub;
+    private int port;
+
+    @Before
+    public void startStub() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0);
+        port = serverSocket.getLocalPort();
+        serverSocket.close();
+        stub = new NagiosNscaStub(port, PASSWORD);
+        stub.start();
+    }
+
+    @After
+    public void stopStub() throws Exception {
+        stub.stop();
+    }
+
+    @Test
+    public void shouldSendFromManyThreadsOverSharedConnections() throws Exception {
+        final ShardedNagiosPassiveCheckSender sender = new ShardedNagiosPassiveCheckSender(new NagiosSettingsBuilder()
+                .withPort(port)
+                .withPassword(PASSWORD)
+                .withEncryption(Encryption.XOR)
+                .create(), 2);
+        Thread[] producers = new Thread[4];
+        for (int t = 0; t < producers.length; t++) {
+            final String service = "service " + t;
+            producers[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 25; i++) {
+                            sender.send(new MessagePayload("localhost", Level.OK, service, "message " + i));
+                        }
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        DeliveryReport report = sender.close(10, TimeUnit.SECONDS);
+
+        assertEquals(0L, report.getPending());
+        assertTrue(stub.awaitPacketCount(100, 5000));
+        assertEquals(100L, sender.getMetrics().getSent());
+        assertEquals(0, sender.getMetrics().getQueueDepth());
+        assertThat(sender.getMetrics().getLatency(Phase.CONNECT).getCount(), lessThanOrEqualTo(2L));
+        assertEquals(0L, stub.getInvalidPacketCount());
+    }
+
+    @Test
+    public void shouldGiveEachShardMetricsOfItsOwn() throws Exception {
+        NagiosSettings settings = new NagiosSettingsBuilder().withPort(port).withPassword(PASSWORD).create();
+        PooledNagiosPassiveCheckSender pool = new PooledNagiosPassiveCheckSender(settings, 2, 1000, 5000);
+        SenderShards pooled = new SenderShards(pool, 2);
+        SenderShards own = new SenderShards(settings, 2);
+        try {
+            assertNotSame(pooled.getQueueMetrics(0), pooled.getQueueMetrics(1));
+            assertNotSame(pool.getMetrics(), pooled.getQueueMetrics(0));
+            assertNotSame(own.getQueueMetrics(0), own.getQueueMetrics(1));
+
+            pooled.getQueueMetrics(0).recordDropped();
+            pooled.getQueueMetrics(1).recordDropped();
+            pool.getMetrics().recordSent();
+
+            assertEquals(2L, pooled.getMetrics().getDropped());
+            assertEquals(1L, pooled.getMetrics().getSent());
+        } finally {
+            pooled.shutdown();
+            own.shutdown();
+            pool.close();
+        }
+    }
+
+    @Test
+    public void shouldRouteEachThreadToOneShard() throws Exception {
+        Set<Integer> shards = new HashSet<Integer>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread();
+            assertEquals(ShardedNagiosPassiveCheckSender.shardOf(thread, 4), ShardedNagiosPassiveCheckSender.shardOf(thread, 4));
+            shards.add(ShardedNagiosPassiveCheckSender.shardOf(thread, 4));
+        }
+        assertEquals(4, shards.size());
+    }
+}
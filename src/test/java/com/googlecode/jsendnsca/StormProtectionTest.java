@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class StormProtectionTest {
+
+    @SuppressWarnings({"PublicField"})
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void shouldSuppressPassiveChecksOverBurstAndReportThemWithNextPassiveCheck() throws Exception {
+        StormProtection protection = new StormProtection()
+            .withResultsPerSecond(20)
+            .withBurst(2);
+
+        assertEquals(0, protection.admit("localhost", "disk", Level.CRITICAL));
+        assertEquals(0, protection.admit("localhost", "disk", Level.CRITICAL));
+        for (int i = 0; i < 3; i++) {
+            assertNull(protection.admit(new MessagePayload("localhost", Level.CRITICAL, "disk", "disk full")));
+        }
+        Thread.sleep(60L);
+
+        MessagePayload payload = protection.admit(new MessagePayload("localhost", Level.CRITICAL, "disk", "disk full"));
+        assertEquals("disk full (3 further results suppressed)", payload.getMessage());
+        assertEquals(Level.CRITICAL, payload.getLevel());
+        assertEquals("disk", payload.getServiceName());
+    }
+
+    @Test
+    public void shouldAlwaysLetStateChangesThrough() throws Exception {
+        StormProtection protection = new StormProtection().withBurst(1);
+
+        assertEquals(0, protection.admit("localhost", "disk", Level.OK));
+        assertEquals(-1, protection.admit("localhost", "disk", Level.OK));
+        assertEquals(1, protection.admit("localhost", "disk", Level.CRITICAL));
+        assertEquals(-1, protection.admit("localhost", "disk", Level.CRITICAL));
+        assertEquals(1, protection.admit("localhost", "disk", Level.OK));
+    }
+
+    @Test
+    public void shouldLimitEachServiceSeparately() throws Exception {
+        StormProtection protection = new StormProtection().withBurst(1);
+        MessagePayload load = new MessagePayload("localhost", Level.WARNING, "load", "high");
+
+        assertEquals(0, protection.admit("localhost", "disk", Level.OK));
+        assertEquals(-1, protection.admit("localhost", "disk", Level.OK));
+        assertSame(load, protection.admit(load));
+        assertEquals(0, protection.admit("otherhost", "disk", Level.OK));
+    }
+
+    @Test
+    public void shouldNotShareBucketBetweenServicesWithCollidingHashCodes() throws Exception {
+        StormProtection protection = new StormProtection().withBurst(1);
+
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertEquals(0, protection.admit("localhost", "Aa", Level.OK));
+        assertEquals(0, protection.admit("localhost", "BB", Level.OK));
+        assertEquals(-1, protection.admit("localhost", "Aa", Level.OK));
+        assertEquals(-1, protection.admit("localhost", "BB", Level.OK));
+    }
+
+    @Test
+    public void shouldRejectChangeOnceInUse() throws Exception {
+        StormProtection protection = new StormProtection();
+        protection.admit("localhost", "disk", Level.OK);
+
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("storm protection cannot be changed once in use");
+
+        protection.withBurst(10);
+    }
+
+    @Test
+    public void shouldForgetLeastRecentlySeenServicesWhenFull() throws Exception {
+        StormProtection protection = new StormProtection()
+            .withBurst(1)
+            .withMaxServices(16);
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, protection.admit("localhost", "service " + i, Level.OK));
+        }
+        assertEquals(-1, protection.admit("localhost", "service 999", Level.OK));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.googlecode.jsendnsca.builders.MessagePayloadBuilder;
+
+public class SummarisingFailureListenerTest {
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final MessagePayload payload = new MessagePayloadBuilder()
+            .withHostname("somehost")
+            .withServiceName("someservice")
+            .create();
+
+    @Test
+    public void shouldPrintFirstFailureOfEachCause() throws Exception {
+        SummarisingFailureListener listener = new SummarisingFailureListener(new PrintStream(output), 1, TimeUnit.HOURS);
+
+        listener.onFailure(payload, FailureCause.CONNECT, new IOException("refused"));
+        listener.onFailure(payload, FailureCause.TIMEOUT, new IOException("timed out"));
+
+        assertThat(output.toString(), containsString("host [somehost] service [someservice] with cause CONNECT"));
+        assertThat(output.toString(), containsString("java.io.IOException: refused"));
+        assertThat(output.toString(), containsString("java.io.IOException: timed out"));
+    }
+
+    @Test
+    public void shouldSummariseRepeatedFailuresOfSameCause() throws Exception {
+        SummarisingFailureListener listener = new SummarisingFailureListener(new PrintStream(output), 100, TimeUnit.MILLISECONDS);
+
+        listener.onFailure(payload, FailureCause.CONNECT, new IOException("first"));
+        listener.onFailure(payload, FailureCause.CONNECT, new IOException("second"));
+        listener.onFailure(payload, FailureCause.CONNECT, new IOException("third"));
+        assertThat(output.toString(), not(containsString("second")));
+
+        Thread.sleep(150L);
+        listener.onFailure(payload, FailureCause.CONNECT, new IOException("fourth"));
+
+        assertThat(output.toString(), containsString("2 further passive checks failed with cause CONNECT"));
+        assertThat(output.toString(), containsString("java.io.IOException: fourth"));
+    }
+
+    @Test
+    public void shouldSummariseWithFailureOfAnotherCauseOnceIntervalHasPassed() throws Exception {
+        SummarisingFailureListener listener = new SummarisingFailureListener(new PrintStream(output), 100, TimeUnit.MILLISECONDS);
+
+        listener.onFailure(payload, FailureCause.CONNECT, new IOException("first"));
+        listener.onFailure(payload, FailureCause.CONNECT, new IOException("second"));
+
+        Thread.sleep(150L);
+        listener.onFailure(payload, FailureCause.TIMEOUT, new IOException("timed out"));
+
+        assertThat(output.toString(), containsString("1 further passive checks failed with cause CONNECT"));
+    }
+
+    @Test
+    public void shouldPrintSummariesWhenFlushed() throws Exception {
+        SummarisingFailureListener listener = new SummarisingFailureListener(new PrintStream(output), 1, TimeUnit.HOURS);
+
+        listener.onFailure(payload, FailureCause.CONNECT, new IOException("first"));
+        listener.onFailure(payload, FailureCause.CONNECT, new IOException("second"));
+        listener.onFailure(payload, FailureCause.CONNECT, new IOException("third"));
+        listener.flush();
+
+        assertThat(output.toString(), containsString("2 further passive checks failed with cause CONNECT"));
+        assertThat(output.toString(), not(containsString("second")));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca.cli;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.googlecode.jsendnsca.FailureCause;
+import com.googlecode.jsendnsca.NagiosSettings;
+import com.googlecode.jsendnsca.builders.NagiosSettingsBuilder;
+import com.googlecode.jsendnsca.cli.LoadGenerator.Mode;
+import com.googlecode.jsendnsca.encryption.Encryption;
+import com.googlecode.jsendnsca.mocks.NagiosNscaStub;
+
+public class LoadGeneratorTest {
+
+    @SuppressWarnings({"PublicField"})
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    private static final String PASSWORD = "password";
+    private static final long ONE_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private NagiosNscaStub stub;
+    private int port;
+
+    @Before
+    public void startStub() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0);
+        port = serverSocket.getLocalPort();
+        serverSocket.close();
+        stub = new NagiosNscaStub(port, PASSWORD);
+        stub.setRecordPayloads(false);
+        stub.start();
+    }
+
+    @After
+    public void stopStub() throws Exception {
+        stub.stop();
+    }
+
+    @Test
+    public void shouldSendBackToBackInClosedLoop() throws Exception {
+        LoadGenerator generator = new LoadGenerator(settings(port), Mode.CLOSED, 0, 2, ONE_SECOND, 5, 5, 10, 100);
+
+        generator.run(null);
+
+        assertThat(generator.getSent(), greaterThan(10L));
+        assertEquals(0L, generator.getFailed());
+        stub.awaitPacketCount(generator.getSent(), 1000);
+        assertEquals(generator.getSent(), stub.getPacketCount());
+        assertEquals(generator.getSent(), generator.getLatencies().getCount());
+    }
+
+    @Test
+    public void shouldSendAtFixedRateInOpenLoop() throws Exception {
+        LoadGenerator generator = new LoadGenerator(settings(port), Mode.OPEN, 50, 2, ONE_SECOND, 5, 5, 64, 64);
+
+        generator.run(null);
+
+        assertThat(generator.getSent(), is(both(greaterThan(40L)).and(lessThanOrEqualTo(50L))));
+        assertEquals(0L, generator.getDropped());
+    }
+
+    @Test
+    public void shouldReportFailuresByCause() throws Exception {
+        stub.stop();
+        LoadGenerator generator = new LoadGenerator(settings(port), Mode.OPEN, 20, 1, ONE_SECOND, 1, 1, 64, 64);
+
+        generator.run(null);
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        generator.printReport(new PrintStream(report));
+        stub.start();
+
+        assertEquals(0L, generator.getSent());
+        assertThat(generator.getFailures(FailureCause.CONNECT), greaterThan(0L));
+        assertThat(report.toString(), containsString("CONNECT"));
+    }
+
+    @Test
+    public void shouldCreateFromCommandLine() throws Exception {
+        LoadGenerator generator = LoadGenerator.fromCommandLine(new CommandLine(new String[] {
+            "--port", String.valueOf(port), "--password", PASSWORD, "--encryption", "xor",
+            "--mode=open", "--rate", "10", "--duration", "1", "--message-size", "10-600", "--large-messages"
+        }, "large-messages", "quiet"));
+
+        generator.run(null);
+
+        assertThat(generator.getSent(), greaterThan(5L));
+        assertEquals(0L, generator.getFailed());
+    }
+
+    @Test
+    public void shouldThrowIllegalArgumentExceptionForOpenLoopWithoutRate() throws Exception {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("open loop mode requires a rate greater than 0");
+
+        LoadGenerator.fromCommandLine(new CommandLine(new String[] { "--mode", "open" }));
+    }
+
+    @Test
+    public void shouldThrowIllegalArgumentExceptionForLargeMessagesWithoutLargeMessageSupport() throws Exception {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("use --large-messages");
+
+        LoadGenerator.fromCommandLine(new CommandLine(new String[] { "--message-size", "1000" }));
+    }
+
+    @Test
+    public void shouldThrowIllegalArgumentExceptionForUnknownEncryption() throws Exception {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Option [--encryption] must be one of");
+
+        LoadGenerator.fromCommandLine(new CommandLine(new String[] { "--encryption", "rot13" }));
+    }
+
+    @Test
+    public void shouldThrowIllegalArgumentExceptionForUnknownOption() throws Exception {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Unknown option [--bogus]");
+
+        LoadGenerator.fromCommandLine(new CommandLine(new String[] { "--bogus", "value" }));
+    }
+
+    private static NagiosSettings settings(int port) {
+        return new NagiosSettingsBuilder()
+                .withNagiosHost("localhost")
+                .withPort(port)
+                .withPassword(PASSWORD)
+                .withEncryption(Encryption.XOR)
+                .create();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Test;
+
+public class RecordReaderTest {
+
+    private static final char ETB = 0x17;
+
+    @Test
+    public void shouldSplitRecordsIntoFields() throws Exception {
+        RecordReader records = reader("host\tservice\t1\tmessage\nhost\t0\tup\n");
+
+        assertTrue(records.next());
+        assertEquals(4, records.getFieldCount());
+        assertEquals("host", records.getField(0));
+        assertEquals("service", records.getField(1));
+        assertEquals(1, records.getFieldAsInt(2));
+        assertEquals("message", records.getField(3));
+
+        assertTrue(records.next());
+        assertEquals(3, records.getFieldCount());
+        assertEquals(0, records.getFieldAsInt(1));
+        assertEquals("up", records.getField(2));
+        assertEquals(2L, records.getLineNumber());
+
+        assertFalse(records.next());
+    }
+
+    @Test
+    public void shouldKeepFurtherDelimitersInLastField() throws Exception {
+        RecordReader records = reader("host\tservice\t2\tmessage\twith\ttabs");
+
+        assertTrue(records.next());
+        assertEquals(4, records.getFieldCount());
+        assertEquals("message\twith\ttabs", records.getField(3));
+    }
+
+    @Test
+    public void shouldEndRecordsAtRecordDelimiterOrNewLineAndDropCarriageReturn() throws Exception {
+        RecordReader records = reader("a\t0\tone" + ETB + "b\t0\ttwo\r\n\n\nc\t0\tthree");
+
+        assertTrue(records.next());
+        assertEquals("one", records.getField(2));
+        assertTrue(records.next());
+        assertEquals("two", records.getField(2));
+        assertTrue(records.next());
+        assertEquals("three", records.getField(2));
+        assertEquals(5L, records.getLineNumber());
+        assertFalse(records.next());
+    }
+
+    @Test
+    public void shouldReadRecordsLongerThanTheBuffer() throws Exception {
+        String message = StringUtils.repeat("x", 20000);
+        RecordReader records = reader("host\t0\t" + message + "\nhost\t1\tshort\n");
+
+        assertTrue(records.next());
+        assertEquals(message, records.getField(2));
+        assertTrue(records.next());
+        assertEquals("short", records.getField(2));
+    }
+
+    @Test
+    public void shouldReadRecordsSpanningReads() throws Exception {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            input.append("host-").append(i).append("\tservice\t3\tmessage ").append(i).append('\n');
+        }
+        RecordReader records = reader(input.toString());
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(records.next());
+            assertEquals("host-" + i, records.getField(0));
+            assertEquals("message " + i, records.getField(3));
+        }
+        assertFalse(records.next());
+    }
+
+    @Test
+    public void shouldReturnMinusOneForFieldWhichIsNotANumber() throws Exception {
+        RecordReader records = reader("host\t x \t\t 2 ");
+
+        assertTrue(records.next());
+        assertEquals(-1, records.getFieldAsInt(1));
+        assertEquals(-1, records.getFieldAsInt(2));
+        assertEquals(2, records.getFieldAsInt(3));
+    }
+
+    private static RecordReader reader(String input) {
+        return new RecordReader(new StringReader(input), '\t', ETB);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca.cli;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.net.ServerSocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.googlecode.jsendnsca.Level;
+import com.googlecode.jsendnsca.MessagePayload;
+import com.googlecode.jsendnsca.encryption.Encryption;
+import com.googlecode.jsendnsca.metrics.SenderMetrics.Phase;
+import com.googlecode.jsendnsca.mocks.NagiosNscaStub;
+
+public class SendNscaTest {
+
+    private static final String PASSWORD = "password";
+
+    private NagiosNscaStub stub;
+    private int port;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    @Before
+    public void startStub() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0);
+        port = serverSocket.getLocalPort();
+        serverSocket.close();
+        stub = new NagiosNscaStub(port, PASSWORD);
+        stub.start();
+    }
+
+    @After
+    public void stopStub() throws Exception {
+        stub.stop();
+    }
+
+    @Test
+    public void shouldSendServiceAndHostChecksReadFromStandardInput() throws Exception {
+        int state = run("web1\thttp\t2\tHTTP CRITICAL\nweb1\t0\tPING OK\n",
+                "-H", "localhost", "-p", String.valueOf(port), "--password", PASSWORD, "--encryption", "xor");
+
+        assertEquals(SendNsca.STATE_OK, state);
+        assertEquals("2 data packet(s) sent to host successfully.", out.toString().trim());
+        assertTrue(stub.awaitPacketCount(2, 5000));
+        assertThat(stub.getMessagePayloadList(), hasItems(
+                new MessagePayload("web1", Level.CRITICAL, "http", "HTTP CRITICAL"),
+                MessagePayload.forHostCheck("web1", Level.OK, "PING OK")));
+    }
+
+    @Test
+    public void shouldSendOverOneConnectionWithSendNscaConfig() throws Exception {
+        stub.setEncryption(Encryption.TRIPLE_DES);
+        File config = File.createTempFile("send_nsca", ".cfg");
+        config.deleteOnExit();
+        FileWriter writer = new FileWriter(config);
+        writer.write("password=" + PASSWORD + "\nencryption_method=3\n");
+        writer.close();
+
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            input.append("host\tservice-").append(i).append("\t1\tmessage ").append(i).append('\n');
+        }
+        SendNsca sendNsca = SendNsca.fromCommandLine(new CommandLine(SendNsca.translate(new String[] {
+            "-H", "localhost", "-p", String.valueOf(port), "-c", config.getPath()
+        })), new PrintStream(err));
+        sendNsca.sendAll(new StringReader(input.toString()));
+
+        assertEquals(50L, sendNsca.getSent());
+        assertEquals(1L, sendNsca.getSender().getMetrics().getLatency(Phase.CONNECT).getCount());
+        assertTrue(stub.awaitPacketCount(50, 5000));
+        assertEquals(0L, stub.getInvalidPacketCount());
+    }
+
+    @Test
+    public void shouldReportInvalidAndFailedRecordsWithLineNumber() throws Exception {
+        int state = run("host\tservice\t0\tfine\nhost only\nhost\tservice\t7\tbad level\n\thttp\t0\tno host\n",
+                "-H", "localhost", "-p", String.valueOf(port), "--password", PASSWORD, "--encryption", "xor");
+
+        assertEquals(SendNsca.STATE_CRITICAL, state);
+        assertEquals("1 data packet(s) sent to host successfully.", out.toString().trim());
+        assertThat(err.toString(), containsString("Line 2: expected 3 fields for a host check or 4 for a service check, found 1"));
+        assertThat(err.toString(), containsString("Line 3: return code must be 0 to 3, was [7]"));
+        assertThat(err.toString(), containsString("Line 4: host name cannot be empty"));
+    }
+
+    @Test
+    public void shouldReportSendFailureWithLineNumber() throws Exception {
+        stub.stop();
+        try {
+            int state = run("host\tservice\t0\tnobody listening\n", "-H", "localhost", "-p", String.valueOf(port), "-to", "1");
+
+            assertEquals(SendNsca.STATE_CRITICAL, state);
+            assertThat(err.toString(), containsString("Line 1: failed with cause CONNECT"));
+        } finally {
+            stub.start();
+        }
+    }
+
+    @Test
+    public void shouldSendOverSeveralSessions() throws Exception {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            input.append("host\tservice\t0\tmessage ").append(i).append('\n');
+        }
+
+        int state = run(input.toString(), "-H", "localhost", "-p", String.valueOf(port),
+                "--password", PASSWORD, "--encryption", "xor", "--sessions", "4");
+
+        assertEquals(SendNsca.STATE_OK, state);
+        assertTrue(stub.awaitPacketCount(200, 5000));
+    }
+
+    @Test
+    public void shouldRejectUnknownOption() throws Exception {
+        int state = run("", "-x", "1");
+
+        assertEquals(SendNsca.STATE_UNKNOWN, state);
+        assertThat(err.toString(), containsString("Unexpected argument [-x]"));
+    }
+
+    @Test
+    public void shouldTranslateSendNscaOptions() throws Exception {
+        assertArrayEquals(new String[] { "--host", "nagios", "--delimiter", "-p", "--timeout", "5", "--large-messages", "--port", "1" },
+                SendNsca.translate(new String[] { "-H", "nagios", "-d", "-p", "-to", "5", "--large-messages", "-p", "1" }));
+    }
+
+    private int run(String input, String... args) throws Exception {
+        return SendNsca.run(args, new ByteArrayInputStream(input.getBytes("UTF-8")), new PrintStream(out), new PrintStream(err));
+    }
+}
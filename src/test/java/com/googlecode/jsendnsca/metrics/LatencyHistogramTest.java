@@ -0,0 +1,89 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca.metrics;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void shouldReturnZeroWhenNothingRecorded() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0L, histogram.getCount());
+        assertEquals(0L, histogram.getPercentile(99));
+        assertEquals(0L, histogram.getMean());
+    }
+
+    @Test
+    public void shouldReturnPercentilesWithinThreePercent() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * 1000);
+        }
+
+        assertEquals(1000L, histogram.getCount());
+        assertEquals(1000000L, histogram.getMax());
+        assertEquals(500500L, histogram.getMean());
+        assertThat(histogram.getPercentile(50), is(both(greaterThanOrEqualTo(500000L)).and(lessThanOrEqualTo(515000L))));
+        assertThat(histogram.getPercentile(99), is(both(greaterThanOrEqualTo(990000L)).and(lessThanOrEqualTo(1000000L))));
+        assertEquals(1000000L, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void shouldCountSmallValuesExactly() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3);
+        histogram.record(7);
+
+        assertEquals(3L, histogram.getPercentile(50));
+        assertEquals(7L, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void shouldCountVeryLargeValuesInLastBucket() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void shouldKeepOverflowApartFromLargestBoundedBucket() throws Exception {
+        long largestBounded = (1L << 37) - 1;
+        long overflow = 1L << 37;
+
+        assertThat(LatencyHistogram.indexOf(overflow), greaterThan(LatencyHistogram.indexOf(largestBounded)));
+        assertEquals(largestBounded, LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(largestBounded)));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(overflow)));
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(largestBounded);
+        histogram.record(overflow * 4);
+
+        assertEquals(largestBounded, histogram.getPercentile(50));
+        assertEquals(overflow * 4, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void shouldMapEveryValueIntoBucketWithUpperBoundAtOrAboveIt() throws Exception {
+        for (long value = 0; value < (1L << 37); value = value * 3 / 2 + 1) {
+            assertThat(LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(value)), greaterThanOrEqualTo(value));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.googlecode.jsendnsca.metrics.SenderMetrics.Phase;
+
+public class SenderMetricsTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void shouldCountAndRecordLatencies() throws Exception {
+        SenderMetrics metrics = new SenderMetrics();
+        metrics.recordSent();
+        metrics.recordSent();
+        metrics.recordFailed();
+        metrics.queued();
+        metrics.connectionOpened();
+        metrics.record(Phase.CONNECT, 2000000L);
+
+        assertEquals(2L, metrics.getSent());
+        assertEquals(1L, metrics.getFailed());
+        assertEquals(1L, (long) metrics.getQueueDepth());
+        assertEquals(1L, (long) metrics.getInFlightConnections());
+        assertEquals(2000L, (long) metrics.getLatencyMicros().get("connect.max"));
+        assertEquals(1L, metrics.getLatency(Phase.CONNECT).getCount());
+    }
+
+    @Test
+    public void shouldSumAggregatedMetricsWhenRead() throws Exception {
+        SenderMetrics first = new SenderMetrics();
+        SenderMetrics second = new SenderMetrics();
+        SenderMetrics aggregate = SenderMetrics.aggregate(first, second);
+
+        first.recordSent();
+        second.recordSent();
+        second.queued();
+        first.record(Phase.WRITE, 1000L);
+        second.record(Phase.WRITE, 3000L);
+
+        assertEquals(2L, aggregate.getSent());
+        assertEquals(1L, (long) aggregate.getQueueDepth());
+        assertEquals(2L, aggregate.getLatency(Phase.WRITE).getCount());
+        assertEquals(3L, (long) aggregate.getLatencyMicros().get("write.max"));
+    }
+
+    @Test
+    public void shouldRejectRecordingIntoAggregatedMetrics() throws Exception {
+        expectedException.expect(UnsupportedOperationException.class);
+        expectedException.expectMessage("aggregated metrics are read only");
+
+        SenderMetrics.aggregate(new SenderMetrics()).recordSent();
+    }
+
+    @Test
+    public void shouldExposeMetricsThroughJmx() throws Exception {
+        SenderMetrics metrics = new SenderMetrics();
+        metrics.recordDropped();
+        metrics.recordRetried();
+        metrics.register("test");
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("com.googlecode.jsendnsca:type=SenderMetrics,name=\"test\"");
+
+            assertEquals(1L, server.getAttribute(name, "Dropped"));
+            assertEquals(1L, server.getAttribute(name, "Retried"));
+            assertTrue(server.getAttribute(name, "LatencyMicros") instanceof TabularData);
+        } finally {
+            metrics.unregister();
+        }
+    }
+}
@@ -1 +1,507 @@
-/* * Licensed under the Apache License, Version 2.0 (the "License"); * you may not use this file except in compliance with the License. * You may obtain a copy of the License at * *     http://www.apache.org/licenses/LICENSE-2.0 * * Unless required by applicable law or agreed to in writing, software * distributed under the License is distributed on an "AS IS" BASIS, * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. * See the License for the specific language governing permissions and * limitations under the License. */package com.googlecode.jsendnsca.mocks;import com.googlecode.jsendnsca.MessagePayload;import com.googlecode.jsendnsca.builders.MessagePayloadBuilder;import com.googlecode.jsendnsca.utils.IOUtils;import java.io.*;import java.net.ServerSocket;import java.net.Socket;import java.util.Date;import java.util.LinkedList;import java.util.List;@SuppressWarnings({"ALL"})public class NagiosNscaStub implements Runnable {    private final List<MessagePayload> messagePayloads = new LinkedList<MessagePayload>();    private ServerSocket serverSocket;    private final int port;    private boolean listening;    private final String password;    private boolean sendInitialisationVector = true;    private int simulateTimeoutInMs;    private int maxMessageSizeInChars = 512;    public NagiosNscaStub(int port, String password) {        this.port = port;        this.password = password;    }    public void setSendInitialisationVector(boolean sendInitialisationVector) {        this.sendInitialisationVector = sendInitialisationVector;    }    public void setSimulateTimeoutInMs(int simulateTimeoutInMs) {        this.simulateTimeoutInMs = simulateTimeoutInMs;    }    public void start() throws Exception {        serverSocket = new ServerSocket(port);        Thread listeningThread = new Thread(this);        listening = true;        listeningThread.start();        Thread.sleep(100);    }    public void run() {        while (listening) {            try {                new MultiServerThread(serverSocket.accept()).start();            } catch (IOException ignore) {            }        }    }    public List<MessagePayload> getMessagePayloadList() {        return messagePayloads;    }    public void turnOnLargeMessageSupportAsInNsca291() {        maxMessageSizeInChars = 4096;    }    public void stop() throws IOException {        listening = false;        serverSocket.close();    }    @SuppressWarnings({"ClassExplicitlyExtendsThread"})    private class MultiServerThread extends Thread {        private static final int INITIALISATION_VECTOR_SIZE = 128;        private Socket socket;        private MultiServerThread(Socket socket) {            super("MultiServerThread");            this.socket = socket;        }        @Override        public void run() {            DataOutputStream outputStream = null;            InputStream inputStream = null;            try {                outputStream = new DataOutputStream(socket.getOutputStream());                sleep();                byte[] initVector = new byte[INITIALISATION_VECTOR_SIZE];                if (sendInitialisationVector) {                    outputStream.write(initVector);                    outputStream.writeInt((int) new Date().getTime());                    outputStream.flush();                    inputStream = socket.getInputStream();                    messagePayloads.add(parsePayload(inputStream, initVector));                }            } catch (IOException e) {                e.printStackTrace();            } finally {                IOUtils.closeQuietly(inputStream);                IOUtils.closeQuietly(outputStream);                if (socket != null) {                    try {                        socket.close();                    } catch (IOException ignore) {                    }                }            }        }        private void sleep() {            try {                Thread.sleep(simulateTimeoutInMs);            } catch (InterruptedException ignored) {            }        }        private MessagePayload parsePayload(InputStream inputStream, byte[] initVector) throws IOException {            DataInputStream stream = new DataInputStream(inputStream);            byte[] bytes = new byte[16 + 64 + 128 + maxMessageSizeInChars];            stream.readFully(bytes);            decrypt(bytes, initVector);            stream = new DataInputStream(new ByteArrayInputStream(bytes));            int amountToSkip = 12;            skipBytes(stream, amountToSkip);            short level = stream.readShort();            byte[] hostNameBytes = new byte[64];            stream.readFully(hostNameBytes);            String hostName = new String(hostNameBytes).trim();            byte[] serviceNameBytes = new byte[128];            stream.readFully(serviceNameBytes);            String serviceName = new String(serviceNameBytes).trim();            byte[] messageBytes = new byte[maxMessageSizeInChars];            stream.readFully(messageBytes);            String message = new String(messageBytes).trim();            return new MessagePayloadBuilder().withHostname(hostName).withLevel(level).withServiceName(serviceName).withMessage(message).create();        }        private void skipBytes(DataInputStream stream, int number) throws IOException {            long count = stream.skip(number);            if (count < number) {                throw new RuntimeException("Wanted to skip [" + number + "] bytes but only skipped [" + count + "]");            }        }        private void decrypt(byte[] sendBuffer, byte[] initVector) {            if (password != null) {                byte[] myPasswordBytes = password.getBytes();                for (int y = 0, x = 0; y < sendBuffer.length; y++, x++) {                    if (x >= myPasswordBytes.length) {                        x = 0;                    }                    sendBuffer[y] ^= myPasswordBytes[x];                }            }            for (int y = 0, x = 0; y < sendBuffer.length; y++, x++) {                if (x >= INITIALISATION_VECTOR_SIZE) {                    x = 0;                }                sendBuffer[y] ^= initVector[x];            }        }    }}
\ No newline at end of file
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca.mocks;
+
+import com.googlecode.jsendnsca.Level;
+import com.googlecode.jsendnsca.MessagePayload;
+import com.googlecode.jsendnsca.builders.MessagePayloadBuilder;
+import com.googlecode.jsendnsca.encryption.Encryption;
+import org.bouncycastle.crypto.BufferedBlockCipher;
+import org.bouncycastle.crypto.engines.RijndaelEngine;
+import org.bouncycastle.crypto.modes.CFBBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * An NSCA server for tests and load benchmarks.
+ * <p>
+ * A single selector thread accepts connections, sends a random initialisation
+ * vector and timestamp, then reads, decrypts and CRC checks every packet sent
+ * on the connection, as the NSCA daemon does. Decoded passive checks are
+ * recorded unless recording is turned off for load runs.
+ * <p>
+ * Packets are decrypted and CRC checked in place in the read buffer of their
+ * connection. On one core shared with the clients the stub takes about
+ * 100,000 packets per second over connections carrying many packets, but
+ * only about 8,000 with one connection per packet, where setting up the TCP
+ * connections is the limit.
+ * <p>
+ * Faults can be injected to exercise timeouts and retries: a delayed
+ * initialisation vector, connections dropped straight after accept, reads
+ * which stall and accepts which are delayed.
+ */
+@SuppressWarnings({"ALL"})
+public class NagiosNscaStub implements Runnable {
+
+    private static final int INITIALISATION_VECTOR_SIZE = 128;
+    private static final int SMALL_MESSAGE_SIZE_IN_CHARS = 512;
+    private static final int LARGE_MESSAGE_SIZE_IN_CHARS = 4096;
+    private static final short NSCA_VERSION = 3;
+
+    private final List<MessagePayload> messagePayloads = Collections.synchronizedList(new LinkedList<MessagePayload>());
+    private final AtomicLong packetCount = new AtomicLong();
+    private final AtomicLong invalidPacketCount = new AtomicLong();
+    private final AtomicInteger connectionsToDrop = new AtomicInteger();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<Timer>();
+    private final Random random = new Random();
+    private final CRC32 crc32 = new CRC32();
+    private final int port;
+    private final String password;
+    private Encryption encryption = Encryption.XOR;
+    private volatile boolean listening;
+    private volatile boolean sendInitialisationVector = true;
+    private volatile int simulateTimeoutInMs;
+    private volatile int acceptDelayInMs;
+    private volatile boolean stallReads;
+    private volatile boolean recordPayloads = true;
+    private int maxMessageSizeInChars = SMALL_MESSAGE_SIZE_IN_CHARS;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread listeningThread;
+
+    public NagiosNscaStub(int port, String password) {
+        this.port = port;
+        this.password = password;
+    }
+
+    /**
+     * Close connections without sending the initialisation vector
+     */
+    public void setSendInitialisationVector(boolean sendInitialisationVector) {
+        this.sendInitialisationVector = sendInitialisationVector;
+    }
+
+    /**
+     * Delay sending the initialisation vector on each connection
+     */
+    public void setSimulateTimeoutInMs(int simulateTimeoutInMs) {
+        this.simulateTimeoutInMs = simulateTimeoutInMs;
+    }
+
+    /**
+     * Delay accepting each connection, the connection is still established by
+     * the operating system so this looks like a slow server rather than a slow
+     * network
+     */
+    public void setAcceptDelayInMs(int acceptDelayInMs) {
+        this.acceptDelayInMs = acceptDelayInMs;
+    }
+
+    /**
+     * Close the next connections straight after accepting them
+     */
+    public void dropNextConnections(int count) {
+        connectionsToDrop.set(count);
+    }
+
+    /**
+     * Send the initialisation vector but never read the packet, holding the
+     * connection open until the stub is stopped
+     */
+    public void setStallReads(boolean stallReads) {
+        this.stallReads = stallReads;
+    }
+
+    /**
+     * Keep decoded passive checks, turn off for load runs so only the counts
+     * are kept
+     */
+    public void setRecordPayloads(boolean recordPayloads) {
+        this.recordPayloads = recordPayloads;
+    }
+
+    /**
+     * The encryption the passive checks are decrypted with, XOR by default
+     */
+    public void setEncryption(Encryption encryption) {
+        this.encryption = encryption;
+    }
+
+    public void start() throws Exception {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        listening = true;
+        listeningThread = new Thread(this, "NagiosNscaStub");
+        listeningThread.start();
+    }
+
+    public void run() {
+        try {
+            while (listening) {
+                selector.select(runDueTimers());
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept(key);
+                        } else if (key.isWritable()) {
+                            ((Connection) key.attachment()).writeHandshake();
+                        } else if (key.isReadable()) {
+                            ((Connection) key.attachment()).read();
+                        }
+                    } catch (IOException e) {
+                        close(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                close(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    public List<MessagePayload> getMessagePayloadList() {
+        return messagePayloads;
+    }
+
+    /**
+     * The number of valid packets received, whether or not recorded
+     */
+    public long getPacketCount() {
+        return packetCount.get();
+    }
+
+    /**
+     * The number of packets dropped because of a bad CRC, version or size
+     */
+    public long getInvalidPacketCount() {
+        return invalidPacketCount.get();
+    }
+
+    /**
+     * Wait for at least the given number of valid packets
+     *
+     * @return true if they were received before the timeout
+     */
+    public boolean awaitPacketCount(long count, long timeoutInMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutInMs;
+        while (packetCount.get() < count) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    public void turnOnLargeMessageSupportAsInNsca291() {
+        maxMessageSizeInChars = LARGE_MESSAGE_SIZE_IN_CHARS;
+    }
+
+    public void stop() throws IOException {
+        listening = false;
+        selector.wakeup();
+        try {
+            listeningThread.join(5000);
+        } catch (InterruptedException ignore) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept(final SelectionKey serverKey) throws IOException {
+        if (acceptDelayInMs > 0) {
+            serverKey.interestOps(0);
+            schedule(acceptDelayInMs, new Runnable() {
+                public void run() {
+                    try {
+                        acceptNow();
+                    } catch (IOException ignore) {
+                    }
+                    if (serverKey.isValid()) {
+                        serverKey.interestOps(SelectionKey.OP_ACCEPT);
+                    }
+                }
+            });
+        } else {
+            acceptNow();
+        }
+    }
+
+    private void acceptNow() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            if (connectionsToDrop.get() > 0 && connectionsToDrop.getAndDecrement() > 0) {
+                channel.close();
+                continue;
+            }
+            register(channel);
+        }
+    }
+
+    private void register(SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        final SelectionKey key = channel.register(selector, 0);
+        key.attach(new Connection(key));
+
+        if (simulateTimeoutInMs > 0) {
+            schedule(simulateTimeoutInMs, new Runnable() {
+                public void run() {
+                    startHandshake(key);
+                }
+            });
+        } else {
+            startHandshake(key);
+        }
+    }
+
+    private void startHandshake(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (!sendInitialisationVector) {
+            close(key);
+            return;
+        }
+        key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    private void schedule(long delayInMs, Runnable task) {
+        timers.add(new Timer(System.currentTimeMillis() + delayInMs, task));
+    }
+
+    /**
+     * @return the time to wait for the next timer, 0 to wait indefinitely
+     */
+    private long runDueTimers() {
+        while (!timers.isEmpty()) {
+            long wait = timers.peek().time - System.currentTimeMillis();
+            if (wait > 0) {
+                return wait;
+            }
+            timers.poll().task.run();
+        }
+        return 0;
+    }
+
+    private static void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    private static int packetSize(int messageSizeInChars) {
+        return 16 + 64 + 128 + messageSizeInChars;
+    }
+
+    private static class Timer implements Comparable<Timer> {
+
+        private final long time;
+        private final Runnable task;
+
+        private Timer(long time, Runnable task) {
+            this.time = time;
+            this.task = task;
+        }
+
+        public int compareTo(Timer other) {
+            return time < other.time ? -1 : (time == other.time ? 0 : 1);
+        }
+    }
+
+    private class Connection {
+
+        private final SelectionKey key;
+        private final ByteBuffer handshake = ByteBuffer.allocate(INITIALISATION_VECTOR_SIZE + 4);
+        private final byte[] initVector = new byte[INITIALISATION_VECTOR_SIZE];
+        private final int maxPacketSize = packetSize(maxMessageSizeInChars);
+        private final ByteBuffer packets = ByteBuffer.allocate(maxPacketSize * 4);
+        private final Decryptor decryptor;
+
+        private Connection(SelectionKey key) {
+            this.key = key;
+            random.nextBytes(initVector);
+            handshake.put(initVector);
+            handshake.putInt((int) (System.currentTimeMillis() / 1000));
+            handshake.flip();
+            decryptor = new Decryptor(encryption, initVector, password);
+        }
+
+        void writeHandshake() throws IOException {
+            ((SocketChannel) key.channel()).write(handshake);
+            if (!handshake.hasRemaining()) {
+                key.interestOps(stallReads ? 0 : SelectionKey.OP_READ);
+            }
+        }
+
+        void read() throws IOException {
+            int count = ((SocketChannel) key.channel()).read(packets);
+            packets.flip();
+            while (packets.remaining() >= maxPacketSize) {
+                receive(maxPacketSize);
+            }
+            if (count < 0) {
+                // as NSCA 2.9.1 with large message support, accept a small packet last
+                if (packets.remaining() == packetSize(SMALL_MESSAGE_SIZE_IN_CHARS)) {
+                    receive(packets.remaining());
+                } else if (packets.hasRemaining()) {
+                    invalidPacketCount.incrementAndGet();
+                }
+                close(key);
+                return;
+            }
+            packets.compact();
+        }
+
+        /**
+         * Decrypt and check the packet in place in the read buffer
+         */
+        private void receive(int packetSize) {
+            final byte[] packet = packets.array();
+            final int offset = packets.position();
+            packets.position(offset + packetSize);
+            decryptor.decrypt(packet, offset, packetSize);
+
+            int crc = packets.getInt(offset + 4);
+            packets.putInt(offset + 4, 0);
+            crc32.reset();
+            crc32.update(packet, offset, packetSize);
+            if (packets.getShort(offset) != NSCA_VERSION || (int) crc32.getValue() != crc) {
+                invalidPacketCount.incrementAndGet();
+                return;
+            }
+
+            if (recordPayloads) {
+                int level = packets.getShort(offset + 12);
+                String serviceName = toString(packet, offset + 78, 128);
+                if (serviceName.length() == 0) {
+                    messagePayloads.add(MessagePayload.forHostCheck(toString(packet, offset + 14, 64),
+                            Level.toLevel(level), toString(packet, offset + 206, packetSize - 208)));
+                } else {
+                    messagePayloads.add(new MessagePayloadBuilder()
+                            .withLevel(level)
+                            .withHostname(toString(packet, offset + 14, 64))
+                            .withServiceName(serviceName)
+                            .withMessage(toString(packet, offset + 206, packetSize - 208))
+                            .create());
+                }
+            }
+            packetCount.incrementAndGet();
+        }
+
+        private String toString(byte[] packet, int offset, int length) {
+            return new String(packet, offset, length).trim();
+        }
+    }
+
+    /**
+     * Decrypts the packets of one connection, for the CFB ciphers the cipher
+     * state runs on from one packet to the next as in the NSCA daemon
+     */
+    private static class Decryptor {
+
+        private final Encryption encryption;
+        private final byte[] initVector;
+        private final byte[] passwordBytes;
+        private Cipher tripleDes;
+        private BufferedBlockCipher rijndael;
+
+        private Decryptor(Encryption encryption, byte[] initVector, String password) {
+            this.encryption = encryption;
+            this.initVector = initVector;
+            this.passwordBytes = password == null ? new byte[0] : password.getBytes();
+            try {
+                switch (encryption) {
+                case TRIPLE_DES:
+                    tripleDes = Cipher.getInstance("DESede/CFB8/NoPadding");
+                    tripleDes.init(Cipher.DECRYPT_MODE,
+                            new SecretKeySpec(Arrays.copyOf(passwordBytes, 24), "DESede"),
+                            new IvParameterSpec(Arrays.copyOf(initVector, 8)));
+                    break;
+                case RIJNDAEL128:
+                case RIJNDAEL192:
+                case RIJNDAEL256:
+                    int keySize = encryption == Encryption.RIJNDAEL128 ? 16 : encryption == Encryption.RIJNDAEL192 ? 24 : 32;
+                    rijndael = new BufferedBlockCipher(new CFBBlockCipher(new RijndaelEngine(keySize * 8), 8));
+                    rijndael.init(false, new ParametersWithIV(
+                            new KeyParameter(Arrays.copyOf(passwordBytes, keySize)),
+                            Arrays.copyOf(initVector, keySize)));
+                    break;
+                default:
+                }
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void decrypt(byte[] packet, int offset, int length) {
+            switch (encryption) {
+            case XOR:
+                for (int y = 0; y < length; y++) {
+                    packet[offset + y] ^= initVector[y % INITIALISATION_VECTOR_SIZE];
+                }
+                if (passwordBytes.length > 0) {
+                    for (int y = 0; y < length; y++) {
+                        packet[offset + y] ^= passwordBytes[y % passwordBytes.length];
+                    }
+                }
+                break;
+            case TRIPLE_DES:
+                try {
+                    tripleDes.update(packet, offset, length, packet, offset);
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+                break;
+            case RIJNDAEL128:
+            case RIJNDAEL192:
+            case RIJNDAEL256:
+                rijndael.processBytes(packet, offset, length, packet, offset);
+                break;
+            default:
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class CRC32UtilsTest {
+
+    @SuppressWarnings({"PublicField"})
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Test
+    public void shouldMatchCRC32OfDataFollowedByZeros() throws Exception {
+        final Random random = new Random(42L);
+
+        for (int zeroCount : new int[] { 0, 1, 2, 7, 8, 255, 300, 513, 4096, 100000 }) {
+            final byte[] data = new byte[37 + zeroCount];
+            final byte[] prefix = new byte[37];
+            random.nextBytes(prefix);
+            System.arraycopy(prefix, 0, data, 0, prefix.length);
+
+            assertEquals("zeroCount " + zeroCount, crcOf(data, data.length), CRC32Utils.extendWithZeros(crcOf(data, prefix.length), zeroCount));
+        }
+    }
+
+    @Test
+    public void shouldMatchCRC32OfOnlyZeros() throws Exception {
+        final byte[] zeros = new byte[720];
+
+        assertEquals(crcOf(zeros, zeros.length), CRC32Utils.extendWithZeros(0, zeros.length));
+    }
+
+    @Test
+    public void shouldThrowIllegalArgumentExceptionForNegativeZeroCount() throws Exception {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("zeroCount cannot be negative");
+
+        CRC32Utils.extendWithZeros(0, -1);
+    }
+
+    private static int crcOf(byte[] bytes, int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca.utils;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class FixedStringEncoderTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void shouldEncodeAsciiAndZeroFillRemainderOfField() throws Exception {
+        final byte[] actual = new byte[] { 9, 9, 9, 9, 9, 9, 9 };
+        final FixedStringEncoder encoder = new FixedStringEncoder(UTF_8);
+
+        assertEquals(4L, (long) encoder.encode(actual, "test", 1, 5));
+        assertArrayEquals(new byte[] { 9, 116, 101, 115, 116, 0, 9 }, actual);
+        assertFalse(encoder.wasTruncated());
+    }
+
+    @Test
+    public void shouldEncodeLatin1CharactersAsSingleBytes() throws Exception {
+        final byte[] actual = new byte[4];
+
+        new FixedStringEncoder(ISO_8859_1).encode(actual, "caf\u00e9", 0, 4);
+
+        assertArrayEquals(new byte[] { 99, 97, 102, (byte) 0xe9 }, actual);
+    }
+
+    @Test
+    public void shouldReplaceUnmappableCharacters() throws Exception {
+        final byte[] actual = new byte[5];
+
+        new FixedStringEncoder(US_ASCII).encode(actual, "caf\u00e9", 0, 5);
+
+        assertArrayEquals(new byte[] { 99, 97, 102, 63, 0 }, actual);
+    }
+
+    @Test
+    public void shouldEncodeUtf8() throws Exception {
+        final byte[] actual = new byte[6];
+
+        new FixedStringEncoder(UTF_8).encode(actual, "caf\u00e9", 0, 6);
+
+        assertArrayEquals(new byte[] { 99, 97, 102, (byte) 0xc3, (byte) 0xa9, 0 }, actual);
+    }
+
+    @Test
+    public void shouldTruncateWithoutSplittingMultiByteCharacter() throws Exception {
+        final byte[] actual = new byte[4];
+        final FixedStringEncoder encoder = new FixedStringEncoder(UTF_8);
+
+        assertEquals(3L, (long) encoder.encode(actual, "caf\u00e9", 0, 4));
+        assertArrayEquals(new byte[] { 99, 97, 102, 0 }, actual);
+        assertTrue(encoder.wasTruncated());
+    }
+
+    @Test
+    public void shouldTruncateWithoutSplittingSurrogatePair() throws Exception {
+        final byte[] actual = new byte[4];
+        final FixedStringEncoder encoder = new FixedStringEncoder(UTF_8);
+
+        assertEquals(1L, (long) encoder.encode(actual, "a\ud83d\ude00", 0, 4));
+        assertArrayEquals(new byte[] { 97, 0, 0, 0 }, actual);
+        assertTrue(encoder.wasTruncated());
+    }
+
+    @Test
+    public void shouldTruncateAscii() throws Exception {
+        final byte[] actual = new byte[4];
+        final FixedStringEncoder encoder = new FixedStringEncoder(UTF_8);
+
+        assertEquals(4L, (long) encoder.encode(actual, "testing", 0, 4));
+        assertArrayEquals(new byte[] { 116, 101, 115, 116 }, actual);
+        assertTrue(encoder.wasTruncated());
+    }
+
+    @Test
+    public void shouldZeroFillFieldForNullValue() throws Exception {
+        final byte[] actual = new byte[] { 9, 9 };
+
+        assertEquals(0L, (long) new FixedStringEncoder(UTF_8).encode(actual, null, 0, 2));
+        assertArrayEquals(new byte[2], actual);
+    }
+
+    @Test
+    public void shouldReuseEncoderOfCallingThreadForSameCharset() throws Exception {
+        assertSame(FixedStringEncoder.forCharset(UTF_8), FixedStringEncoder.forCharset(UTF_8));
+        assertNotSame(FixedStringEncoder.forCharset(UTF_8), FixedStringEncoder.forCharset(US_ASCII));
+    }
+
+    @Test
+    public void shouldKeepEncoderOfEachCharsetWhenAlternatingCharsets() throws Exception {
+        FixedStringEncoder utf8 = FixedStringEncoder.forCharset(UTF_8);
+        FixedStringEncoder ascii = FixedStringEncoder.forCharset(US_ASCII);
+
+        assertSame(utf8, FixedStringEncoder.forCharset(UTF_8));
+        assertSame(ascii, FixedStringEncoder.forCharset(US_ASCII));
+    }
+}
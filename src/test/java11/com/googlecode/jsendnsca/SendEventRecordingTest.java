@@ -0,0 +1,149 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.googlecode.jsendnsca;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+
+import com.googlecode.jsendnsca.builders.NagiosSettingsBuilder;
+import com.googlecode.jsendnsca.encryption.Encryption;
+
+public class SendEventRecordingTest {
+
+    @Test
+    public void shouldRecordEnabledEvents() throws Exception {
+        NagiosSettings settings = new NagiosSettingsBuilder()
+            .withNagiosHost("nagios")
+            .withPort(5667)
+            .withEncryption(Encryption.TRIPLE_DES)
+            .create();
+        Path file = Files.createTempFile("jsendnsca", ".jfr");
+
+        try (Recording recording = new Recording()) {
+            recording.enable("com.googlecode.jsendnsca.Encode").withoutThreshold();
+            recording.disable("com.googlecode.jsendnsca.Connect");
+            recording.disable("com.googlecode.jsendnsca.Write");
+            recording.start();
+            SendEvent.begin(SendEventType.ENCODE).commit(settings, 720);
+            assertSame(SendEvent.begin(SendEventType.WRITE), SendEvent.begin(SendEventType.CONNECT));
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            if (event.getEventType().getName().startsWith("com.googlecode.jsendnsca.")) {
+                events.add(event);
+            }
+        }
+        Files.delete(file);
+
+        assertEquals(1, events.size());
+        assertEquals("com.googlecode.jsendnsca.Encode", events.get(0).getEventType().getName());
+        assertEquals("nagios", events.get(0).getString("host"));
+        assertEquals(5667, events.get(0).getInt("port"));
+        assertEquals("TRIPLE_DES", events.get(0).getString("encryption"));
+        assertEquals(720, events.get(0).getInt("packetSize"));
+    }
+
+    @Test
+    public void shouldRecordTimeSinceQueued() throws Exception {
+        Path file = Files.createTempFile("jsendnsca", ".jfr");
+
+        try (Recording recording = new Recording()) {
+            recording.enable("com.googlecode.jsendnsca.QueueWait").withoutThreshold();
+            recording.start();
+            SendEvent.begin(SendEventType.QUEUE_WAIT).commit(null, 0, System.nanoTime() - TimeUnit.SECONDS.toNanos(5));
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            if (event.getEventType().getName().equals("com.googlecode.jsendnsca.QueueWait")) {
+                events.add(event);
+            }
+        }
+        Files.delete(file);
+
+        assertEquals(1, events.size());
+        assertTrue(events.get(0).getDuration("queuedTime").getSeconds() >= 5);
+    }
+
+    @Test
+    public void shouldRecordNothingWithoutJfrModule() throws Exception {
+        ClassLoader withoutJfr = new WithoutJfrClassLoader();
+        Class<?> type = withoutJfr.loadClass(SendEventType.class.getName());
+        Class<?> sendEvent = withoutJfr.loadClass(SendEvent.class.getName());
+        Method begin = sendEvent.getDeclaredMethod("begin", type);
+        begin.setAccessible(true);
+        Method commit = sendEvent.getDeclaredMethod("commit", withoutJfr.loadClass(NagiosSettings.class.getName()), int.class);
+        commit.setAccessible(true);
+
+        Object event = begin.invoke(null, type.getEnumConstants()[0]);
+        commit.invoke(event, null, 0);
+
+        assertNotNull(event);
+        assertSame(sendEvent, event.getClass());
+    }
+
+    /**
+     * Loads the classes of JSend NSCA, Java 11 layer first, as seen on a
+     * runtime without the jdk.jfr module
+     */
+    private static final class WithoutJfrClassLoader extends URLClassLoader {
+
+        WithoutJfrClassLoader() throws Exception {
+            super(new URL[] {
+                new File("target/classes/META-INF/versions/11").toURI().toURL(),
+                new File("target/classes").toURI().toURL()
+            }, SendEventRecordingTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.startsWith("jdk.jfr.")) {
+                throw new ClassNotFoundException(name);
+            }
+            if (!name.startsWith("com.googlecode.jsendnsca.")) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loaded = findLoadedClass(name);
+                if (loaded == null) {
+                    loaded = findClass(name);
+                }
+                return loaded;
+            }
+        }
+    }
+}